@@ -0,0 +1,136 @@
+package loveletter;
+
+import agents.RandomAgent;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * A differential check of BatchState against the game engine, run with <code>./mkProj bench</code> before the benchmarks.
+ * Batches of games of 2 to 4 players are played to the end in a BatchState, and each game in its own State, from the same decks.
+ * After every draw and action it checks that both give the same draws, legal actions, outcomes and state, through rounds and whole games.
+ * The moves are chosen by randomActions on one generator, and from the engine's legal actions by a copy of it, which must agree.
+ * Every other turn is played by step, rather than draw, randomActions and apply.
+ * The program exits with status 1 at the first difference, which it describes.
+ * <pre>
+ * java -cp bin loveletter.BatchStateCheck [games]
+ * </pre>
+ **/
+public class BatchStateCheck{
+
+  private static final int SIZE = 16;//the number of games in a batch
+
+  public static void main(String[] args) throws IllegalActionException{
+    int games = args.length>0?Integer.parseInt(args[0]):1200;
+    Random rand = new Random(0);
+    long steps = 0;
+    int played = 0;
+    for(int num = 2; num<=4; num++){
+      BatchState batch = new BatchState(SIZE, num);
+      Agent[] agents = new Agent[num];
+      for(int p = 0; p<num; p++) agents[p] = new RandomAgent();
+      State[] states = new State[SIZE];
+      Card[][] decks = new Card[SIZE][];
+      Dealer[] dealers = new Dealer[SIZE];
+      for(int g = 0; g<SIZE; g++){
+        int k = g;
+        dealers[g] = () -> decks[k] = Card.shuffle(rand);//keeps each deck, to deal the same to the batch
+        states[g] = new State(dealers[g], agents);
+        batch.reset(g);
+        batch.deal(g, decks[g]);
+      }
+      int[] ids = new int[State.MAX_LEGAL_ACTIONS];
+      int[] batchIds = new int[State.MAX_LEGAL_ACTIONS];
+      int[] actions = new int[SIZE];
+      int[] outcomes = new int[SIZE];
+      Card[] drawn = new Card[SIZE];
+      int finished = 0;
+      for(int turn = 0; finished<games/3; turn++){
+        boolean stepped = turn%2==1;
+        long seed = rand.nextLong();
+        SplittableRandom copy = new SplittableRandom(seed);
+        SplittableRandom mirror = new SplittableRandom(seed);
+        if(stepped) batch.step(copy);
+        else if(batch.draw()!=SIZE) fail(num, "not every game drew");
+        for(int g = 0; g<SIZE; g++){
+          State game = states[g];
+          drawn[g] = game.drawCard();
+          int n = game.legalActions(drawn[g], ids);
+          if(!stepped){
+            if(batch.drawn(g)!=drawn[g].ordinal()) fail(num, "the draws differ");
+            if(batch.legalActions(g, batchIds)!=n) fail(num, "the number of legal actions differs");
+            for(int i = 0; i<n; i++)
+              if(batchIds[i]!=ids[i]) fail(num, "the legal actions differ, or are in a different order");
+            for(int id = -1; id<=Action.IDS; id++)
+              if(batch.legal(g, id)!=legal(game, id, drawn[g]))
+                fail(num, "whether action "+id+" is legal differs");
+          }
+          actions[g] = ids[mirror.nextInt(n)];//the choice of randomActions and step
+        }
+        if(!stepped){
+          int[] chosen = new int[SIZE];
+          batch.randomActions(copy, chosen);
+          for(int g = 0; g<SIZE; g++)
+            if(chosen[g]!=actions[g]) fail(num, "randomActions chose "+Action.get(chosen[g])+" rather than "+Action.get(actions[g]));
+          if(batch.apply(actions, outcomes)!=SIZE) fail(num, "not every game played");
+        }
+        for(int g = 0; g<SIZE; g++){
+          State game = states[g];
+          Action act = Action.get(actions[g]);
+          int outcome = game.apply(act, drawn[g]);
+          if(!stepped && outcomes[g]!=outcome) fail(num, "the outcomes of "+act+" differ");
+          compare(game, batch, g, num);
+          steps++;
+          if(game.gameOver()){
+            finished++;
+            states[g] = new State(dealers[g], agents);
+            batch.reset(g);
+            batch.deal(g, decks[g]);
+          }
+          else if(game.roundOver()){
+            game.newRound();
+            batch.deal(g, decks[g]);
+          }
+          else continue;
+          compare(states[g], batch, g, num);
+        }
+      }
+      played+=finished;
+    }
+    System.out.println("BatchState agrees with State over "+played+" games and "+steps+" actions");
+  }
+
+  //whether an action id is legal for the engine's next player
+  private static boolean legal(State game, int id, Card drawn){
+    if(id<0 || id>=Action.IDS) return false;
+    Card[] cards = Card.values();
+    int g = id%8;
+    Action act = Action.get(cards[id/160], id/40%4, id/8%5-1, g==0?null:cards[g]);//null for the ids of no action
+    return act!=null && act.player()==game.nextPlayer() && act.target()<game.numPlayers() && game.legalAction(act, drawn);//the engine does not check the range of the target
+  }
+
+  //checks the game in the batch is the same as the game engine's
+  private static void compare(State game, BatchState batch, int g, int num){
+    int phase = game.gameOver()?BatchState.GAME_OVER:game.roundOver()?BatchState.ROUND_OVER:BatchState.DRAW;
+    if(batch.phase(g)!=phase) fail(num, "the phase differs");
+    if(batch.nextPlayer(g)!=game.nextPlayer()) fail(num, "the next player differs");
+    if(batch.deckSize(g)!=game.deckSize()) fail(num, "the deck size differs");
+    if(game.roundOver() && batch.roundWinner(g)!=game.roundWinner()) fail(num, "the winner differs");
+    for(int p = 0; p<num; p++){
+      if(batch.eliminated(g, p)!=game.eliminated(p)) fail(num, "whether player "+p+" is eliminated differs");
+      if(batch.handmaid(g, p)!=game.handmaid(p)) fail(num, "the handmaid of player "+p+" differs");
+      if(batch.score(g, p)!=game.score(p)) fail(num, "the score of player "+p+" differs");
+      if(batch.hand(g, p)!=(game.eliminated(p)?-1:game.getCard(p).ordinal())) fail(num, "the hand of player "+p+" differs");
+      int sum = 0;
+      for(Iterator<Card> it = game.getDiscards(p); it.hasNext();) sum+=it.next().value();
+      if(batch.discardSum(g, p)!=sum) fail(num, "the discards of player "+p+" differ");
+      for(int q = 0; q<num; q++)
+        if(batch.knows(g, p, q)!=game.knows(p, q)) fail(num, "whether player "+p+" knows player "+q+"'s card differs");
+    }
+  }
+
+  private static void fail(int num, String difference){
+    System.out.println("BatchState differs from State in a game of "+num+" players: "+difference);
+    System.exit(1);
+  }
+}
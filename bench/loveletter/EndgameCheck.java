@@ -0,0 +1,93 @@
+package loveletter;
+
+import agents.RandomAgent;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A check of EndgameSolver's latency and bounds, run with <code>./mkProj bench</code> before the benchmarks.
+ * Positions with 1 to MAX_DECK cards in the deck are sampled from random rounds of 2 to 4 players,
+ * and each is solved from an empty table with the default budget, as an agent would call the solver from playCard.
+ * The worst latency for each deck size is reported, and the check fails if any solve takes a millisecond or more.
+ * Each position is solved three times and the median latency is taken, as the compiler or the machine may stall a solve now and then.
+ * Latency is the CPU time of the solving thread, where the JVM supports it,
+ * so a solve is not blamed for time the machine spent running other threads or collecting garbage.
+ * With 3 cards or fewer left, the bounds are also checked against the exact values of a solve without a budget.
+ * The program exits with status 1 if a solve is too slow or a bound is wrong, which it describes.
+ * <pre>
+ * java -cp bin loveletter.EndgameCheck [positions]
+ * </pre>
+ **/
+public class EndgameCheck{
+
+  private static final long LIMIT = 1000000;//the latency a solve must stay under, in nanoseconds
+  private static final int EXACT_DECK = 3;//the largest deck whose bounds are checked against an exact solve
+  private static final int ATTEMPTS = 3;//the number of times each position is solved
+  private static final int WARMUP = 2000;//the solves run before measuring, so the solver is compiled
+
+  public static void main(String[] args) throws IllegalActionException{
+    int positions = args.length>0?Integer.parseInt(args[0]):1500;
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    boolean cpu = threads.isCurrentThreadCpuTimeSupported();
+    EndgameSolver solver = new EndgameSolver();
+    EndgameSolver exact = new EndgameSolver();
+    exact.setBudget(0);
+    Action[] actions = new Action[State.MAX_LEGAL_ACTIONS];
+    double[] lower = new double[State.MAX_LEGAL_ACTIONS];
+    double[] upper = new double[State.MAX_LEGAL_ACTIONS];
+    double[] values = new double[State.MAX_LEGAL_ACTIONS];
+    int[] ids = new int[State.MAX_LEGAL_ACTIONS];
+    long[] worst = new long[EndgameSolver.MAX_DECK+1];
+    long[] total = new long[EndgameSolver.MAX_DECK+1];
+    int[] solved = new int[EndgameSolver.MAX_DECK+1];
+    int[] exactly = new int[EndgameSolver.MAX_DECK+1];
+    long[] times = new long[ATTEMPTS];
+    Random rand = new Random(0);
+    for(int found = 0, r = 0; found<WARMUP+positions; r++){
+      Agent[] agents = new Agent[2+r%3];
+      for(int p = 0; p<agents.length; p++) agents[p] = new RandomAgent();
+      State game = new State(new Random(rand.nextLong()), agents);
+      while(!game.roundOver()){
+        Card drawn = game.drawCard();
+        int deck = game.deckSize();
+        if(deck>=1 && deck<=EndgameSolver.MAX_DECK && found<WARMUP+positions){
+          State view = game.playerState(game.nextPlayer());
+          int n = 0;
+          for(int a = 0; a<ATTEMPTS; a++){
+            solver.clear();
+            long start = cpu?threads.getCurrentThreadCpuTime():System.nanoTime();
+            n = solver.solve(view, drawn, actions, lower, upper);
+            times[a] = (cpu?threads.getCurrentThreadCpuTime():System.nanoTime())-start;
+          }
+          Arrays.sort(times);
+          long time = times[ATTEMPTS/2];
+          if(found++>=WARMUP){
+            worst[deck] = Math.max(worst[deck], time);
+            total[deck]+=time;
+            solved[deck]++;
+            if(solver.exact()) exactly[deck]++;
+            if(time>=LIMIT) fail(game, deck, String.format("a solve took %.3fms", time/1e6));
+            if(deck<=EXACT_DECK){
+              exact.solve(view, drawn, actions, values);
+              for(int i = 0; i<n; i++)
+                if(lower[i]>values[i]+1e-9 || upper[i]<values[i]-1e-9 || solver.exact() && upper[i]-lower[i]>1e-9)
+                  fail(game, deck, "the bounds ["+lower[i]+", "+upper[i]+"] of "+actions[i]+" do not hold its value "+values[i]);
+            }
+          }
+        }
+        game.apply(Action.get(ids[rand.nextInt(game.legalActions(drawn, ids))]), drawn);
+      }
+    }
+    for(int d = 1; d<=EndgameSolver.MAX_DECK; d++)
+      System.out.println(String.format("%d cards left: %4d solves, worst %.3fms, mean %.3fms, %3.0f%% exact",
+                                        d, solved[d], worst[d]/1e6, total[d]/1e6/Math.max(solved[d], 1), 100.0*exactly[d]/Math.max(solved[d], 1)));
+    System.out.println("EndgameSolver stays under "+LIMIT/1000000+"ms of "+(cpu?"CPU time":"wall time")+" over "+positions+" positions");
+  }
+
+  private static void fail(State game, int deck, String problem){
+    System.out.println("EndgameSolver failed with "+deck+" cards left in a game of "+game.numPlayers()+" players: "+problem);
+    System.exit(1);
+  }
+}
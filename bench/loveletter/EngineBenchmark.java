@@ -0,0 +1,442 @@
+package loveletter;
+
+import agents.RandomAgent;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Microbenchmarks for the game engine, run with <code>./mkProj bench</code>.
+ * Each benchmark is warmed up, then timed over several measurement windows, in batches large enough
+ * that the cost of reading the clock does not matter. Work that is not being measured,
+ * such as copying the states an update is applied to, is done between batches, outside the timed region.
+ * <p>
+ * Results are written as CSV (benchmark, nanoseconds per operation, error, operations), and may be compared
+ * against a baseline file from an earlier run: the program exits with status 1 if any benchmark is slower
+ * than its baseline by more than the tolerance (plus twice the measurement error), so a regression can fail a build before it reaches the tournament servers.
+ * A benchmark that appears slower is measured again, up to the number of retries, and only fails if every measurement is slower,
+ * so a burst of load on a shared machine is not mistaken for a regression. The last measurement is the one reported.
+ * A baseline is only meaningful on the machine it was recorded on, so it should be re-recorded (with -out) when the hardware changes.
+ * <pre>
+ * java -cp bin loveletter.EngineBenchmark [-baseline file] [-out file] [-tolerance 0.25] [-retries 2] [-filter prefix] [-warmup ms] [-measure ms]
+ * </pre>
+ **/
+public class EngineBenchmark{
+
+  private static final int WINDOWS = 5;//the number of measurement windows for each benchmark
+  private static final int POSITIONS = 1024;//the number of positions sampled for each positional benchmark
+
+  private static volatile long sink;//consumes results, so the work being measured cannot be optimised away
+
+  private long warmupNanos = 1000000000L;
+  private long measureNanos = 400000000L;
+
+  /**
+   * A single benchmark: setup prepares for a batch of n operations, and run performs them.
+   **/
+  private static abstract class Bench{
+    private final String name;
+    Bench(String name){this.name = name;}
+    void setup(int n) throws Exception{}
+    abstract long run(int n) throws Exception;
+    int maxBatch(){return 1<<20;}
+  }
+
+  /**
+   * A measured result, in nanoseconds per operation.
+   **/
+  private static class Result{
+    private final String name;
+    private final double mean;
+    private final double error;//the standard deviation over the measurement windows
+    private final long ops;
+    Result(String name, double mean, double error, long ops){
+      this.name = name;
+      this.mean = mean;
+      this.error = error;
+      this.ops = ops;
+    }
+  }
+
+  //an engine state where the next player has drawn, and the action they play with the drawn card
+  private static class Position{
+    private final State engine;
+    private final Action act;
+    private final Card drawn;
+    Position(State engine, Action act, Card drawn){
+      this.engine = engine;
+      this.act = act;
+      this.drawn = drawn;
+    }
+  }
+
+  /**
+   * Builds the benchmarks, sampling positions from seeded random games so each run measures the same work.
+   **/
+  private List<Bench> benchmarks() throws IllegalActionException{
+    Random rand = new Random(0);
+    Agent[] agents = {new RandomAgent(), new RandomAgent(), new RandomAgent(), new RandomAgent()};
+    List<List<Position>> byCard = new ArrayList<List<Position>>();
+    for(int c = 0; c<8; c++) byCard.add(new ArrayList<Position>());
+    List<State> views = new ArrayList<State>();
+    List<State> finished = new ArrayList<State>();
+    List<Position> endgames = new ArrayList<Position>();//the player's view with MAX_DECK cards left, with no action
+    int[] ids = new int[State.MAX_LEGAL_ACTIONS];
+    while(finished.size()<POSITIONS || views.size()<POSITIONS || !full(byCard)){
+      State game = new State(new Random(rand.nextLong()), agents);
+      while(!game.roundOver()){
+        Card drawn = game.drawCard();
+        int n = game.legalActions(drawn, ids);
+        for(int i = 0; i<n; i++){
+          List<Position> list = byCard.get(Action.get(ids[i]).card().ordinal());
+          if(list.size()<POSITIONS) list.add(new Position(game.copy(), Action.get(ids[i]), drawn));
+        }
+        if(views.size()<POSITIONS) views.add(game.playerState(game.nextPlayer()));
+        if(game.deckSize()==EndgameSolver.MAX_DECK && endgames.size()<POSITIONS)
+          endgames.add(new Position(game.playerState(game.nextPlayer()).snapshot(), null, drawn));
+        game.apply(Action.get(ids[rand.nextInt(n)]), drawn);
+      }
+      if(finished.size()<POSITIONS) finished.add(game);
+    }
+
+    List<Bench> list = new ArrayList<Bench>();
+    Random dealRandom = new Random(1);
+    list.add(new Bench("Card.deal"){
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; i++) h+=Card.deal(dealRandom)[0].ordinal();
+          return h;
+        }
+      });
+    java.util.SplittableRandom shuffleRandom = new java.util.SplittableRandom(1);
+    list.add(new Bench("Card.shuffle"){
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; i++) h+=Card.shuffle(shuffleRandom)[0].ordinal();
+          return h;
+        }
+      });
+    State engine = new State(new Random(2), agents);
+    list.add(new Bench("State.newRound"){
+        long run(int n) throws IllegalActionException{
+          for(int i = 0; i<n; i++) engine.newRound();
+          return engine.deckSize();
+        }
+      });
+    list.add(new Bench("State.playerState"){
+        private State[] kept = new State[POSITIONS];//keeps the clones, so they cannot be optimised away
+        long run(int n) throws IllegalActionException{
+          long h = 0;
+          for(int i = 0; i<n; i++){
+            kept[i%POSITIONS] = engine.playerState(i%4);
+            h+=kept[i%POSITIONS].getPlayerIndex();
+          }
+          return h;
+        }
+      });
+    for(Card c: Card.values()){
+      List<Position> positions = byCard.get(c.ordinal());
+      list.add(new Bench("State.update."+c){
+          private State[] copies = new State[POSITIONS];
+          int maxBatch(){return POSITIONS;}
+          void setup(int n){//the updates change the states, so each batch works on fresh copies
+            for(int i = 0; i<n; i++) copies[i] = positions.get(i%positions.size()).engine.copy();
+          }
+          long run(int n) throws IllegalActionException{
+            long h = 0;
+            for(int i = 0; i<n; i++){
+              Position p = positions.get(i%positions.size());
+              h+=copies[i].update(p.act, p.drawn).length();
+            }
+            return h;
+          }
+        });
+    }
+    list.add(new Bench("State.unseenCards"){
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; i++) h+=views.get(i%views.size()).unseenCards().length;
+          return h;
+        }
+      });
+    list.add(new Bench("State.unseenCounts"){
+        private int[] counts = new int[8];
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; i++) h+=views.get(i%views.size()).unseenCards(counts);
+          return h;
+        }
+      });
+    list.add(new Bench("State.roundWinner"){
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; i++) h+=finished.get(i%finished.size()).roundWinner();
+          return h;
+        }
+      });
+    State[] rollouts = new State[1024];//random rollouts, one game object per game
+    java.util.SplittableRandom rolloutRandom = new java.util.SplittableRandom(4);
+    for(int g = 0; g<rollouts.length; g++) rollouts[g] = new State(Dealer.shuffle(rolloutRandom), agents);
+    list.add(new Bench("State.randomStep"){
+        private int[] legal = new int[State.MAX_LEGAL_ACTIONS];
+        private int g;
+        long run(int n) throws IllegalActionException{
+          long h = 0;
+          for(int i = 0; i<n; i++){
+            State s = rollouts[g];
+            g = (g+1)%rollouts.length;
+            if(s.roundOver()) s.newRound();
+            Card drawn = s.drawCard();
+            h+=s.apply(Action.get(legal[rolloutRandom.nextInt(s.legalActions(drawn, legal))]), drawn);
+          }
+          return h;
+        }
+      });
+    list.add(new Bench("State.snapshotStep"){//a random step, keeping a snapshot of the position before it
+        private int[] legal = new int[State.MAX_LEGAL_ACTIONS];
+        private State[] kept = new State[POSITIONS];
+        private int g;
+        long run(int n) throws IllegalActionException{
+          long h = 0;
+          for(int i = 0; i<n; i++){
+            State s = rollouts[g];
+            g = (g+1)%rollouts.length;
+            if(s.roundOver()) s.newRound();
+            kept[i%POSITIONS] = s.snapshot();
+            Card drawn = s.drawCard();
+            h+=s.apply(Action.get(legal[rolloutRandom.nextInt(s.legalActions(drawn, legal))]), drawn);
+          }
+          return h;
+        }
+      });
+    PackedState[] packedStarts = new PackedState[1024];
+    PackedState[] packedRollouts = new PackedState[1024];
+    for(int g = 0; g<packedRollouts.length; g++){
+      packedStarts[g] = new PackedState(Card.shuffle(rolloutRandom), 4);
+      packedRollouts[g] = packedStarts[g].copy();
+    }
+    list.add(new Bench("PackedState.randomStep"){//a random step, finding the legal actions with legal, replaying the same deals
+        private int[] legal = new int[State.MAX_LEGAL_ACTIONS];
+        private int g;
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; i++){
+            PackedState s = packedRollouts[g];
+            if(s.roundOver()) s.copyFrom(packedStarts[g]);
+            g = (g+1)%packedRollouts.length;
+            int drawn = s.draw();
+            int held = s.hand(s.nextPlayer());
+            int m = 0;
+            for(int c = 0; c<8; c++){
+              if(c!=held && c!=drawn) continue;
+              for(int t = -1; t<4; t++)
+                for(int guess = c==0?1:0; guess<(c==0?8:1); guess++)
+                  if(s.legal(c, t, guess, drawn)) legal[m++] = c | (t+1)<<3 | guess<<6;
+            }
+            int act = legal[rolloutRandom.nextInt(m)];
+            h+=s.apply(act&7, (act>>>3&7)-1, act>>>6, drawn);
+          }
+          return h;
+        }
+      });
+    BatchState batch = new BatchState(1024, 4);
+    list.add(new Bench("BatchState.randomStep"){//one operation is a step of one game of the batch
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; ){
+            batch.deal(rolloutRandom);
+            i+=batch.step(rolloutRandom);
+            h+=batch.nextPlayer(i%1024);
+            for(int g = 0; g<1024; g++) if(batch.phase(g)==BatchState.GAME_OVER) batch.reset(g);
+          }
+          return h;
+        }
+      });
+    EndgameSolver solver = new EndgameSolver();
+    list.add(new Bench("EndgameSolver.solve"){//a solve with the default budget from an empty table, as the first solve of a round
+        private Action[] actions = new Action[State.MAX_LEGAL_ACTIONS];
+        private double[] lower = new double[State.MAX_LEGAL_ACTIONS];
+        private double[] upper = new double[State.MAX_LEGAL_ACTIONS];
+        private int g;
+        int maxBatch(){return 1;}
+        void setup(int n){solver.clear();}
+        long run(int n){
+          Position p = endgames.get(g);
+          g = (g+1)%endgames.size();
+          return solver.solve(p.engine, p.drawn, actions, lower, upper);
+        }
+      });
+    list.add(new Bench("LoveLetter.playGame"){
+        private long seed = 3;
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; i++) h+=new LoveLetter(seed++).playGame(agents)[0];
+          return h;
+        }
+      });
+    AgentPool pool = new AgentPool(AgentFactory.of(new Class<?>[]{RandomAgent.class, RandomAgent.class, RandomAgent.class, RandomAgent.class}));
+    list.add(new Bench("AgentPool.playGame"){//a game with agents taken from a pool and returned, as a tournament worker plays it
+        private long seed = 3;
+        private int[] seating = {0, 1, 2, 3};
+        long run(int n) throws Exception{
+          long h = 0;
+          for(int i = 0; i<n; i++){
+            Agent[] seated = pool.acquire(seating);
+            h+=new LoveLetter(seed++).playGame(seated)[0];
+            pool.release(seating, seated, null);
+          }
+          return h;
+        }
+      });
+    list.add(new Bench("RemoteAgent.playGame"){//a game between agents in other processes, which are started once
+        private long seed = 3;
+        private Agent[] remote;
+        void setup(int n) throws Exception{
+          if(remote!=null) return;
+          AgentFactory f = RemoteAgent.factory(RandomAgent.class.getName());
+          remote = new Agent[]{f.create(), f.create(), f.create(), f.create()};
+          run(2000);//the warm up of the hosts, which compile their code as they play
+        }
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; i++){
+            h+=new LoveLetter(seed++).playGame(remote)[0];
+            for(Agent a: remote) a.reset();
+          }
+          return h;
+        }
+      });
+    AsyncListener async = new AsyncListener(new GameListener(){});//the cost to the game of publishing its events
+    list.add(new Bench("AsyncListener.playGame"){
+        private long seed = 3;
+        long run(int n){
+          long h = 0;
+          for(int i = 0; i<n; i++){
+            LoveLetter game = new LoveLetter(seed++);
+            game.setListener(async);
+            h+=game.playGame(agents)[0];
+          }
+          return h;
+        }
+      });
+    return list;
+  }
+
+  private static boolean full(List<List<Position>> byCard){
+    for(List<Position> l: byCard)
+      if(l.size()<POSITIONS) return false;
+    return true;
+  }
+
+  /**
+   * Warms up and measures one benchmark.
+   **/
+  private Result measure(Bench b) throws Exception{
+    int batch = 1;
+    long end = System.nanoTime()+warmupNanos;
+    while(System.nanoTime()<end){//warm up, growing the batch until it takes about a millisecond
+      b.setup(batch);
+      long t = System.nanoTime();
+      sink+=b.run(batch);
+      if(System.nanoTime()-t<1000000 && 2*batch<=b.maxBatch()) batch*=2;
+    }
+    double[] rate = new double[WINDOWS];
+    long ops = 0;
+    for(int w = 0; w<WINDOWS; w++){
+      long timed = 0;
+      long count = 0;
+      while(timed<measureNanos/WINDOWS){
+        b.setup(batch);
+        long t = System.nanoTime();
+        sink+=b.run(batch);
+        timed+=System.nanoTime()-t;
+        count+=batch;
+      }
+      rate[w] = timed/(double)count;
+      ops+=count;
+    }
+    double mean = 0;
+    for(double r: rate) mean+=r/WINDOWS;
+    double var = 0;
+    for(double r: rate) var+=(r-mean)*(r-mean)/(WINDOWS-1);
+    return new Result(b.name, mean, Math.sqrt(var), ops);
+  }
+
+  //reads the mean and error of each benchmark in a results file
+  private static Map<String,double[]> readBaseline(String file) throws IOException{
+    Map<String,double[]> baseline = new HashMap<String,double[]>();
+    try(BufferedReader in = new BufferedReader(new FileReader(file))){
+      String line = in.readLine();//the header
+      while((line = in.readLine())!=null){
+        String[] fields = line.split(",");
+        if(fields.length>=3) baseline.put(fields[0], new double[]{Double.parseDouble(fields[1]), Double.parseDouble(fields[2])});
+      }
+    }
+    return baseline;
+  }
+
+  //whether a result is slower than its baseline, if it has one: by more than the tolerance, plus twice the combined error of the two runs
+  private static boolean slower(Result r, double[] base, double tolerance){
+    return base!=null && r.mean-base[0]>tolerance*base[0]+2*Math.hypot(r.error, base[1]);
+  }
+
+  /**
+   * Runs the benchmarks, and compares them with a baseline if one is given.
+   * @param args the options described in the class comment
+   **/
+  public static void main(String[] args) throws Exception{
+    EngineBenchmark bench = new EngineBenchmark();
+    String baselineFile = null;
+    String outFile = null;
+    String filter = "";
+    double tolerance = 0.25;
+    int retries = 2;
+    for(int i = 0; i<args.length; i++){
+      switch(args[i]){
+        case "-baseline": baselineFile = args[++i]; break;
+        case "-out": outFile = args[++i]; break;
+        case "-tolerance": tolerance = Double.parseDouble(args[++i]); break;
+        case "-retries": retries = Integer.parseInt(args[++i]); break;
+        case "-filter": filter = args[++i]; break;
+        case "-warmup": bench.warmupNanos = Long.parseLong(args[++i])*1000000L; break;
+        case "-measure": bench.measureNanos = Long.parseLong(args[++i])*1000000L; break;
+        default: throw new IllegalArgumentException("Unknown option "+args[i]);
+      }
+    }
+    Map<String,double[]> baseline = baselineFile==null?new HashMap<String,double[]>():readBaseline(baselineFile);
+    List<Result> results = new ArrayList<Result>();
+    boolean regressed = false;
+    for(Bench b: bench.benchmarks()){
+      if(!b.name.startsWith(filter)) continue;
+      double[] base = baseline.get(b.name);
+      Result r = bench.measure(b);
+      int tries = 1;
+      for(; tries<=retries && slower(r, base, tolerance); tries++) r = bench.measure(b);
+      results.add(r);
+      String line = String.format("%-28s %12.1f ns/op  +- %8.1f", r.name, r.mean, r.error);
+      if(base!=null){
+        line+=String.format("  %+6.1f%% vs baseline", 100*(r.mean/base[0]-1));
+        if(tries>1) line+=String.format("  (measured %d times)", tries);
+        if(slower(r, base, tolerance)){
+          line+="  REGRESSION";
+          regressed = true;
+        }
+      }
+      System.out.println(line);
+    }
+    if(outFile!=null){
+      try(PrintWriter out = new PrintWriter(new FileWriter(outFile))){
+        out.println("benchmark,ns_per_op,error,ops");
+        for(Result r: results) out.println(String.format(java.util.Locale.ROOT, "%s,%.1f,%.1f,%d", r.name, r.mean, r.error, r.ops));
+      }
+    }
+    if(regressed) System.exit(1);
+  }
+}
@@ -0,0 +1,81 @@
+package loveletter;
+
+import agents.RandomAgent;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * A differential check of PackedState against the game engine, run with <code>./mkProj bench</code> before the benchmarks.
+ * Random rounds of 2 to 4 players are played in a State and a PackedState from the same deal.
+ * After every draw and action it checks that both give the same draws, legal actions, outcomes and state.
+ * Guards guessing the Guard or a card out of range must be illegal.
+ * The program exits with status 1 at the first difference, which it describes.
+ * <pre>
+ * java -cp bin loveletter.PackedStateCheck [rounds]
+ * </pre>
+ **/
+public class PackedStateCheck{
+
+  public static void main(String[] args) throws IllegalActionException{
+    int rounds = args.length>0?Integer.parseInt(args[0]):20000;
+    Random rand = new Random(0);
+    Card[] cards = Card.values();
+    int[] ids = new int[State.MAX_LEGAL_ACTIONS];
+    long steps = 0;
+    for(int r = 0; r<rounds; r++){
+      Agent[] agents = new Agent[2+r%3];
+      for(int p = 0; p<agents.length; p++) agents[p] = new RandomAgent();
+      State game = new State(new Random(rand.nextLong()), agents);
+      PackedState packed = new PackedState(game);
+      compare(game, packed, r);
+      while(!game.roundOver()){
+        Card drawn = game.drawCard();
+        if(packed.draw()!=drawn.ordinal()) fail(r, "the draws differ");
+        int a = game.nextPlayer();
+        for(int c = 0; c<8; c++)
+          for(int t = -1; t<4; t++){
+            for(int g = 0; g<8; g++){
+              Card guess = c==0 || g>0?cards[g]:null;
+              Action act = t<game.numPlayers()?Action.get(cards[c], a, t, guess):null;
+              boolean legal = act!=null && game.legalAction(act, drawn);
+              if(legal!=packed.legal(c, t, g, drawn.ordinal()))
+                fail(r, cards[c]+" at "+t+" guessing "+guess+" is "+(legal?"legal":"illegal")+" in State");
+            }
+            if(packed.legal(c, t, -1, drawn.ordinal()) || packed.legal(c, t, 8, drawn.ordinal()))
+              fail(r, "a guess out of range is legal");
+          }
+        Action act = Action.get(ids[rand.nextInt(game.legalActions(drawn, ids))]);
+        if(game.apply(act, drawn)!=packed.apply(act, drawn)) fail(r, "the outcomes of "+act+" differ");
+        compare(game, packed, r);
+        steps++;
+      }
+    }
+    System.out.println("PackedState agrees with State over "+rounds+" rounds and "+steps+" actions");
+  }
+
+  //checks the packed state is the same as the game engine's
+  private static void compare(State game, PackedState packed, int round){
+    int num = game.numPlayers();
+    if(packed.numPlayers()!=num) fail(round, "the number of players differs");
+    if(packed.nextPlayer()!=game.nextPlayer()) fail(round, "the next player differs");
+    if(packed.deckSize()!=game.deckSize()) fail(round, "the deck size differs");
+    if(packed.roundOver()!=game.roundOver()) fail(round, "whether the round is over differs");
+    if(game.roundOver() && packed.roundWinner()!=game.roundWinner()) fail(round, "the winner differs");
+    for(int p = 0; p<num; p++){
+      if(packed.eliminated(p)!=game.eliminated(p)) fail(round, "whether player "+p+" is eliminated differs");
+      if(packed.handmaid(p)!=game.handmaid(p)) fail(round, "the handmaid of player "+p+" differs");
+      if(packed.score(p)!=game.score(p)) fail(round, "the score of player "+p+" differs");
+      if(!game.eliminated(p) && packed.hand(p)!=game.getCard(p).ordinal()) fail(round, "the hand of player "+p+" differs");
+      int sum = 0;
+      for(Iterator<Card> it = game.getDiscards(p); it.hasNext();) sum+=it.next().value();
+      if(packed.discardSum(p)!=sum) fail(round, "the discards of player "+p+" differ");
+      for(int q = 0; q<num; q++)
+        if(packed.knows(p, q)!=game.knows(p, q)) fail(round, "whether player "+p+" knows player "+q+"'s card differs");
+    }
+  }
+
+  private static void fail(int round, String difference){
+    System.out.println("PackedState differs from State in round "+round+": "+difference);
+    System.exit(1);
+  }
+}
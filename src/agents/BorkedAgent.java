@@ -17,6 +17,23 @@ public class BorkedAgent implements Agent{
     rand  = new Random();
   }
 
+  /**
+   * Seeds the agent's random choices, so that its moves can be reproduced.
+   * @param seed the seed for the coming move
+   * */
+  public void seed(long seed){
+    rand.setSeed(seed);
+  }
+
+  /**
+   * Forgets the game, so the agent can be reused for another.
+   * @return true, as the agent keeps nothing else from the game
+   * */
+  public boolean reset(){
+    current = null;
+    return true;
+  }
+
   /**
    * Reports the agents name
    * */
@@ -0,0 +1,261 @@
+package agents;
+import loveletter.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An agent using Information Set Monte Carlo Tree Search (ISMCTS).
+ * Each iteration of the search determinizes the cards the agent cannot see,
+ * then descends a tree of actions shared between all determinizations,
+ * choosing among the actions that are legal in the current determinization by UCB1,
+ * before finishing the round with random play. The reward for each player is winning the round.
+ * The search is root-parallel: each thread grows its own tree, and the visit counts at the root are summed.
+ * Each move is limited by a wall-clock budget, an iteration budget, or both.
+ * An agent searching on several threads keeps them between moves and games, until it is closed (AgentPool closes the agents it discards).
+ * */
+public class MCTSAgent implements Agent, AutoCloseable{
+
+  private static final double EXPLORATION = 0.7;//the UCB1 exploration constant
+
+  private Random rand;
+  private State current;
+  private int myIndex;
+  private long budgetMillis;
+  private int budgetIterations;
+  private int threads;
+  private ExecutorService pool;
+  private long iterations;//total iterations of all searches
+  private long searchNanos;//total time of all searches
+  private double lastRate;//the iterations per second of the last search
+
+  //0 place default constructor, searching on one thread, as the tournaments already play a game on every core
+  public MCTSAgent(){
+    this(50, 0, 1);
+  }
+
+  /**
+   * Constructs an agent with a given search budget per move.
+   * The search stops when either budget is reached, and a budget of 0 is unlimited.
+   * @param budgetMillis the wall-clock time allowed per move, in milliseconds
+   * @param budgetIterations the total number of iterations allowed per move, across all threads
+   * @param threads the number of threads to search with
+   * @throws IllegalArgumentException if both budgets are unlimited, or threads is not positive
+   * */
+  public MCTSAgent(long budgetMillis, int budgetIterations, int threads){
+    if(budgetMillis<=0 && budgetIterations<=0) throw new IllegalArgumentException("The search must have a budget");
+    if(threads<1) throw new IllegalArgumentException("At least one thread is required");
+    this.budgetMillis = budgetMillis;
+    this.budgetIterations = budgetIterations;
+    this.threads = threads;
+    rand = new Random();
+  }
+
+  /**
+   * Seeds the agent's random choices, so that its moves can be reproduced.
+   * The searches are only reproducible with an iteration budget and a single thread, as otherwise their length depends on timing.
+   * @param seed the seed for the coming move
+   * */
+  public void seed(long seed){
+    rand.setSeed(seed);
+  }
+
+  /**
+   * Forgets the game, so the agent can be reused for another. The search threads are kept, so they are started once rather than for every game.
+   * @return true, as the agent keeps nothing else from the game
+   * */
+  public boolean reset(){
+    current = null;
+    return true;
+  }
+
+  /**
+   * Stops the search threads, interrupting any search still running. The agent should not be used again.
+   * */
+  public void close(){
+    if(pool!=null) pool.shutdownNow();
+    pool = null;
+  }
+
+  /**
+   * Reports the agents name
+   * */
+  public String toString(){return "ISMCTS";}
+
+  /**
+   * Method called at the start of a round
+   * @param start the starting state of the round
+   **/
+  public void newRound(State start){
+    current = start;
+    myIndex = current.getPlayerIndex();
+  }
+
+  /**
+   * Method called when any agent performs an action.
+   * @param act the action an agent performs
+   * @param results the state of play the agent is able to observe.
+   * **/
+  public void see(Action act, State results){
+    current = results;
+  }
+
+  /**
+   * Perform an action after drawing a card from the deck
+   * @param c the card drawn from the deck
+   * @return the action the agent chooses to perform
+   * */
+  public Action playCard(Card c){
+    long start = System.nanoTime();
+    long deadline = budgetMillis>0?start+budgetMillis*1000000L:Long.MAX_VALUE;
+    List<Node> roots = new ArrayList<Node>();
+    if(threads==1) roots.add(search(c, deadline, budgetIterations>0?budgetIterations:Integer.MAX_VALUE, rand.nextLong()));
+    else{
+      if(pool==null) pool = Executors.newFixedThreadPool(threads, r -> {
+          Thread t = new Thread(r, "ISMCTS search");
+          t.setDaemon(true);
+          return t;
+        });
+      List<Future<Node>> futures = new ArrayList<Future<Node>>();
+      for(int i = 0; i<threads; i++){
+        int share = budgetIterations>0?(budgetIterations+i)/threads:Integer.MAX_VALUE;
+        long seed = rand.nextLong();
+        futures.add(pool.submit(() -> search(c, deadline, share, seed)));
+      }
+      try{
+        for(Future<Node> f: futures) roots.add(f.get());
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        for(Future<Node> f: futures) f.cancel(true);//the move is abandoned, so the threads are freed for the next
+      }catch(ExecutionException e){
+        throw new IllegalStateException("Search failed", e.getCause());
+      }
+    }
+    //sum the visits to each action at the root, and play the most visited
+    int[] visits = new int[Action.IDS];
+    long count = 0;
+    Action best = null;
+    for(Node root: roots){
+      count+=root.visits;
+      for(Node child: root.children){
+        visits[child.id]+=child.visits;
+        if(best==null || visits[child.id]>visits[best.id()]) best = child.action;
+      }
+    }
+    long elapsed = System.nanoTime()-start;
+    iterations+=count;
+    searchNanos+=elapsed;
+    lastRate = count*1e9/Math.max(1, elapsed);
+    if(best==null){//no iterations were completed, so play any legal action
+      Action[] acts = new ForwardModel(current, c, rand).legalActions();
+      best = acts[rand.nextInt(acts.length)];
+    }
+    return best;
+  }
+
+  /**
+   * Gives the search throughput of the most recent move.
+   * @return the iterations per second of the last search, across all threads
+   * */
+  public double lastIterationsPerSecond(){return lastRate;}
+
+  /**
+   * Gives the search throughput over all moves made by this agent.
+   * @return the iterations per second of all searches, across all threads
+   * */
+  public double iterationsPerSecond(){
+    return searchNanos==0?0:iterations*1e9/searchNanos;
+  }
+
+  /**
+   * @return the total number of search iterations performed by this agent
+   * */
+  public long iterations(){return iterations;}
+
+  //grows a single search tree until the deadline or the iteration budget is reached
+  private Node search(Card c, long deadline, int budget, long seed){
+    Random r = new Random(seed);
+    Node root = new Node(-1);
+    int[] ids = new int[State.MAX_LEGAL_ACTIONS];
+    int[] untried = new int[State.MAX_LEGAL_ACTIONS];
+    for(int i = 0; i<budget && System.nanoTime()<deadline && !Thread.currentThread().isInterrupted(); i++){//an interrupted search is abandoned
+      try{
+        iterate(root, new ForwardModel(current, c, r), r, ids, untried);
+      }catch(IllegalActionException e){
+        throw new IllegalStateException("Search applied an illegal action", e);
+      }
+    }
+    return root;
+  }
+
+  //performs one iteration of ISMCTS on a determinization
+  private void iterate(Node root, ForwardModel model, Random r, int[] ids, int[] untried) throws IllegalActionException{
+    List<Node> path = new ArrayList<Node>();
+    path.add(root);
+    Node node = root;
+    boolean expanded = false;
+    while(!model.roundOver() && !expanded){//selection and expansion
+      Card drawn = model.draw();
+      int n = model.legalActions(ids);
+      int u = 0;
+      Node best = null;
+      double bestValue = Double.NEGATIVE_INFINITY;
+      for(int i = 0; i<n; i++){
+        Node child = node.child(ids[i]);
+        if(child==null) untried[u++] = ids[i];
+        else{
+          child.available++;
+          double value = child.wins/child.visits+EXPLORATION*Math.sqrt(Math.log(child.available)/child.visits);
+          if(value>bestValue){
+            bestValue = value;
+            best = child;
+          }
+        }
+      }
+      if(u>0){
+        best = new Node(untried[r.nextInt(u)]);
+        best.available = 1;
+        node.children.add(best);
+        expanded = true;
+      }
+      model.apply(best.action, drawn);
+      node = best;
+      path.add(node);
+    }
+    while(!model.roundOver()){//random play to the end of the round
+      Card drawn = model.draw();
+      int n = model.legalActions(ids);
+      model.apply(Action.get(ids[r.nextInt(n)]), drawn);
+    }
+    int winner = model.roundWinner();
+    for(Node n: path){
+      n.visits++;
+      if(n.action!=null && n.action.player()==winner) n.wins++;
+    }
+  }
+
+  //a node of the search tree, reached by performing an action
+  private static class Node{
+    private Action action;
+    private int id;
+    private int visits;
+    private int available;//the number of times this action was legal when its parent was visited
+    private double wins;//wins for the player who performed the action
+    private List<Node> children = new ArrayList<Node>();
+
+    private Node(int id){
+      this.id = id;
+      this.action = id==-1?null:Action.get(id);
+    }
+
+    private Node child(int id){
+      for(Node n: children)
+        if(n.id==id) return n;
+      return null;
+    }
+  }
+}
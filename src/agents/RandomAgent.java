@@ -11,12 +11,30 @@ public class RandomAgent implements Agent{
   private Random rand;
   private State current;
   private int myIndex;
+  private int[] legal = new int[State.MAX_LEGAL_ACTIONS];
 
   //0 place default constructor
   public RandomAgent(){
     rand  = new Random();
   }
 
+  /**
+   * Seeds the agent's random choices, so that its moves can be reproduced.
+   * @param seed the seed for the coming move
+   * */
+  public void seed(long seed){
+    rand.setSeed(seed);
+  }
+
+  /**
+   * Forgets the game, so the agent can be reused for another.
+   * @return true, as the agent keeps nothing else from the game
+   * */
+  public boolean reset(){
+    current = null;
+    return true;
+  }
+
   /**
    * Reports the agents name
    * */
@@ -48,41 +66,29 @@ public class RandomAgent implements Agent{
    * @throws IllegalActionException when the Action produced is not legal.
    * */
   public Action playCard(Card c){
-    Action act = null;
-    Card play;
-    while(!current.legalAction(act, c)){
-      if(rand.nextDouble()<0.5) play= c;
-      else play = current.getCard(myIndex);
-      int target = rand.nextInt(current.numPlayers());
-      try{
-        switch(play){
-          case GUARD:
-            act = Action.playGuard(myIndex, target, Card.values()[rand.nextInt(7)+1]);
-            break;
-          case PRIEST:
-            act = Action.playPriest(myIndex, target);
-            break;
-          case BARON:  
-            act = Action.playBaron(myIndex, target);
-            break;
-          case HANDMAID:
-            act = Action.playHandmaid(myIndex);
-            break;
-          case PRINCE:  
-            act = Action.playPrince(myIndex, target);
-            break;
-          case KING:
-            act = Action.playKing(myIndex, target);
-            break;
-          case COUNTESS:
-            act = Action.playCountess(myIndex);
-            break;
-          default:
-            act = null;//never play princess
-        }
-      }catch(IllegalActionException e){/*do nothing*/}
+    int n = current.legalActions(c, legal);
+    int m = 0;
+    for(int i = 0; i<n; i++)//never play princess, the other card is always legal
+      if(Action.get(legal[i]).card()!=Card.PRINCESS) legal[m++] = legal[i];
+    if(m==0) return n==0?null:Action.get(legal[0]);//only possible if the agent missed an update of the game
+    //the agent picks the held or drawn card evenly, with a random target, and picks again if the target is not legal,
+    //so a card is chosen in proportion to the share of targets it may take, and then a legal target and guess evenly.
+    //legalActions lists the actions of the held card before those of the drawn card, so each card's actions are together
+    Card first = Action.get(legal[0]).card();
+    int split = 1;
+    while(split<m && Action.get(legal[split]).card()==first) split++;
+    if(split<m){
+      double w = share(first, split);
+      if(rand.nextDouble()*(w+share(Action.get(legal[split]).card(), m-split))>=w)
+        return Action.get(legal[split+rand.nextInt(m-split)]);
     }
-    return act;
+    return Action.get(legal[rand.nextInt(split)]);
+  }
+
+  //the share of the random targets with which a card is legal, given the number of its legal actions
+  private double share(Card card, int actions){
+    if(card==Card.HANDMAID || card==Card.COUNTESS) return 1;//the target is ignored
+    return (card==Card.GUARD?actions/7:actions)/(double)current.numPlayers();
   }
 }
 
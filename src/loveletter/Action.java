@@ -3,21 +3,46 @@ package loveletter;
 /**
  * An abstract class to represent actions in the game LoveLetter.
  * The class is designed to be immutable.
+ * There are only a few hundred distinct actions, so each is created once, 
+ * and the static play methods return the canonical instance rather than a new object.
+ * Each action has an integer id, which may be used as an array index, and Action.get(id) returns the action without allocating.
  * @author Tim French
  **/
 public class Action{
   //the player performing the action
-  private Card card;
+  private final Card card;
   //the player's name (for nice formatting)
-  private int player;
+  private final int player;
   //The type of action
-  private int target;
+  private final int target;
   //The position of the card played/discarded
-  private Card guess;
+  private final Card guess;
+  //the integer id of the action
+  private final int id;
+
+  /**The number of action ids: 8 cards, 4 players, 5 targets (including none) and 8 guesses (including none)**/
+  public static final int IDS = 8*4*5*8;
+
+  //the canonical instance of every action, indexed by id, with null for ids that are not valid actions
+  private static final Action[] ACTIONS = new Action[IDS];
+  static{
+    Card[] cards = Card.values();
+    for(int id = 0; id<IDS; id++){
+      Card card = cards[id/160];
+      int player = (id/40)%4;
+      int target = (id/8)%5-1;
+      Card guess = id%8==0?null:cards[id%8];
+      if(valid(card, player, target, guess)){
+        try{
+          ACTIONS[id] = new Action(card, player, target, guess);
+        }catch(IllegalActionException e){/*unreachable, the action is valid*/}
+      }
+    }
+  }
 
   /**
    * Private constructor for creating a new action.
-   * Called by the static play methods.
+   * Called once for each valid action, when the class is loaded.
    * @param card the card being played
    * @param player the player performing the action
    * @param target the player targetted by this action, or the player in the event an action has no target
@@ -32,6 +57,27 @@ public class Action{
     this.player = player;
     this.target = target;
     this.guess = guess;
+    this.id = id(card, player, target, guess);
+  }
+
+  //the rules enforced by the static play methods
+  private static boolean valid(Card card, int player, int target, Card guess){
+    switch(card){
+      case GUARD: return target!=-1 && target!=player && guess!=null && guess!=Card.GUARD;
+      case PRIEST: case BARON: case KING: return target!=-1 && target!=player && guess==null;
+      case PRINCE: return target!=-1 && guess==null;
+      default: return target==-1 && guess==null;
+    }
+  }
+
+  /**
+   * Gives the canonical instance of an action, once the play method has checked the card's rules.
+   * @throws IllegalActionException if the player or target is out of range.
+   * **/
+  private static Action canonical(Card card, int player, int target, Card guess) throws IllegalActionException{
+    if(player < 0 || player >3) throw new IllegalActionException("Player out of range");
+    if(target < -1 || target >3) throw new IllegalActionException("Player out of range");
+    return ACTIONS[id(card, player, target, guess)];
   }
 
   /**the card of the action
@@ -54,6 +100,49 @@ public class Action{
    * **/
   public Card guess(){return guess;}
 
+  /**
+   * Gives the integer id of an action, which is unique to the card, player, target and guess,
+   * and lies between 0 and IDS-1.
+   * @param card the card being played
+   * @param player the player performing the action
+   * @param target the player targetted by this action, or -1 if the action has no target
+   * @param guess the card guessed in a GUARD action, or null otherwise
+   * @return the id of the action
+   * **/
+  public static int id(Card card, int player, int target, Card guess){
+    return ((card.ordinal()*4+player)*5+target+1)*8+(guess==null?0:guess.ordinal());
+  }
+
+  /**the integer id of the action
+   * @return the id of the action, as given by Action.id(card, player, target, guess)
+   * **/
+  public int id(){return id;}
+
+  /**
+   * Gives the action with the given id.
+   * @param id the id of the action, as given by Action.id
+   * @return the canonical action object
+   * @throws IllegalArgumentException if the id does not correspond to a valid action.
+   * **/
+  public static Action get(int id){
+    Action act = id<0 || id>=IDS?null:ACTIONS[id];
+    if(act==null) throw new IllegalArgumentException("No valid action has id "+id);
+    return act;
+  }
+
+  /**
+   * Gives the action with the given card, player, target and guess, without throwing an exception.
+   * @param card the card being played
+   * @param player the player performing the action
+   * @param target the player targetted by this action, or -1 if the action has no target
+   * @param guess the card guessed in a GUARD action, or null otherwise
+   * @return the canonical action object, or null if there is no such valid action
+   * **/
+  public static Action get(Card card, int player, int target, Card guess){
+    if(card==null || player<0 || player>3 || target<-1 || target>3) return null;
+    return ACTIONS[id(card, player, target, guess)];
+  }
+
   /**produces a string representation of the action
    * @return a string representation of the action
    * **/
@@ -90,7 +179,7 @@ public class Action{
     if(player == target) throw new IllegalActionException("Player cannot target themself");
     if(guess == null) throw new IllegalActionException("Player cannot guess a null card");
     if(guess == Card.GUARD) throw new IllegalActionException("Player cannot guess a guard");
-    return new Action(Card.GUARD, player, target, guess);
+    return canonical(Card.GUARD, player, target, guess);
   }
 
   /**
@@ -103,7 +192,7 @@ public class Action{
   public static Action playPriest(int player, int target) throws IllegalActionException{
     if(target==-1) throw new IllegalActionException("Target must be specified");
     if(player == target) throw new IllegalActionException("Player cannot target themself");
-    return new Action(Card.PRIEST, player, target, null);
+    return canonical(Card.PRIEST, player, target, null);
   }
 
   /**
@@ -116,7 +205,7 @@ public class Action{
   public static Action playBaron(int player, int target) throws IllegalActionException{
     if(target==-1) throw new IllegalActionException("Target must be specified");
     if(player == target) throw new IllegalActionException("Player cannot target themself");
-    return new Action(Card.BARON, player, target, null);
+    return canonical(Card.BARON, player, target, null);
   }
   
   /**
@@ -125,7 +214,7 @@ public class Action{
    * @return the action object
    * **/
   public static Action playHandmaid(int player) throws IllegalActionException{
-    return new Action(Card.HANDMAID, player, -1,null);
+    return canonical(Card.HANDMAID, player, -1,null);
   }
 
   /**
@@ -137,7 +226,7 @@ public class Action{
    * **/
   public static Action playPrince(int player, int target) throws IllegalActionException{
     if(target==-1) throw new IllegalActionException("Target must be specified");
-    return new Action(Card.PRINCE, player, target, null);
+    return canonical(Card.PRINCE, player, target, null);
   }
 
   /**
@@ -153,7 +242,7 @@ public class Action{
       throw new IllegalActionException("Target must be specified");
     if(player==target)
       throw new IllegalActionException("A player cannot target themselves.");
-    return new Action(Card.KING, player, target, null);
+    return canonical(Card.KING, player, target, null);
   }
 
   /**
@@ -163,7 +252,7 @@ public class Action{
    * @throws IllegalActionException if the player is out of range
    * **/
   public static Action playCountess(int player) throws IllegalActionException{
-    return new Action(Card.COUNTESS, player, -1, null);
+    return canonical(Card.COUNTESS, player, -1, null);
   }
 
   /**
@@ -173,6 +262,6 @@ public class Action{
    * @throws IllegalActionException if the player is out of range
    * **/
   public static Action playPrincess(int player) throws IllegalActionException{
-    return new Action(Card.PRINCESS, player, -1, null);
+    return canonical(Card.PRINCESS, player, -1, null);
   }
 }
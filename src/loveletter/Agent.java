@@ -2,7 +2,7 @@ package loveletter;
 
 /**
  * An interface for representing an agent in the game Love Letter
- * All agents must have a 0 parameter constructor
+ * All agents must have a 0 parameter constructor, unless they are created by an AgentFactory
  * */
 public interface Agent{
 
@@ -34,6 +34,26 @@ public interface Agent{
    * */
   public Action playCard(Card c);
 
+  /**
+   * Method called before each call of playCard, with a seed derived from the game's seed and the turn.
+   * An agent that makes random choices should seed its random number generator with it,
+   * so that its moves depend only on the game so far and the seed, and a game can be reproduced from its seed.
+   * The default does nothing.
+   * @param seed the seed for the agent's random choices in the coming move
+   **/
+  default void seed(long seed){}
+
+  /**
+   * Method called when a game is over, before the agent is given another game by an AgentPool.
+   * An agent that can clear what it has learnt of the game, so that it plays the next game as a fresh instance would,
+   * should do so and return true, and is then reused in place of constructing another.
+   * Expensive data the agent only reads, such as an opening book or a table of weights, should not be held per game,
+   * but loaded once, in a static field or by the agent's AgentFactory, and shared by every instance.
+   * The default returns false, and the agent is discarded.
+   * @return true if the agent may play another game
+   **/
+  default boolean reset(){return false;}
+
 }
 
 
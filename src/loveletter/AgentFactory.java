@@ -0,0 +1,49 @@
+package loveletter;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Creates agents for the games of a tournament.
+ * Tournaments take agents from an AgentPool for each worker, which only calls its factories when it has no agent to reuse,
+ * so an agent is usually constructed once per worker rather than once per game.
+ * A factory may be used by several workers at once, and any data it shares between its agents must not be changed by them.
+ **/
+@FunctionalInterface
+public interface AgentFactory{
+
+  /**
+   * Creates a new agent.
+   * @return the agent
+   * @throws ReflectiveOperationException if the agent could not be constructed
+   **/
+  public Agent create() throws ReflectiveOperationException;
+
+  /**
+   * Gives a factory that constructs an agent class with its zero parameter constructor.
+   * @param agentClass the class of the agent
+   * @return the factory
+   * @throws IllegalArgumentException if the class is not an Agent, or has no zero parameter constructor
+   **/
+  public static AgentFactory of(Class<?> agentClass){
+    if(!Agent.class.isAssignableFrom(agentClass)) throw new IllegalArgumentException(agentClass.getName()+" is not an Agent");
+    Constructor<?> constructor;
+    try{
+      constructor = agentClass.getDeclaredConstructor();
+    }catch(NoSuchMethodException e){
+      throw new IllegalArgumentException(agentClass.getName()+" has no zero parameter constructor");
+    }
+    return () -> (Agent)constructor.newInstance();
+  }
+
+  /**
+   * Gives a factory for each of the given agent classes.
+   * @param agentClasses the classes of the agents
+   * @return the factories, in the same order
+   * @throws IllegalArgumentException if a class is not an Agent, or has no zero parameter constructor
+   **/
+  public static AgentFactory[] of(Class<?>[] agentClasses){
+    AgentFactory[] factories = new AgentFactory[agentClasses.length];
+    for(int a = 0; a<factories.length; a++) factories[a] = of(agentClasses[a]);
+    return factories;
+  }
+}
@@ -0,0 +1,93 @@
+package loveletter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The process side of a RemoteAgent, which plays an agent for a game engine in another process.
+ * The host reads the engine's messages from standard input, rebuilds the agent's player state from the views it is sent,
+ * calls the agent as LoveLetter would, and writes the agent's moves to standard output.
+ * The agent's own output to System.out is passed to standard error, so it cannot be mistaken for a move.
+ * An agent that throws an exception is not called again for that event, and a move that fails is sent as no move.
+ * The host exits when the engine closes its standard input.
+ * <pre>
+ * java -cp bin loveletter.AgentHost agents.RandomAgent
+ * </pre>
+ **/
+public class AgentHost{
+
+  private static final Card[] CARDS = Card.values();
+
+  private AgentFactory factory;
+  private Agent agent;
+  private DataInputStream in;
+  private DataOutputStream out;
+  private State view;//the agent's player state for the current round
+
+  private AgentHost(AgentFactory factory, DataInputStream in, DataOutputStream out) throws ReflectiveOperationException{
+    this.factory = factory;
+    this.in = in;
+    this.out = out;
+    agent = factory.create();
+  }
+
+  //passes the engine's messages to the agent until the engine closes the stream
+  private void serve() throws IOException, ReflectiveOperationException{
+    out.writeUTF(agent.toString());
+    out.flush();
+    int type;
+    while((type = in.read())!=-1){
+      switch(type){
+        case RemoteAgent.NEW_ROUND:
+          view = State.readView(in);
+          try{
+            agent.newRound(view);
+          }catch(RuntimeException e){/*the agent is left to play on as best it can*/}
+          break;
+        case RemoteAgent.SEE:
+          Action act = Action.get(in.readShort());
+          view.updateView(in);
+          try{
+            agent.see(act, view);
+          }catch(RuntimeException e){}
+          break;
+        case RemoteAgent.PLAY:
+          Card c = CARDS[in.readUnsignedByte()];
+          long seed = in.readLong();
+          view.updateView(in);
+          Action move = null;
+          try{
+            agent.seed(seed);
+            move = agent.playCard(c);
+          }catch(RuntimeException e){}
+          out.writeShort(move==null?-1:move.id());
+          out.flush();
+          break;
+        case RemoteAgent.RESET:
+          if(!agent.reset()) agent = factory.create();
+          view = null;
+          break;
+        default:
+          throw new IOException("Unknown message "+type);
+      }
+    }
+  }
+
+  /**
+   * Hosts an agent, talking to the engine over standard input and output.
+   * @param args the fully qualified name of the agent class, which must have a zero parameter constructor
+   **/
+  public static void main(String[] args) throws Exception{
+    if(args.length!=1) throw new IllegalArgumentException("Usage: java loveletter.AgentHost agentClass");
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in), RemoteAgent.BUFFER));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), RemoteAgent.BUFFER));
+    System.setOut(System.err);
+    new AgentHost(AgentFactory.of(Class.forName(args[0])), in, out).serve();
+  }
+}
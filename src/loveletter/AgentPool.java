@@ -0,0 +1,103 @@
+package loveletter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the agents of finished games to be reused in later games, so that agents with costly construction,
+ * such as those that start threads or build tables, are not constructed for every game.
+ * Agents are referred to by their index in the tournament, and an agent is taken from the pool for each game it plays,
+ * and returned when the game is over. A returned agent is reset (see Agent.reset), and kept if it can be reused;
+ * otherwise the next game has a new agent from the agent's factory.
+ * An agent that holds resources, such as a RemoteAgent and its process or an MCTSAgent and its search threads, should implement AutoCloseable:
+ * it is closed when the pool discards it, and when the pool itself is closed.
+ * <p>
+ * A pool is not thread safe: each worker of a tournament has its own, so an agent is never used by two games at once.
+ **/
+public class AgentPool{
+
+  private AgentFactory[] factories;
+  private List<ArrayDeque<Agent>> idle = new ArrayList<ArrayDeque<Agent>>();//the agents of each index waiting to be reused
+  private long created;
+
+  /**
+   * Constructs an empty pool.
+   * @param factories the factory of each agent in the tournament
+   **/
+  public AgentPool(AgentFactory[] factories){
+    this.factories = factories.clone();
+    for(int a = 0; a<factories.length; a++) idle.add(new ArrayDeque<Agent>());
+  }
+
+  /**
+   * Takes an agent from the pool, or creates one if none is waiting.
+   * @param agent the index of the agent in the tournament
+   * @return the agent, ready to start a game
+   * @throws ReflectiveOperationException if the agent had to be created, and could not be
+   **/
+  public Agent acquire(int agent) throws ReflectiveOperationException{
+    Agent a = idle.get(agent).poll();
+    if(a!=null) return a;
+    created++;
+    return factories[agent].create();
+  }
+
+  /**
+   * Takes the agents of a game from the pool.
+   * @param seating the index of the agent in each seat
+   * @return the agent in each seat
+   * @throws ReflectiveOperationException if an agent had to be created, and could not be
+   **/
+  public Agent[] acquire(int[] seating) throws ReflectiveOperationException{
+    Agent[] seated = new Agent[seating.length];
+    for(int s = 0; s<seating.length; s++) seated[s] = acquire(seating[s]);
+    return seated;
+  }
+
+  /**
+   * Returns an agent to the pool when its game is over. The agent is reset, and kept only if it can be reused.
+   * @param agent the index of the agent in the tournament
+   * @param a the agent
+   **/
+  public void release(int agent, Agent a){
+    if(a.reset()) idle.get(agent).push(a);
+    else discard(a);
+  }
+
+  /**
+   * Returns the agents of a game to the pool when it is over.
+   * An agent that has not returned from a call the watchdog abandoned may still be running, and is discarded.
+   * @param seating the index of the agent in each seat
+   * @param seated the agent in each seat
+   * @param watchdog the watchdog the game was played with, or null
+   **/
+  public void release(int[] seating, Agent[] seated, Watchdog watchdog){
+    for(int s = 0; s<seating.length; s++){
+      if(watchdog==null || !watchdog.running(s)) release(seating[s], seated[s]);
+      else discard(seated[s]);
+    }
+  }
+
+  //closes an agent that will not be reused, if it holds resources
+  private static void discard(Agent a){
+    if(a instanceof AutoCloseable){
+      try{
+        ((AutoCloseable)a).close();
+      }catch(Exception e){/*the agent is discarded regardless*/}
+    }
+  }
+
+  /**
+   * Closes the agents waiting in the pool, which is left empty.
+   **/
+  public void close(){
+    for(ArrayDeque<Agent> d: idle)
+      while(!d.isEmpty()) discard(d.pop());
+  }
+
+  /**
+   * @return the number of agents the pool has created
+   **/
+  public long created(){return created;}
+}
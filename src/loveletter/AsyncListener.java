@@ -0,0 +1,235 @@
+package loveletter;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A GameListener that passes the events of games on to another listener on a thread of its own,
+ * so that a slow listener, such as a logger or a user interface, does not slow the game.
+ * <p>
+ * Each event is written by the game's thread to a ring buffer as two longs, so publishing an event allocates nothing
+ * and never waits for the listener, unless the buffer is full. The events hold only the facts that change the game:
+ * the decks dealt, the cards drawn and the actions played. The listener's thread replays them into a State of its own,
+ * as GameRecord does, and passes that state to the listener, so the listener may read the state as if it were the game's,
+ * while the game goes on without it. The replica does not hold the agents' hidden knowledge, and only the engine's view
+ * of the game is given. A listener may take snapshots of the replica to keep positions.
+ * <p>
+ * An AsyncListener must be given the events of one game at a time, from one thread, as LoveLetter does;
+ * each worker of a tournament should have its own. If the listener throws an exception, no further events are passed to it,
+ * and the exception is rethrown when the AsyncListener is closed.
+ **/
+public class AsyncListener implements GameListener, Closeable{
+
+  //the types of event
+  private static final int GAME_STARTED = 0, ROUND_STARTED = 1, CARD_DRAWN = 2, ILLEGAL_ACTION = 3, TIMED_OUT = 4;
+  private static final int ACTION_PERFORMED = 5, PLAYER_ELIMINATED = 6, ROUND_OVER = 7, GAME_OVER = 8;
+  private static final long IDLE_NANOS = 100000;//how long the listener's thread sleeps when there are no events
+  private static final Card[] CARDS = Card.values();
+
+  private final GameListener listener;
+  private final long[] events;//for each event, the type, player, card, action, outcome and deck, and then the seed
+  private final Agent[][] agents;//the agents of each game started event
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();//the number of events published
+  private final AtomicLong tail = new AtomicLong();//the number of events passed on
+  private long published;//the game thread's copy of head
+  private final int[] scratch = new int[8];//the game thread's space for ranking decks
+  private final Thread thread;
+  private volatile boolean closed;
+  private volatile Throwable failure;
+
+  //the replica of the game, used only by the listener's thread
+  private State state;
+  private Card[] deck;
+  private Card drawn;
+  private boolean dealt;//true if the replica has dealt the deck of the next round
+
+  /**
+   * Constructs an AsyncListener, and starts its thread.
+   * @param listener the listener to pass the events to
+   * @param capacity the number of events the buffer holds, which must be a power of two.
+   * A game of four players has about a hundred events.
+   * @throws IllegalArgumentException if the capacity is not a power of two
+   **/
+  public AsyncListener(GameListener listener, int capacity){
+    if(capacity<1 || Integer.bitCount(capacity)!=1) throw new IllegalArgumentException("The capacity must be a power of two");
+    this.listener = listener;
+    events = new long[2*capacity];
+    agents = new Agent[capacity][];
+    mask = capacity-1;
+    thread = new Thread(this::consume, "AsyncListener");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Constructs an AsyncListener, with a buffer of 65536 events, and starts its thread.
+   * @param listener the listener to pass the events to
+   **/
+  public AsyncListener(GameListener listener){
+    this(listener, 1<<16);
+  }
+
+  //writes an event to the buffer, waiting for the listener's thread if the buffer is full
+  private void publish(int type, int player, Card card, Action act, int outcome, long rank, long seed, Agent[] seats){
+    if(closed) throw new IllegalStateException("The listener is closed");
+    long h = published;
+    while(h-tail.get()>mask) Thread.yield();
+    int i = (int)(h&mask);
+    events[2*i] = type | player<<4 | (card==null?0:card.ordinal()+1)<<8 | (act==null?0:act.id()+1)<<12 | (outcome+2)<<24 | rank<<28;
+    events[2*i+1] = seed;
+    agents[i] = seats;
+    published = h+1;
+    head.lazySet(published);
+  }
+
+  public void gameStarted(long seed, State state){
+    Agent[] seats = new Agent[state.numPlayers()];
+    for(int p = 0; p<seats.length; p++) seats[p] = state.agent(p);
+    publish(GAME_STARTED, 0, null, null, 0, DeckIndex.FULL.rank(state.deck(), scratch), seed, seats);
+  }
+
+  public void roundStarted(State state){
+    publish(ROUND_STARTED, 0, null, null, 0, DeckIndex.FULL.rank(state.deck(), scratch), 0, null);
+  }
+
+  public void cardDrawn(int player, Card card, State state){
+    publish(CARD_DRAWN, player, card, null, 0, 0, 0, null);
+  }
+
+  public void illegalAction(int player, Action act, State state){
+    publish(ILLEGAL_ACTION, player, null, act, 0, 0, 0, null);
+  }
+
+  public void timedOut(int player, State state){
+    publish(TIMED_OUT, player, null, null, 0, 0, 0, null);
+  }
+
+  public void actionPerformed(Action act, int outcome, State state){
+    publish(ACTION_PERFORMED, 0, null, act, outcome, 0, 0, null);
+  }
+
+  public void playerEliminated(int player, Action act, State state){
+    publish(PLAYER_ELIMINATED, player, null, act, 0, 0, 0, null);
+  }
+
+  public void roundOver(State state){
+    publish(ROUND_OVER, 0, null, null, 0, 0, 0, null);
+  }
+
+  public void gameOver(State state){
+    publish(GAME_OVER, 0, null, null, 0, 0, 0, null);
+  }
+
+  //the listener's thread, which passes the events on until the AsyncListener is closed
+  private void consume(){
+    long t = 0;
+    while(true){
+      long h = head.get();
+      if(t==h){
+        if(closed && t==head.get()) return;
+        LockSupport.parkNanos(IDLE_NANOS);
+        continue;
+      }
+      for(; t<h; t++){
+        int i = (int)(t&mask);
+        if(failure==null){
+          try{
+            dispatch(events[2*i], events[2*i+1], agents[i]);
+          }catch(Throwable e){
+            failure = e;
+          }
+        }
+        agents[i] = null;
+      }
+      tail.lazySet(t);
+    }
+  }
+
+  //replays an event into the replica, and passes it to the listener
+  private void dispatch(long event, long seed, Agent[] seats) throws IllegalActionException{
+    int player = (int)(event>>>4)&7;
+    int card = (int)(event>>>8)&15;
+    int id = (int)(event>>>12)&2047;
+    Action act = id==0?null:Action.get(id-1);
+    int outcome = ((int)(event>>>24)&7)-2;
+    long rank = event>>>28;
+    switch((int)event&15){
+      case GAME_STARTED:
+        deck = new Card[16];
+        DeckIndex.FULL.unrank(rank, deck);
+        state = new State(() -> deck, seats);
+        dealt = true;
+        listener.gameStarted(seed, state);
+        break;
+      case ROUND_STARTED:
+        if(!dealt){
+          deck = new Card[16];//a new array, as snapshots of the replica may share the old deck
+          DeckIndex.FULL.unrank(rank, deck);
+          state.newRound();
+        }
+        dealt = false;
+        listener.roundStarted(state);
+        break;
+      case CARD_DRAWN:
+        drawn = state.drawCard();
+        listener.cardDrawn(player, CARDS[card-1], state);
+        break;
+      case ILLEGAL_ACTION:
+        listener.illegalAction(player, act, state);
+        break;
+      case TIMED_OUT:
+        listener.timedOut(player, state);
+        break;
+      case ACTION_PERFORMED:
+        if(state.apply(act, drawn)!=outcome) throw new IllegalStateException("The replica of the game has diverged");
+        listener.actionPerformed(act, outcome, state);
+        break;
+      case PLAYER_ELIMINATED:
+        listener.playerEliminated(player, act, state);
+        break;
+      case ROUND_OVER:
+        listener.roundOver(state);
+        break;
+      case GAME_OVER:
+        listener.gameOver(state);
+        break;
+      default:
+        throw new IllegalStateException("Unknown event "+(event&15));
+    }
+  }
+
+  /**
+   * Waits until every event published so far has been passed to the listener,
+   * so the listener's findings may be read.
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   **/
+  public void flush() throws InterruptedException{
+    long h = head.get();
+    while(tail.get()<h){
+      if(Thread.interrupted()) throw new InterruptedException();
+      LockSupport.parkNanos(IDLE_NANOS);
+    }
+  }
+
+  /**
+   * @return the number of events published but not yet passed to the listener
+   **/
+  public long backlog(){return head.get()-tail.get();}
+
+  /**
+   * Passes any remaining events to the listener, and stops the listener's thread.
+   * @throws IllegalStateException if the listener threw an exception, which is given as the cause
+   **/
+  public void close(){
+    closed = true;
+    LockSupport.unpark(thread);
+    try{
+      thread.join();
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+    if(failure!=null) throw new IllegalStateException("The asynchronous listener failed", failure);
+  }
+}
@@ -0,0 +1,550 @@
+package loveletter;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A batch of independent games of LoveLetter, stepped in lockstep, for rollouts and the evaluation of policies over many games.
+ * The games are held as a structure of arrays: the decks, hands, discard totals and scores in byte arrays,
+ * and the tops of the decks, next players, eliminations, handmaid flags and knowledge in int arrays (as bit masks),
+ * so a step of the whole batch is a loop over primitive arrays, with no objects and no allocation.
+ * The rules are the same as State.apply and State.roundWinner, so the same decks and the same actions give the same outcomes.
+ * <p>
+ * Each game is in one of four phases. A game in the DRAW phase has its next player draw with draw(),
+ * which moves it to the PLAY phase, and apply() plays an action for every game in the PLAY phase.
+ * A game whose round is over is in the ROUND_OVER phase until it is dealt a new round, and a game that has been won is in the GAME_OVER phase.
+ * Cards are represented by their ordinals, and actions by their ids (see Action.id).
+ * A batch is not thread safe, so each thread should step its own.
+ **/
+public final class BatchState{
+
+  /**The phase of a game whose next player is to draw a card**/
+  public static final int DRAW = 0;
+  /**The phase of a game whose next player has drawn a card, and is to play**/
+  public static final int PLAY = 1;
+  /**The phase of a game whose round is over, and which is to be dealt a new round**/
+  public static final int ROUND_OVER = 2;
+  /**The phase of a game that has been won**/
+  public static final int GAME_OVER = 3;
+
+  private static final int COLUMN = 0x1111;//the knowledge bits of player 0's card, for every observer
+  private static final Card[] CARDS = Card.values();
+  private static final byte[] STANDARD = new byte[16];//the standard deck, in order
+  static{
+    int j = 0;
+    for(Card c: CARDS)
+      for(int i = 0; i<c.count(); i++) STANDARD[j++] = (byte)c.ordinal();
+  }
+
+  private final int size;
+  private final int num;
+  private final int threshold;//the score that wins the game
+  private final byte[] deck;//16 cards for each game
+  private final byte[] hand;//4 cards for each game
+  private final byte[] sum;//the total value of each player's discards, 4 for each game
+  private final byte[] score;//4 for each game
+  private final int[] top;//the index of the top of each deck
+  private final int[] next;//the next player of each game
+  private final int[] drawn;//the card drawn by the next player, in the PLAY phase
+  private final int[] phase;
+  private final int[] alive;//bit p set if player p is not eliminated
+  private final int[] maid;//bit p set if player p is protected by the handmaid
+  private final int[] known;//bit 4i+j set if player i knows player j's card
+
+  /**
+   * Constructs a batch of games, each in the ROUND_OVER phase with no score, ready to be dealt its first round.
+   * @param size the number of games
+   * @param num the number of players in each game (2,3 or 4)
+   * @throws IllegalArgumentException if the size is not positive, or the number of players is out of range
+   **/
+  public BatchState(int size, int num){
+    if(size<1) throw new IllegalArgumentException("A batch must have at least one game");
+    if(num<2 || num>4) throw new IllegalArgumentException("incorrect number of players");
+    this.size = size;
+    this.num = num;
+    this.threshold = num==4?4:num==3?5:7;
+    deck = new byte[16*size];
+    hand = new byte[4*size];
+    sum = new byte[4*size];
+    score = new byte[4*size];
+    top = new int[size];
+    next = new int[size];
+    drawn = new int[size];
+    phase = new int[size];
+    alive = new int[size];
+    maid = new int[size];
+    known = new int[size];
+    java.util.Arrays.fill(phase, ROUND_OVER);
+  }
+
+  /**
+   * @return the number of games in the batch
+   **/
+  public int size(){return size;}
+
+  /**
+   * @return the number of players in each game
+   **/
+  public int numPlayers(){return num;}
+
+  /**
+   * Starts a new game, clearing the scores. The first player starts, and the game is in the ROUND_OVER phase, ready to be dealt.
+   * @param game the index of the game
+   **/
+  public void reset(int game){
+    for(int p = 0; p<4; p++) score[4*game+p] = 0;
+    next[game] = 0;
+    phase[game] = ROUND_OVER;
+  }
+
+  /**
+   * Deals a new round of a game from a given deck. The winner of the last round (or the first player) starts, as in State.newRound.
+   * @param game the index of the game
+   * @param cards the order of the deck, as produced by Card.shuffle
+   * @throws IllegalArgumentException if the deck does not have 16 cards
+   **/
+  public void deal(int game, Card[] cards){
+    if(cards.length!=16) throw new IllegalArgumentException("A deck must have 16 cards");
+    for(int i = 0; i<16; i++) deck[16*game+i] = (byte)cards[i].ordinal();
+    start(game);
+  }
+
+  /**
+   * Deals a new round, shuffled as by Card.shuffle, to every game in the ROUND_OVER phase.
+   * The decks are the same as those of Card.shuffle given the same random numbers.
+   * @param rand the random number generator for the shuffles
+   * @return the number of games dealt
+   **/
+  public int deal(RandomGenerator rand){
+    int dealt = 0;
+    for(int g = 0; g<size; g++){
+      if(phase[g]!=ROUND_OVER) continue;
+      int d = 16*g;
+      System.arraycopy(STANDARD, 0, deck, d, 16);
+      for(int i = 15; i>0; i--){
+        int k = rand.nextInt(i+1);
+        byte c = deck[d+i];
+        deck[d+i] = deck[d+k];
+        deck[d+k] = c;
+      }
+      start(g);
+      dealt++;
+    }
+    return dealt;
+  }
+
+  //deals a card to each player from the game's deck
+  private void start(int g){
+    for(int p = 0; p<4; p++){
+      hand[4*g+p] = p<num?deck[16*g+p]:0;
+      sum[4*g+p] = 0;
+    }
+    top[g] = num;
+    alive[g] = (1<<num)-1;
+    maid[g] = 0;
+    known[g] = 0x8421 & ((1<<(4*num))-1);//each player knows their own card
+    phase[g] = DRAW;
+  }
+
+  /**
+   * Sets a game to the engine's state at the start of a player's turn, before they draw.
+   * The engine's deck must be known, so a player state cannot be copied, though a simulation of one may be.
+   * @param game the index of the game
+   * @param s the engine's state, with the same number of players as the batch
+   * @throws IllegalArgumentException if s is a player state, or has the wrong number of players
+   **/
+  public void set(int game, State s){
+    if(s.getPlayerIndex()!=-1) throw new IllegalArgumentException("A player state cannot be copied.");
+    if(s.numPlayers()!=num) throw new IllegalArgumentException("The state has the wrong number of players");
+    Card[] cards = s.deck();
+    for(int i = 0; i<16; i++) deck[16*game+i] = (byte)(cards[i]==null?0:cards[i].ordinal());//simulated states do not keep the cards already dealt
+    top[game] = 16-s.deckSize();
+    next[game] = s.nextPlayer();
+    alive[game] = maid[game] = known[game] = 0;
+    for(int p = 0; p<4; p++){
+      hand[4*game+p] = sum[4*game+p] = score[4*game+p] = 0;
+      if(p>=num) continue;
+      if(!s.eliminated(p)){
+        alive[game]|=1<<p;
+        hand[4*game+p] = (byte)s.getCard(p).ordinal();
+      }
+      if(s.handmaid(p)) maid[game]|=1<<p;
+      for(int q = 0; q<num; q++)
+        if(s.knows(p, q)) known[game]|=1<<(4*p+q);
+      int total = 0;
+      for(java.util.Iterator<Card> it = s.getDiscards(p); it.hasNext();) total+=it.next().value();
+      sum[4*game+p] = (byte)total;
+      score[4*game+p] = (byte)s.score(p);
+    }
+    phase[game] = s.gameOver()?GAME_OVER:s.roundOver()?ROUND_OVER:DRAW;
+  }
+
+  /**
+   * Draws a card for the next player of every game in the DRAW phase, moving them to the PLAY phase.
+   * @return the number of games that drew
+   **/
+  public int draw(){
+    int n = 0;
+    for(int g = 0; g<size; g++){
+      if(phase[g]!=DRAW) continue;
+      drawn[g] = deck[16*g+top[g]++];
+      phase[g] = PLAY;
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Finds every legal action of the next player of a game in the PLAY phase, in the same order as State.legalActions.
+   * @param game the index of the game
+   * @param ids the buffer to write the ids of the legal actions to, with room for State.MAX_LEGAL_ACTIONS ids
+   * @return the number of legal actions, which is 0 if the game is not in the PLAY phase
+   **/
+  public int legalActions(int game, int[] ids){
+    if(phase[game]!=PLAY) return 0;
+    int a = next[game];
+    int held = hand[4*game+a];
+    int d = drawn[game];
+    int n = legalActions(game, a, held, d, ids, 0);
+    if(d!=held) n = legalActions(game, a, d, d, ids, n);
+    return n;
+  }
+
+  //writes the legal actions of player a playing card c to the buffer, from position n
+  private int legalActions(int g, int a, int c, int d, int[] ids, int n){
+    switch(c){
+      case 3: case 6: case 7://the handmaid, countess and princess have no target
+        if(legal(g, a, c, -1, d)) ids[n++] = ((c*4+a)*5)*8;
+        break;
+      default:
+        for(int t = 0; t<num; t++){
+          if(t==a && c!=4) continue;//only the prince may target the player themselves
+          if(!legal(g, a, c, t, d)) continue;
+          int id = ((c*4+a)*5+t+1)*8;
+          if(c==0)
+            for(int guess = 1; guess<8; guess++) ids[n++] = id+guess;
+          else ids[n++] = id;
+        }
+    }
+    return n;
+  }
+
+  //the rules of State.legalAction, for player a playing card c against target t, having drawn card d
+  private boolean legal(int g, int a, int c, int t, int d){
+    int held = hand[4*g+a];
+    if(held!=c && d!=c) return false;
+    if((held==6 || d==6) && (c==4 || c==5)) return false;//the countess must be played over the prince or king
+    if(t==-1) return true;
+    if((alive[g]>>>t&1)==0) return false;
+    if(c==4 && a==t) return true;
+    return (maid[g]>>>t&1)==0 || allHandmaid(g, a) && c!=4;
+  }
+
+  /**
+   * Checks whether an action is legal for the next player of a game in the PLAY phase.
+   * @param game the index of the game
+   * @param id the id of the action (see Action.id)
+   * @return true if and only if the action is legal
+   **/
+  public boolean legal(int game, int id){
+    if(phase[game]!=PLAY || id<0 || id>=Action.IDS) return false;
+    int guess = id%8;
+    Action act = Action.get(CARDS[id/160], id/40%4, id/8%5-1, guess==0?null:CARDS[guess]);//null, rather than an exception, for the ids of no action
+    return act!=null && act.player()==next[game] && legal(game, next[game], act.card().ordinal(), act.target(), drawn[game]);
+  }
+
+  /**
+   * Chooses a legal action uniformly at random for the next player of every game in the PLAY phase.
+   * The choice is the same as choosing an entry of legalActions with rand.nextInt, but the actions are counted, rather than listed.
+   * @param rand the random number generator for the choices
+   * @param actions an array with an entry for each game, to hold the id of the action chosen, or -1 if the game is not in the PLAY phase
+   **/
+  public void randomActions(RandomGenerator rand, int[] actions){
+    for(int g = 0; g<size; g++) actions[g] = phase[g]==PLAY?randomAction(g, rand):-1;
+  }
+
+  //chooses a legal action of the next player of game g, in the PLAY phase, uniformly at random
+  private int randomAction(int g, RandomGenerator rand){
+    int a = next[g];
+    int held = hand[4*g+a];
+    int d = drawn[g];
+    boolean countess = held==6 || d==6;
+    int heldTargets = targets(g, a, held, countess);
+    int heldActions = Integer.bitCount(heldTargets)*(held==0?7:1);
+    int drawnTargets = d==held?0:targets(g, a, d, countess);
+    int n = heldActions+Integer.bitCount(drawnTargets)*(d==0?7:1);
+    int r = rand.nextInt(n);//there is always a legal action
+    return r<heldActions?action(a, held, heldTargets, r):action(a, d, drawnTargets, r-heldActions);
+  }
+
+  //the legal targets of player a playing card c, as a mask, with bit 4 standing for no target
+  private int targets(int g, int a, int c, boolean countess){
+    switch(c){
+      case 3: case 6: case 7: return 16;//the handmaid, countess and princess have no target
+      case 4: return countess?0:(alive[g] & ~maid[g] & ~(1<<a)) | 1<<a;//the prince may target the player themselves, but no one protected
+      case 5: return countess?0:others(g, a);//the king must not be played over the countess
+      default: return others(g, a);
+    }
+  }
+
+  //the other players that player a may target, as a mask
+  private int others(int g, int a){
+    int others = alive[g] & ~(1<<a);
+    int open = others & ~maid[g];
+    return open==0?others:open;//if every other player is protected, they may be targeted for no effect
+  }
+
+  //the id of the r-th legal action of player a playing card c, in the order of legalActions
+  private static int action(int a, int c, int targets, int r){
+    if(targets==16) return ((c*4+a)*5)*8;
+    int guess = 0;
+    if(c==0){
+      guess = r%7+1;
+      r/=7;
+    }
+    int t = Integer.numberOfTrailingZeros(targets);
+    for(; r>0; r--) t = Integer.numberOfTrailingZeros(targets & -2<<t);
+    return ((c*4+a)*5+t+1)*8+guess;
+  }
+
+  /**
+   * Applies an action for the next player of every game in the PLAY phase, with the same effect as State.apply.
+   * A game whose round ends moves to the ROUND_OVER phase, or the GAME_OVER phase if the round winner has won the game,
+   * and any other game moves to the DRAW phase. No legality checks are made, so only legal actions should be applied.
+   * @param actions the id of the action for each game, or a negative number for a game that does not play
+   * @param outcomes an array to hold the outcome of each action, as for State.apply, or null.
+   * The entries of games that do not play are left unchanged.
+   * @return the number of games that played
+   **/
+  public int apply(int[] actions, int[] outcomes){
+    int played = 0;
+    for(int g = 0; g<size; g++){
+      int id = actions[g];
+      if(phase[g]!=PLAY || id<0) continue;
+      int outcome = apply(g, id/160, (id/8)%5-1, id%8);
+      if(outcomes!=null) outcomes[g] = outcome;
+      played++;
+    }
+    return played;
+  }
+
+  /**
+   * Plays a random legal move in every game: draws for each game in the DRAW phase, and then plays for each game in the PLAY phase.
+   * This is the step of a random rollout, and is the same as draw, randomActions and apply, but in a single pass over the games.
+   * Games whose rounds are over are not dealt again.
+   * @param rand the random number generator for the choices
+   * @return the number of games that played
+   **/
+  public int step(RandomGenerator rand){
+    int played = 0;
+    for(int g = 0; g<size; g++){
+      if(phase[g]==DRAW){
+        drawn[g] = deck[16*g+top[g]++];
+        phase[g] = PLAY;
+      }
+      else if(phase[g]!=PLAY) continue;
+      int id = randomAction(g, rand);
+      apply(g, id/160, (id/8)%5-1, id%8);
+      played++;
+    }
+    return played;
+  }
+
+  //applies an action of the next player of game g, with card c, target t and guess
+  private int apply(int g, int c, int t, int guess){
+    int h = 4*g;
+    int a = next[g];
+    if(c==hand[h+a]){//the held card was played, so the drawn card is now held
+      hand[h+a] = (byte)drawn[g];
+      forget(g, a);
+    }
+    sum[h+a]+=c+1;
+    maid[g]&=~(1<<a);
+    int outcome = State.NO_ELIMINATION;
+    switch(c){
+      case 0://guard
+        if(allHandmaid(g, a)) outcome = State.PROTECTED;
+        else if(hand[h+t]==guess){
+          sum[h+t]+=guess+1;
+          eliminate(g, t);
+          outcome = t;
+        }
+        break;
+      case 1://priest
+        if(allHandmaid(g, a)) outcome = State.PROTECTED;
+        else known[g]|=1<<(4*a+t);
+        break;
+      case 2://baron
+        if(allHandmaid(g, a)) outcome = State.PROTECTED;
+        else{
+          int ha = hand[h+a], ht = hand[h+t];
+          if(ha!=ht){
+            int elim = ha>ht?t:a;
+            sum[h+elim]+=hand[h+elim]+1;
+            eliminate(g, elim);
+            outcome = elim;
+          }
+          else known[g]|=1<<(4*a+t) | 1<<(4*t+a);
+        }
+        break;
+      case 3://handmaid
+        maid[g]|=1<<a;
+        break;
+      case 4://prince
+        int d = hand[h+t];
+        sum[h+t]+=d+1;
+        if(d==7){
+          eliminate(g, t);
+          outcome = t;
+        }
+        else{
+          hand[h+t] = deck[16*g+top[g]++];
+          forget(g, t);
+        }
+        break;
+      case 5://king
+        if(allHandmaid(g, a)) outcome = State.PROTECTED;
+        else king(g, a, t);
+        break;
+      case 7://princess
+        sum[h+a]+=hand[h+a]+1;
+        eliminate(g, a);
+        outcome = a;
+        break;
+      default://countess has no effect
+    }
+    if(roundOver(g)){
+      known[g] = (1<<(4*num))-1;
+      int w = roundWinner(g);
+      score[h+w]++;
+      next[g] = w;
+      phase[g] = score[h+w]==threshold?GAME_OVER:ROUND_OVER;
+    }
+    else{
+      int n = a;
+      do{
+        if(++n==num) n = 0;
+      }while((alive[g]>>>n&1)==0);
+      next[g] = n;
+      phase[g] = DRAW;
+    }
+    return outcome;
+  }
+
+  private boolean allHandmaid(int g, int a){
+    return (alive[g] & ~maid[g] & ~(1<<a))==0;
+  }
+
+  private boolean roundOver(int g){
+    return Integer.bitCount(alive[g])==1 || top[g]>14;
+  }
+
+  //marks the player as eliminated, and their card as known to everyone
+  private void eliminate(int g, int p){
+    alive[g]&=~(1<<p);
+    known[g]|=COLUMN<<p;
+  }
+
+  //rescinds every other player's knowledge of the player's card
+  private void forget(int g, int p){
+    known[g]&=~((COLUMN & ~(1<<(4*p)))<<p);
+  }
+
+  //swaps the cards of a and t, along with the other players' knowledge of them
+  private void king(int g, int a, int t){
+    int k = known[g] | 1<<(4*a+t) | 1<<(4*t+a);
+    int rows = COLUMN & ~(1<<(4*a)) & ~(1<<(4*t));
+    int colA = (k>>>a) & rows;
+    int colT = (k>>>t) & rows;
+    known[g] = k & ~(rows<<a | rows<<t) | colT<<a | colA<<t;
+    byte ha = hand[4*g+a];
+    hand[4*g+a] = hand[4*g+t];
+    hand[4*g+t] = ha;
+  }
+
+  /**
+   * @param game the index of the game
+   * @return the phase of the game: DRAW, PLAY, ROUND_OVER or GAME_OVER
+   **/
+  public int phase(int game){return phase[game];}
+
+  /**
+   * @param game the index of the game
+   * @return the index of the next player to play
+   **/
+  public int nextPlayer(int game){return next[game];}
+
+  /**
+   * @param game the index of the game
+   * @return the ordinal of the card drawn by the next player, if the game is in the PLAY phase
+   **/
+  public int drawn(int game){return drawn[game];}
+
+  /**
+   * @param game the index of the game
+   * @param player the index of the player
+   * @return the ordinal of the player's card, or -1 if the player is eliminated
+   **/
+  public int hand(int game, int player){return eliminated(game, player)?-1:hand[4*game+player];}
+
+  /**
+   * @param game the index of the game
+   * @param player the index of the player
+   * @return true if and only if the player is eliminated
+   **/
+  public boolean eliminated(int game, int player){return (alive[game]>>>player&1)==0;}
+
+  /**
+   * @param game the index of the game
+   * @param player the index of the player
+   * @return true if and only if the player is protected by the handmaid
+   **/
+  public boolean handmaid(int game, int player){return (maid[game]>>>player&1)!=0;}
+
+  /**
+   * @param game the index of the game
+   * @param observer the player who may know the card
+   * @param player the player whose card may be known
+   * @return true if and only if the observer knows the player's card
+   **/
+  public boolean knows(int game, int observer, int player){return (known[game]>>>(4*observer+player)&1)!=0;}
+
+  /**
+   * @param game the index of the game
+   * @param player the index of the player
+   * @return the total value of the player's discards in the round
+   **/
+  public int discardSum(int game, int player){return sum[4*game+player];}
+
+  /**
+   * @param game the index of the game
+   * @return the number of cards remaining in the deck
+   **/
+  public int deckSize(int game){return 16-top[game];}
+
+  /**
+   * @param game the index of the game
+   * @param player the index of the player
+   * @return the number of rounds the player has won
+   **/
+  public int score(int game, int player){return score[4*game+player];}
+
+  /**
+   * Determines the winner of a game's round, with the same tie breaks as State.roundWinner.
+   * @param game the index of the game
+   * @return the index of the winner, or -1 if the round is not yet over.
+   **/
+  public int roundWinner(int game){
+    if(!roundOver(game)) return -1;
+    int winner = -1;
+    int best = -1;
+    for(int p = 0; p<num; p++){
+      if(eliminated(game, p)) continue;
+      int v = hand[4*game+p]<<6 | sum[4*game+p];//compare by card, then by discards
+      if(v>best){
+        winner = p;
+        best = v;
+      }
+    }
+    return winner;
+  }
+}
@@ -0,0 +1,192 @@
+package loveletter;
+
+/**
+ * Tracks one player's beliefs about the cards held by the other players.
+ * For each opponent the tracker keeps a weight for each card type,
+ * and the probability the opponent holds a card is proportional to its weight
+ * times the number of copies of that card the observer cannot account for.
+ * The weights are updated from each observed action:
+ * <ul>
+ * <li>a played card is either the card the player held or the card they drew,
+ *     so the card they keep is a mixture of their old hand and a fresh draw,</li>
+ * <li>a failed Guard guess rules the guessed card out,</li>
+ * <li>the survivor of a Baron challenge holds a higher card than the eliminated player,</li>
+ * <li>players who tie a Baron challenge hold the same card,</li>
+ * <li>the King swaps the beliefs of the two players,</li>
+ * <li>the Prince makes its target draw a fresh card,</li>
+ * <li>cards seen by the observer (by the Priest, King or Baron) are known exactly.</li>
+ * </ul>
+ * Each update is constant time, and no memory is allocated after construction,
+ * so a tracker may be consulted many times each turn.
+ * The beliefs are those of a single observer, so a tracker may only be shared by agents playing the same seat.
+ * The agent should pass on its newRound and see calls to the tracker.
+ **/
+public class BeliefTracker{
+
+  private static final Card[] CARDS = Card.values();
+
+  private int observer;
+  private int num;
+  private int[] pool = new int[8];//copies of each card not yet discarded
+  private double[][] weight = new double[4][8];
+  private int[] known = new int[4];//the ordinal of each player's card if the observer knows it, or -1
+  private int[] seen = new int[4];//the number of each player's discards accounted for in the pool
+  private boolean[] eliminated = new boolean[4];
+
+  /**
+   * Resets the beliefs at the start of a round.
+   * @param start the observer's state at the start of the round
+   **/
+  public void newRound(State start){
+    observer = start.getPlayerIndex();
+    num = start.numPlayers();
+    for(Card c: CARDS) pool[c.ordinal()] = c.count();
+    for(int p = 0; p<num; p++){
+      seen[p] = 0;
+      known[p] = -1;
+      eliminated[p] = false;
+      reset(p);
+    }
+    observe(start);
+  }
+
+  /**
+   * Updates the beliefs after an action.
+   * @param act the action performed
+   * @param results the observer's state after the action
+   **/
+  public void see(Action act, State results){
+    int a = act.player();
+    int t = act.target();
+    boolean effect = t!=-1 && !results.handmaid(t);//targeted actions only have an effect on unprotected players
+    if(a!=observer && !results.eliminated(a)){//the kept card is the old card or the drawn card
+      double w = weight[a][act.card().ordinal()];
+      for(int x = 0; x<8; x++) weight[a][x]+=w;
+      normalise(a);
+    }
+    switch(act.card()){
+      case GUARD:
+        if(effect && !results.eliminated(t)){
+          weight[t][act.guess().ordinal()] = 0;
+          normalise(t);
+        }
+        break;
+      case BARON:
+        if(!effect) break;
+        if(results.eliminated(t) && !eliminated[t]) higher(a, results.getDiscard(t, results.numDiscards(t)-1));
+        else if(results.eliminated(a) && !eliminated[a]) higher(t, results.getDiscard(a, results.numDiscards(a)-1));
+        else for(int x = 0; x<8; x++){//a tie, so both players hold the same card
+          weight[a][x]*=weight[t][x];
+          weight[t][x] = weight[a][x];
+        }
+        normalise(a);
+        normalise(t);
+        break;
+      case PRINCE:
+        reset(t);
+        break;
+      case KING:
+        if(!effect) break;
+        double[] tmp = weight[a];
+        weight[a] = weight[t];
+        weight[t] = tmp;
+        break;
+      default://the priest, handmaid, countess and princess give nothing away
+    }
+    observe(results);
+  }
+
+  /**
+   * Gives the probability that a player holds a card, in the observer's beliefs.
+   * @param player the index of the player
+   * @param c the card
+   * @return the probability the player holds the card, which is 0 if the player is eliminated
+   **/
+  public double probability(int player, Card c){
+    if(eliminated[player]) return 0;
+    if(known[player]!=-1) return known[player]==c.ordinal()?1:0;
+    double total = 0;
+    double mass = 0;
+    for(int x = 0; x<8; x++){
+      double m = available(player, x)*weight[player][x];
+      total+=m;
+      if(x==c.ordinal()) mass = m;
+    }
+    return total==0?0:mass/total;
+  }
+
+  /**
+   * Writes a player's probability distribution over the card types.
+   * @param player the index of the player
+   * @param dist an array of length 8, to hold the probability of each card, indexed by ordinal
+   **/
+  public void distribution(int player, double[] dist){
+    double total = 0;
+    for(int x = 0; x<8; x++){
+      if(eliminated[player]) dist[x] = 0;
+      else if(known[player]!=-1) dist[x] = known[player]==x?1:0;
+      else dist[x] = available(player, x)*weight[player][x];
+      total+=dist[x];
+    }
+    if(total>0)
+      for(int x = 0; x<8; x++) dist[x]/=total;
+  }
+
+  /**
+   * Gives the number of copies of a card the observer cannot see,
+   * that is, not discarded and not in the observer's hand.
+   * @param c the card
+   * @return the number of unseen copies of the card
+   **/
+  public int unseen(Card c){
+    return pool[c.ordinal()]-(known[observer]==c.ordinal()?1:0);
+  }
+
+  //the copies of card x that the player could hold, given the cards the observer has accounted for
+  private int available(int player, int x){
+    int n = pool[x];
+    for(int p = 0; p<num; p++)
+      if(p!=player && !eliminated[p] && known[p]==x) n--;
+    return n<0?0:n;
+  }
+
+  //discounts new discards, and records the cards the observer now knows
+  private void observe(State s){
+    for(int p = 0; p<num; p++){
+      while(seen[p]<s.numDiscards(p)) pool[s.getDiscard(p, seen[p]++).ordinal()]--;
+      eliminated[p] = s.eliminated(p);
+      Card c = s.getCard(p);
+      if(c!=null && !eliminated[p]){
+        known[p] = c.ordinal();
+        for(int x = 0; x<8; x++) weight[p][x] = x==known[p]?1:0;
+      }
+      else known[p] = -1;//if the card is no longer known, the weights already describe it
+    }
+    for(int p = 0; p<num; p++)//the discards and known cards may leave a player no card they could hold
+      if(!eliminated[p] && known[p]==-1) normalise(p);
+  }
+
+  //the player has drawn a fresh card
+  private void reset(int p){
+    for(int x = 0; x<8; x++) weight[p][x] = 1;
+  }
+
+  //the player's card is of higher value than the given card
+  private void higher(int p, Card c){
+    for(int x = 0; x<=c.ordinal(); x++) weight[p][x] = 0;
+    normalise(p);
+  }
+
+  //rescales the player's weights, so that they can neither overflow nor all become zero.
+  //If no card the player could hold has weight left, the beliefs are reset, so the player holds each card in proportion to its unseen copies
+  private void normalise(int p){
+    double max = 0;
+    double mass = 0;
+    for(int x = 0; x<8; x++){
+      max = Math.max(max, weight[p][x]);
+      mass+=available(p, x)*weight[p][x];
+    }
+    if(mass==0) reset(p);
+    else for(int x = 0; x<8; x++) weight[p][x]/=max;
+  }
+}
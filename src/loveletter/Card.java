@@ -1,6 +1,7 @@
 package loveletter;
 
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 /**An enumeration of the card types
  * Cards are immutable
@@ -48,16 +49,39 @@ public enum Card {
     public int count(){return count;}
 
     /**
-     * Creates a shuffled deck of cards
+     * Creates a shuffled deck of cards, with a Fisher-Yates shuffle.
+     * Every order of the deck is equally likely, and the shuffle takes 15 random draws.
+     * The generator is not shared, so games on different threads should each have their own,
+     * for example a SplittableRandom, or one split from it.
+     * @param rand a random number generator to shuffle the deck
+     * @return an array of cards representing a standard deck of loveletter cards, in random order.
+     * **/
+    public static Card[] shuffle(RandomGenerator rand){
+      Card[] deck = standardDeck();
+      for(int i = 15; i>0; i--){
+        int j = rand.nextInt(i+1);
+        Card c = deck[i];
+        deck[i] = deck[j];
+        deck[j] = c;
+      }
+      return deck;
+    }
+
+    /**
+     * Creates a shuffled deck of cards, with the original shuffle of two hundred random swaps.
+     * This is kept so that games seeded before the Fisher-Yates shuffle still reproduce,
+     * but it takes 400 random draws, and does not make every order of the deck equally likely.
+     * New code should use shuffle.
      * @param rand a random number generator to shuffle the deck
      * @return an array of cards representing a standard deck of loveletter cards, in random order.
      * **/
     public static Card[] deal(java.util.Random rand){
-      Card[] deck = new Card[16];
-      int j = 0;
-      for(Card c: Card.values())
-        for(int i = 0; i<c.count(); i++)
-          deck[j++] = c;
+      return legacyDeal(rand);
+    }
+
+    //the original shuffle, for any generator
+    static Card[] legacyDeal(RandomGenerator rand){
+      Card[] deck = standardDeck();
       for(int i = 0; i<200; i++){//make two hundred random swaps of cards
         int index1 = rand.nextInt(16);
         int index2 = rand.nextInt(16);
@@ -68,13 +92,23 @@ public enum Card {
       return deck;
     }
 
+    //the deck in order of value
+    private static Card[] standardDeck(){
+      Card[] deck = new Card[16];
+      int j = 0;
+      for(Card c: Card.values())
+        for(int i = 0; i<c.count(); i++)
+          deck[j++] = c;
+      return deck;
+    }
+
 
     /**
      * Creates a shuffled deck of cards, using a default random number generator
      * @return an array of cards representing a standard deck of loveletter cards, in random order.
      * **/
     public static Card[] deal(){
-      return deal(new java.util.Random());
+      return shuffle(new SplittableRandom());
     }
   
 }
@@ -0,0 +1,59 @@
+package loveletter;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A source of decks for the rounds of a game.
+ * The game engine State calls deal once when it is constructed, and once at each call of newRound,
+ * so a Dealer decides every deck of a game. A dealer that replays a fixed sequence of decks
+ * lets the same deals be played again with the agents in different seats (see DuplicateTournament).
+ **/
+@FunctionalInterface
+public interface Dealer{
+
+  /**
+   * Gives the deck for the next round.
+   * @return a standard deck of 16 cards, in the order they will be drawn. The engine does not modify the array.
+   **/
+  public Card[] deal();
+
+  /**
+   * A dealer that shuffles each deck with a Fisher-Yates shuffle (see Card.shuffle).
+   * @param rand the random number generator for the shuffles
+   * @return the dealer
+   **/
+  public static Dealer shuffle(RandomGenerator rand){
+    return () -> Card.shuffle(rand);
+  }
+
+  /**
+   * A dealer that shuffles each deck with the original shuffle (see Card.deal), so existing seeds reproduce.
+   * @param rand the random number generator for the shuffles
+   * @return the dealer
+   **/
+  public static Dealer legacy(RandomGenerator rand){
+    return () -> Card.legacyDeal(rand);
+  }
+
+  /**
+   * A dealer that deals the given decks in order, without shuffling.
+   * @param decks the decks of each round, in order
+   * @return the dealer, which throws an IllegalStateException if asked for more decks than were given
+   * @throws IllegalArgumentException if a deck is not an order of the standard deck
+   **/
+  public static Dealer replay(Card[][] decks){
+    Card[][] copy = new Card[decks.length][];
+    for(int i = 0; i<decks.length; i++){
+      if(decks[i].length!=16) throw new IllegalArgumentException("A deck must have 16 cards");
+      DeckIndex.FULL.rank(decks[i]);//checks the deck is an order of the standard deck
+      copy[i] = decks[i].clone();
+    }
+    return new Dealer(){
+      private int next;
+      public Card[] deal(){
+        if(next==copy.length) throw new IllegalStateException("No decks remain to be dealt");
+        return copy[next++];
+      }
+    };
+  }
+}
@@ -0,0 +1,208 @@
+package loveletter;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Numbers the distinct orders of a multiset of cards, so that every order has a dense index from 0 to size()-1.
+ * The full deck has 16!/(5!2!2!2!2!) = 10,897,286,400 distinct orders, given by DeckIndex.FULL,
+ * and a fixed set of deals may be described by their indexes rather than by random seeds.
+ * <p>
+ * The index of a partially observed State describes the orders of the cards the observer cannot see,
+ * in the form used by ForwardModel: the unknown hands in order of player index, followed by the remaining deck from the top.
+ * Each order is a consistent completion of the observer's State, and all of them may be enumerated,
+ * or sampled from strata of equal size, to evaluate a position exactly or with less variance than random determinizations:
+ * <pre>
+ * DeckIndex index = DeckIndex.completions(current, c);
+ * Card[] hidden = new Card[index.length()];
+ * for(long i = 0; i&lt;index.size(); i++){
+ *   index.unrank(i, hidden);
+ *   ForwardModel model = new ForwardModel(current, c, hidden, rand);
+ *   ...
+ * }
+ * </pre>
+ * Orders are numbered lexicographically by card value, so next steps through them in index order,
+ * and each stratum of consecutive indexes shares its first few cards.
+ **/
+public final class DeckIndex{
+
+  private static final Card[] CARDS = Card.values();
+
+  /**The index of the orders of the full deck**/
+  public static final DeckIndex FULL = full();
+
+  private final int[] counts;//the number of each card, by ordinal
+  private final int length;
+  private final long size;
+
+  /**
+   * Constructs the index of the orders of a multiset of cards.
+   * @param counts the number of each card, indexed by ordinal (an array of length 8)
+   * @throws IllegalArgumentException if a count is negative, or there are more than 16 cards
+   **/
+  public DeckIndex(int[] counts){
+    if(counts.length!=8) throw new IllegalArgumentException("A count is required for each card");
+    this.counts = counts.clone();
+    int n = 0;
+    long m = 1;
+    for(int x = 0; x<8; x++){
+      if(counts[x]<0) throw new IllegalArgumentException("Negative card count");
+      for(int j = 1; j<=counts[x]; j++){
+        n++;
+        m = m*n/j;
+      }
+    }
+    if(n>16) throw new IllegalArgumentException("Too many cards");
+    this.length = n;
+    this.size = m;
+  }
+
+  private static DeckIndex full(){
+    int[] counts = new int[8];
+    for(Card c: CARDS) counts[c.ordinal()] = c.count();
+    return new DeckIndex(counts);
+  }
+
+  /**
+   * Gives the index of the completions of a player's view of the round:
+   * the orders of the cards in the unknown hands and the remaining deck.
+   * @param view the player's State, as given to the agent by newRound or see
+   * @param drawn the card the player has drawn and not yet played, or null if there is no such card
+   * @return the index of the consistent completions
+   **/
+  public static DeckIndex completions(State view, Card drawn){
+    Card[] hidden = new Card[16];
+    int n = view.hiddenCards(drawn, hidden);
+    int[] counts = new int[8];
+    for(int i = 0; i<n; i++) counts[hidden[i].ordinal()]++;
+    return new DeckIndex(counts);
+  }
+
+  /**
+   * @return the number of cards in each order
+   **/
+  public int length(){return length;}
+
+  /**
+   * @return the number of distinct orders
+   **/
+  public long size(){return size;}
+
+  /**
+   * Gives the index of an order of the cards.
+   * @param cards an order of the multiset (only the first length() cards are read)
+   * @return the index of the order, between 0 and size()-1
+   * @throws IllegalArgumentException if the cards are not an order of the multiset
+   **/
+  public long rank(Card[] cards){
+    return rank(cards, new int[8]);
+  }
+
+  /**
+   * Gives the index of an order of the cards, without allocating.
+   * @param cards an order of the multiset (only the first length() cards are read)
+   * @param scratch an array of length 8, which is overwritten
+   * @return the index of the order, between 0 and size()-1
+   * @throws IllegalArgumentException if the cards are not an order of the multiset
+   **/
+  public long rank(Card[] cards, int[] scratch){
+    int[] c = scratch;
+    System.arraycopy(counts, 0, c, 0, 8);
+    int n = length;
+    long m = size;//the number of orders of the cards not yet ranked
+    long r = 0;
+    for(int i = 0; i<length; i++){
+      int x = cards[i].ordinal();
+      if(c[x]==0) throw new IllegalArgumentException("The cards are not an order of the multiset");
+      for(int y = 0; y<x; y++) r+=m*c[y]/n;//the orders that start with a smaller card
+      m = m*c[x]/n;
+      c[x]--;
+      n--;
+    }
+    return r;
+  }
+
+  /**
+   * Writes the order with the given index.
+   * @param index the index of the order, between 0 and size()-1
+   * @param cards an array with room for length() cards, to hold the order
+   * @throws IllegalArgumentException if the index is out of range
+   **/
+  public void unrank(long index, Card[] cards){
+    if(index<0 || index>=size) throw new IllegalArgumentException("Index out of range");
+    int[] c = counts.clone();
+    int n = length;
+    long m = size;
+    for(int i = 0; i<length; i++){
+      int x = 0;
+      while(true){
+        long block = m*c[x]/n;//the orders that start with card x
+        if(index<block){
+          m = block;
+          break;
+        }
+        index-=block;
+        x++;
+      }
+      cards[i] = CARDS[x];
+      c[x]--;
+      n--;
+    }
+  }
+
+  /**
+   * Gives the order with the given index.
+   * @param index the index of the order, between 0 and size()-1
+   * @return the order, as an array of length length()
+   * @throws IllegalArgumentException if the index is out of range
+   **/
+  public Card[] unrank(long index){
+    Card[] cards = new Card[length];
+    unrank(index, cards);
+    return cards;
+  }
+
+  /**
+   * Writes a random order from one of a number of strata of consecutive indexes, of equal size (to within one).
+   * Drawing one sample from each stratum gives an estimate with no more variance than the same number of random orders.
+   * @param stratum the stratum to sample, between 0 and strata-1
+   * @param strata the number of strata, no more than size()
+   * @param rand the random number generator
+   * @param cards an array with room for length() cards, to hold the order
+   * @return the index of the order
+   * @throws IllegalArgumentException if the stratum is out of range
+   **/
+  public long sample(long stratum, long strata, RandomGenerator rand, Card[] cards){
+    if(strata<1 || strata>size || stratum<0 || stratum>=strata) throw new IllegalArgumentException("Stratum out of range");
+    long from = start(stratum, strata);
+    long index = from+rand.nextLong(start(stratum+1, strata)-from);
+    unrank(index, cards);
+    return index;
+  }
+
+  //the first index of a stratum, where the first size%strata strata have one extra index
+  private long start(long stratum, long strata){
+    return stratum*(size/strata)+Math.min(stratum, size%strata);
+  }
+
+  /**
+   * Steps an order to the order with the next index, in place.
+   * @param cards an order of the multiset
+   * @return false if the cards were the last order, in which case they are left unchanged
+   **/
+  public boolean next(Card[] cards){
+    int i = length-2;
+    while(i>=0 && cards[i].ordinal()>=cards[i+1].ordinal()) i--;
+    if(i<0) return false;
+    int j = length-1;
+    while(cards[j].ordinal()<=cards[i].ordinal()) j--;
+    Card c = cards[i];
+    cards[i] = cards[j];
+    cards[j] = c;
+    for(int a = i+1, b = length-1; a<b; a++, b--){
+      c = cards[a];
+      cards[a] = cards[b];
+      cards[b] = c;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,357 @@
+package loveletter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A tournament in duplicate format, where the luck of the deal is shared equally between the agents.
+ * The tournament is played in sets. Each set has a fixed sequence of decks, derived from the tournament seed and the index of the set,
+ * and the set is played once for every permutation of the agents among the seats, with the same decks each time.
+ * An agent's score for a set is the fraction of the set's games it won, and since every agent sees the same deals
+ * in every seat, the difference between two agents' scores for a set has far less variance than the difference
+ * between independent games. The results give the mean score of each agent and the mean difference between each pair of agents,
+ * with 95% confidence intervals computed over the sets.
+ * <p>
+ * Each game uses the seed Tournament.gameSeed(seed, set) for anything other than the deals,
+ * and the decks of a set are given by DuplicateTournament.decks(seed, set), so any game can be replayed with a Dealer.
+ **/
+public class DuplicateTournament{
+
+  /**The number of decks in each set: the most rounds a game can last, plus the deal made when the last round ends**/
+  public static final int DEALS = 14;
+
+  private static final int CHUNK = 4;//the number of sets a worker claims at a time
+  private static final double Z = 1.96;//the normal quantile for a 95% confidence interval
+
+  private AgentFactory[] factories;//the factory of each agent
+  private long seed;
+  private int threads;
+  private int[][] seatings;//every permutation of the agents, giving the agent in each seat
+
+  /**
+   * Constructs a duplicate tournament between the given agents.
+   * Each agent class must implement Agent and have a zero parameter constructor.
+   * Each set has numAgents! games: 2 for two agents, 6 for three and 24 for four.
+   * @param agentClasses the classes of the competing agents (2,3 or 4 of them)
+   * @param seed the seed from which every set's decks are derived
+   * @param threads the number of worker threads to play games on
+   * @throws IllegalArgumentException if there are the wrong number of agents, an agent class is not an Agent
+   * or has no zero parameter constructor, or threads is not positive.
+   **/
+  public DuplicateTournament(Class<?>[] agentClasses, long seed, int threads){
+    this(AgentFactory.of(agentClasses), seed, threads);
+  }
+
+  /**
+   * Constructs a duplicate tournament between agents created by the given factories.
+   * Each worker takes its agents from an AgentPool, so agents that can be reset are reused from game to game.
+   * @param factories the factories of the competing agents (2,3 or 4 of them)
+   * @param seed the seed from which every set's decks are derived
+   * @param threads the number of worker threads to play games on
+   * @throws IllegalArgumentException if there are the wrong number of agents, or threads is not positive.
+   **/
+  public DuplicateTournament(AgentFactory[] factories, long seed, int threads){
+    Tournament.checkAgents(factories);
+    if(threads<1) throw new IllegalArgumentException("At least one thread is required");
+    this.factories = factories.clone();
+    this.seed = seed;
+    this.threads = threads;
+    List<int[]> list = new ArrayList<int[]>();
+    permute(new int[factories.length], new boolean[factories.length], 0, list);
+    seatings = list.toArray(new int[list.size()][]);
+  }
+
+  /**
+   * Constructs a duplicate tournament between the given agents, using one worker thread per available processor.
+   * @param agentClasses the classes of the competing agents (2,3 or 4 of them)
+   * @param seed the seed from which every set's decks are derived
+   **/
+  public DuplicateTournament(Class<?>[] agentClasses, long seed){
+    this(agentClasses, seed, Runtime.getRuntime().availableProcessors());
+  }
+
+  private static void permute(int[] seating, boolean[] used, int seat, List<int[]> list){
+    if(seat==seating.length){
+      list.add(seating.clone());
+      return;
+    }
+    for(int a = 0; a<seating.length; a++){
+      if(used[a]) continue;
+      used[a] = true;
+      seating[seat] = a;
+      permute(seating, used, seat+1, list);
+      used[a] = false;
+    }
+  }
+
+  /**
+   * Gives the decks of a set, in the order they are dealt.
+   * @param seed the tournament seed
+   * @param set the index of the set
+   * @return DEALS decks, shuffled with a SplittableRandom seeded by Tournament.gameSeed(seed, set)
+   **/
+  public static Card[][] decks(long seed, long set){
+    SplittableRandom rand = new SplittableRandom(Tournament.gameSeed(seed, set));
+    Card[][] decks = new Card[DEALS][];
+    for(int i = 0; i<DEALS; i++) decks[i] = Card.shuffle(rand);
+    return decks;
+  }
+
+  /**
+   * Plays the given number of sets, spread across the worker threads.
+   * @param sets the number of sets to play
+   * @return the merged statistics of all the sets
+   * @throws InterruptedException if the calling thread is interrupted while waiting for the workers
+   **/
+  public Results play(long sets) throws InterruptedException{
+    AtomicLong next = new AtomicLong();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<Results>> futures = new ArrayList<Future<Results>>();
+    try{
+      for(int w = 0; w<threads; w++)
+        futures.add(pool.submit(() -> {
+          Results local = new Results(factories.length);
+          AgentPool agents = new AgentPool(factories);
+          try{
+            long start;
+            while((start = next.getAndAdd(CHUNK))<sets){
+              long end = Math.min(sets, start+CHUNK);
+              for(long s = start; s<end; s++) playSet(s, local, agents);
+            }
+          }finally{
+            agents.close();
+          }
+          return local;
+        }));
+      Results total = new Results(factories.length);
+      for(Future<Results> f: futures) total.merge(f.get());
+      return total;
+    }catch(ExecutionException e){
+      throw new IllegalStateException("A tournament worker failed", e.getCause());
+    }finally{
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Plays every seating of a set with the same decks, and records the set in the worker's statistics.
+   * @param set the index of the set
+   * @param results the statistics of the worker playing the set
+   * @param agents the worker's pool of agents
+   **/
+  private void playSet(long set, Results results, AgentPool agents) throws Exception{
+    int n = factories.length;
+    Card[][] decks = decks(seed, set);
+    double[] score = new double[n];
+    for(int[] seating: seatings){
+      Agent[] seated = agents.acquire(seating);
+      LoveLetter env = new LoveLetter(Tournament.gameSeed(seed, set));
+      env.setDealer(Dealer.replay(decks));
+      int winner = results.record(seating, env.playGame(seated));
+      agents.release(seating, seated, null);
+      if(winner!=-1) score[winner]+=1.0/seatings.length;
+    }
+    results.recordSet(score);
+  }
+
+  /**
+   * The statistics of a set of duplicate games.
+   * Agents are referred to by their index in the tournament, and seats by their player index in the game.
+   **/
+  public static class Results{
+    private int num;
+    private long sets;
+    private long games;
+    private long failed;
+    private long[] gameWins;
+    private long[] roundWins;
+    private long[][] agentSeatGames;
+    private long[][] agentSeatWins;
+    private double[] scoreSum;//the sum over sets of each agent's score
+    private double[] scoreSquares;
+    private double[][] differenceSum;//the sum over sets of the difference between two agents' scores
+    private double[][] differenceSquares;
+
+    private Results(int num){
+      this.num = num;
+      gameWins = new long[num];
+      roundWins = new long[num];
+      agentSeatGames = new long[num][num];
+      agentSeatWins = new long[num][num];
+      scoreSum = new double[num];
+      scoreSquares = new double[num];
+      differenceSum = new double[num][num];
+      differenceSquares = new double[num][num];
+    }
+
+    //records a finished game, given the agent in each seat and the final score in each seat, and returns the winning agent
+    private int record(int[] seating, int[] scores){
+      if(scores==null){failed++; return -1;}
+      games++;
+      int winner = 0;
+      for(int s = 0; s<num; s++){
+        if(scores[s]>scores[winner]) winner = s;
+        roundWins[seating[s]]+=scores[s];
+        agentSeatGames[seating[s]][s]++;
+      }
+      gameWins[seating[winner]]++;
+      agentSeatWins[seating[winner]][winner]++;
+      return seating[winner];
+    }
+
+    //records each agent's score for a set, and the paired differences
+    private void recordSet(double[] score){
+      sets++;
+      for(int a = 0; a<num; a++){
+        scoreSum[a]+=score[a];
+        scoreSquares[a]+=score[a]*score[a];
+        for(int b = 0; b<num; b++){
+          double d = score[a]-score[b];
+          differenceSum[a][b]+=d;
+          differenceSquares[a][b]+=d*d;
+        }
+      }
+    }
+
+    //adds the statistics of another worker to these statistics
+    private void merge(Results r){
+      sets+=r.sets;
+      games+=r.games;
+      failed+=r.failed;
+      for(int i = 0; i<num; i++){
+        gameWins[i]+=r.gameWins[i];
+        roundWins[i]+=r.roundWins[i];
+        scoreSum[i]+=r.scoreSum[i];
+        scoreSquares[i]+=r.scoreSquares[i];
+        for(int j = 0; j<num; j++){
+          agentSeatGames[i][j]+=r.agentSeatGames[i][j];
+          agentSeatWins[i][j]+=r.agentSeatWins[i][j];
+          differenceSum[i][j]+=r.differenceSum[i][j];
+          differenceSquares[i][j]+=r.differenceSquares[i][j];
+        }
+      }
+    }
+
+    //the half width of the 95% confidence interval of a mean over the sets
+    private double interval(double sum, double squares){
+      if(sets<2) return Double.POSITIVE_INFINITY;
+      double variance = Math.max(0, (squares-sum*sum/sets)/(sets-1));
+      return Z*Math.sqrt(variance/sets);
+    }
+
+    /**
+     * @return the number of sets completed
+     **/
+    public long sets(){return sets;}
+
+    /**
+     * @return the number of games completed
+     **/
+    public long games(){return games;}
+
+    /**
+     * @return the number of games abandoned because the engine failed
+     **/
+    public long failed(){return failed;}
+
+    /**
+     * @param agent the index of the agent
+     * @return the number of games the agent won
+     **/
+    public long gameWins(int agent){return gameWins[agent];}
+
+    /**
+     * @param agent the index of the agent
+     * @return the number of rounds the agent won
+     **/
+    public long roundWins(int agent){return roundWins[agent];}
+
+    /**
+     * @param agent the index of the agent
+     * @param seat the player index
+     * @return the number of games the agent played from that seat
+     **/
+    public long agentSeatGames(int agent, int seat){return agentSeatGames[agent][seat];}
+
+    /**
+     * @param agent the index of the agent
+     * @param seat the player index
+     * @return the number of games the agent won from that seat
+     **/
+    public long agentSeatWins(int agent, int seat){return agentSeatWins[agent][seat];}
+
+    /**
+     * @param agent the index of the agent
+     * @return the mean over the sets of the fraction of games the agent won
+     **/
+    public double score(int agent){return sets==0?0:scoreSum[agent]/sets;}
+
+    /**
+     * @param agent the index of the agent
+     * @return the half width of the 95% confidence interval of the agent's score
+     **/
+    public double scoreInterval(int agent){return interval(scoreSum[agent], scoreSquares[agent]);}
+
+    /**
+     * @param a the index of one agent
+     * @param b the index of another agent
+     * @return the mean over the sets of the difference between the scores of agent a and agent b
+     **/
+    public double difference(int a, int b){return sets==0?0:differenceSum[a][b]/sets;}
+
+    /**
+     * @param a the index of one agent
+     * @param b the index of another agent
+     * @return the half width of the 95% confidence interval of the paired difference between the agents' scores
+     **/
+    public double differenceInterval(int a, int b){return interval(differenceSum[a][b], differenceSquares[a][b]);}
+
+    /**
+     * @param a the index of one agent
+     * @param b the index of another agent
+     * @return true if and only if the 95% confidence interval of the difference between the agents' scores excludes 0
+     **/
+    public boolean significant(int a, int b){return Math.abs(difference(a, b))>differenceInterval(a, b);}
+
+    /**
+     * produces a table of the results
+     * @return a string representation of the results
+     **/
+    public String toString(){
+      StringBuilder sb = new StringBuilder();
+      sb.append("Sets: "+sets+", games: "+games+(failed>0?" ("+failed+" failed)":"")+"\n");
+      for(int a = 0; a<num; a++){
+        sb.append(String.format("Agent %d: score %.4f +- %.4f, games %d, rounds %d, wins by seat", a, score(a), scoreInterval(a), gameWins[a], roundWins[a]));
+        for(int s = 0; s<num; s++) sb.append(" "+agentSeatWins[a][s]+"/"+agentSeatGames[a][s]);
+        sb.append("\n");
+      }
+      sb.append("Paired differences:");
+      for(int a = 0; a<num; a++)
+        for(int b = a+1; b<num; b++)
+          sb.append(String.format("\n  Agent %d - Agent %d: %+.4f +- %.4f%s", a, b, difference(a, b), differenceInterval(a, b), significant(a, b)?" *":""));
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Runs a duplicate tournament between two RandomAgents and two BorkedAgents.
+   * @param args optionally the number of sets and the number of threads
+   **/
+  public static void main(String[] args) throws InterruptedException{
+    long sets = args.length>0?Long.parseLong(args[0]):500;
+    int threads = args.length>1?Integer.parseInt(args[1]):Runtime.getRuntime().availableProcessors();
+    Class<?>[] agents = {agents.RandomAgent.class, agents.RandomAgent.class, agents.BorkedAgent.class, agents.BorkedAgent.class};
+    DuplicateTournament t = new DuplicateTournament(agents, 0, threads);
+    long start = System.nanoTime();
+    Results r = t.play(sets);
+    double secs = (System.nanoTime()-start)/1e9;
+    System.out.println(r);
+    System.out.println(String.format("%d games in %.2fs on %d threads (%.0f games/s)", r.games(), secs, threads, r.games()/secs));
+  }
+}
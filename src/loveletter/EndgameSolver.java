@@ -0,0 +1,808 @@
+package loveletter;
+
+/**
+ * A solver for the end of a round, when only a few cards remain in the deck.
+ * The solver searches over what the player can see: each node is the set of deals (of the unknown hands and the deck)
+ * the player cannot tell apart, each with its probability.
+ * At the root, every way the cards the player cannot see could have been dealt is taken as equally likely,
+ * as the State does not record how likely the earlier moves made each deal.
+ * Each card drawn is a chance event over the cards remaining in the deck,
+ * and the player's draws and every action the player observes split the deals by what the player would see,
+ * so the player chooses the action that maximises its chance of winning over the deals it cannot tell apart,
+ * and never acts on a card it has not seen.
+ * The other players are modelled as RandomAgent plays, as chance events:
+ * a card in proportion to the share of targets it may take, never the princess if the other card is legal,
+ * and then a legal target and guess evenly.
+ * The values are the exact expectimax of the chance of winning the round for that model of play,
+ * where the player's later moves also use what those moves reveal about the other players' cards.
+ * <p>
+ * Positions the player has no move left from, or has narrowed the deal down to, are stored in a transposition table,
+ * keyed on a canonical packing of the hands, the multiset of cards in the deck, the handmaid flags, the next player and the discard totals,
+ * so the order of the deck and the order of the discards do not matter.
+ * The table holds one probability for each position, and the search reuses its buffers, so a solve allocates nothing once warmed up.
+ * The table is kept between calls, so a solver should be reused by an agent for a whole game.
+ * <p>
+ * Tracking the player's information makes the search much larger than solving each deal with every card known,
+ * and a four player round with 4 or 5 cards left can take tens of milliseconds or more to solve exactly.
+ * So each solve has a time budget, half a millisecond by default, and the search is deepened a turn at a time:
+ * a position beyond the horizon, or reached once the budget is spent, is only known to be won with a probability between 0 and 1.
+ * Each action is given a lower and an upper bound on its probability of winning, from the deepest search completed,
+ * and the bounds are equal, and exact, when the search reaches the end of the round within the budget.
+ * Within the default budget, most positions with 3 cards left are solved exactly,
+ * but with 5 cards left in a three or four player round the bounds are often too wide to choose by.
+ **/
+public class EndgameSolver{
+
+  /**The largest deck size (as given by State.deckSize) the solver will accept**/
+  public static final int MAX_DECK = 5;
+  /**The default time budget of a solve, in nanoseconds**/
+  public static final long DEFAULT_BUDGET = 500000;
+
+  //bit offsets and masks of the count of each card in the deck
+  private static final int[] OFF = {16,19,21,23,25,27,28,29};
+  private static final long[] MASK = {7,3,3,3,3,1,1,1};
+  private static final int MAID = 30, NEXT = 34, SUM = 36, SOLVER = 60;
+  private static final int CAPACITY = 1<<16;//slots in the transposition table
+
+  private long[] keys = new long[CAPACITY];
+  private double[] table = new double[CAPACITY];
+  private int size;
+  private int me;//the player the solver is solving for
+  private int num;//the number of players in the game
+  private Outcomes[] buffers = new Outcomes[0];//the outcomes at each depth of the search, reused between searches
+  private int depth;
+  private Worlds[] worlds = new Worlds[0];//the sets of deals in use, as a stack, reused between searches
+  private int used;
+  private long budget = DEFAULT_BUDGET;
+  private long deadline;//the time the current solve must stop by
+  private int calls;//the searches since the clock was last read
+  private boolean expired;//whether the current solve has spent its budget
+  private boolean exact;//whether the last solve reached the end of the round for every action
+  private int left;//the turns left to search before the horizon
+  private int cuts;//the number of positions cut off by the horizon or the budget
+  private double high;//the upper bound of the value last returned by a search
+  //space for each solve
+  private int[] ids = new int[State.MAX_LEGAL_ACTIONS];
+  private boolean[] done = new boolean[State.MAX_LEGAL_ACTIONS];
+  private double[] scratch = new double[State.MAX_LEGAL_ACTIONS];//the upper bounds for solves that only want the lower bounds
+  private int[] unknown = new int[4];
+  private int[] pool = new int[8];
+  private Card[] hidden = new Card[16];
+
+  /**
+   * Finds the probability of winning the round for each legal action of a player who has just drawn a card,
+   * or the lower bound on it found within the budget.
+   * @param view the player's State, where it is the player's turn
+   * @param drawn the card the player drew
+   * @param actions a buffer of length State.MAX_LEGAL_ACTIONS, to hold the legal actions
+   * @param values a buffer of length State.MAX_LEGAL_ACTIONS, to hold the probability of winning the round after each action,
+   * which is exact if exact() is true afterwards, and otherwise a lower bound
+   * @return the number of legal actions
+   * @throws IllegalArgumentException if it is not the player's turn, or the deck has more than MAX_DECK cards
+   **/
+  public int solve(State view, Card drawn, Action[] actions, double[] values){
+    return solve(view, drawn, actions, values, scratch);
+  }
+
+  /**
+   * Bounds the probability of winning the round for each legal action of a player who has just drawn a card,
+   * searching as deep as the budget allows. The bounds are equal when the action was searched to the end of the round.
+   * @param view the player's State, where it is the player's turn
+   * @param drawn the card the player drew
+   * @param actions a buffer of length State.MAX_LEGAL_ACTIONS, to hold the legal actions
+   * @param lower a buffer of length State.MAX_LEGAL_ACTIONS, to hold the lower bound on the probability of winning the round after each action
+   * @param upper a buffer of length State.MAX_LEGAL_ACTIONS, to hold the upper bound on the probability of winning the round after each action
+   * @return the number of legal actions
+   * @throws IllegalArgumentException if it is not the player's turn, or the deck has more than MAX_DECK cards
+   **/
+  public int solve(State view, Card drawn, Action[] actions, double[] lower, double[] upper){
+    long start = System.nanoTime();
+    me = view.getPlayerIndex();
+    if(me==-1 || view.nextPlayer()!=me) throw new IllegalArgumentException("It is not the player's turn");
+    if(view.deckSize()>MAX_DECK) throw new IllegalArgumentException("The deck is too large to solve");
+    num = view.numPlayers();
+    depth = 0;
+    used = 0;
+    deadline = budget>0?start+budget:Long.MAX_VALUE;
+    expired = false;
+    int n = view.legalActions(drawn, ids);
+    //the position, with the unknown hands and the deck still to be filled in
+    long base = (long)me<<NEXT;
+    int u = 0;
+    for(int p = 0; p<num; p++){
+      if(view.eliminated(p)) continue;
+      Card c = view.getCard(p);
+      if(c==null) unknown[u++] = p;
+      else base|=(long)(c.ordinal()+1)<<(4*p);
+      if(view.handmaid(p)) base|=1L<<(MAID+p);
+      int sum = 0;
+      for(int i = 0; i<view.numDiscards(p); i++) sum+=view.getDiscard(p, i).value();
+      base|=(long)sum<<(SUM+6*p);
+    }
+    java.util.Arrays.fill(pool, 0);
+    int h = view.hiddenCards(drawn, hidden);
+    for(int i = 0; i<h; i++) pool[hidden[i].ordinal()]++;
+    Worlds deals = worlds(count(pool, u));
+    deal(base, unknown, 0, u, pool, 1, deals);
+    double total = 0;
+    for(int i = 0; i<deals.n; i++) total+=deals.w[i];
+    for(int k = 0; k<n; k++){
+      actions[k] = Action.get(ids[k]);
+      lower[k] = 0;
+      upper[k] = 1;
+      done[k] = false;
+    }
+    Outcomes out = buffer();
+    //the search is deepened a turn at a time, so when the budget is spent each action has the bounds of the deepest search that finished it.
+    //Without a budget, the first search reaches the end of the round, which is at most the size of the deck away
+    exact = false;
+    for(int horizon = budget>0?1:view.deckSize(); !exact && !expired; horizon++){
+      exact = true;
+      for(int k = 0; k<n && !expired; k++){
+        if(done[k]) continue;
+        Action act = actions[k];
+        int g = act.guess()==null?0:act.guess().ordinal();
+        out.n = 0;
+        for(int i = 0; i<deals.n; i++)
+          play(deals.s[i], me, act.card().ordinal(), act.target(), g, drawn.ordinal(), deals.w[i], out);
+        int before = cuts;
+        left = horizon;
+        double v = resolve(out)/total;
+        if(cuts==before){//searched to the end of the round
+          lower[k] = upper[k] = v;
+          done[k] = true;
+        }
+        else{
+          lower[k] = Math.max(lower[k], v);
+          upper[k] = Math.max(lower[k], Math.min(upper[k], high/total));
+          exact = false;
+        }
+      }
+    }
+    for(int k = 0; k<n; k++) exact&=done[k];
+    depth--;
+    used--;
+    return n;
+  }
+
+  /**
+   * Finds the legal action with the greatest probability of winning the round,
+   * taking the middle of its bounds if the search did not finish within the budget.
+   * @param view the player's State, where it is the player's turn
+   * @param drawn the card the player drew
+   * @return the best action
+   * @throws IllegalArgumentException if it is not the player's turn, or the deck has more than MAX_DECK cards
+   **/
+  public Action bestAction(State view, Card drawn){
+    Action[] actions = new Action[State.MAX_LEGAL_ACTIONS];
+    double[] lower = new double[State.MAX_LEGAL_ACTIONS];
+    double[] upper = new double[State.MAX_LEGAL_ACTIONS];
+    int n = solve(view, drawn, actions, lower, upper);
+    int best = 0;
+    for(int i = 1; i<n; i++)
+      if(lower[i]+upper[i]>lower[best]+upper[best]) best = i;
+    return actions[best];
+  }
+
+  /**
+   * Sets the time budget of each solve, so that an agent may call the solver from playCard.
+   * The budget is checked as the search goes, so a solve may overrun it by a few microseconds.
+   * @param nanos the time budget in nanoseconds, or 0 to always search to the end of the round
+   * @throws IllegalArgumentException if the budget is negative
+   **/
+  public void setBudget(long nanos){
+    if(nanos<0) throw new IllegalArgumentException("The budget must not be negative");
+    budget = nanos;
+  }
+
+  /**
+   * @return true if the last solve searched every action to the end of the round, so its values are exact
+   **/
+  public boolean exact(){return exact;}
+
+  /**
+   * Clears the transposition table.
+   **/
+  public void clear(){
+    java.util.Arrays.fill(keys, 0);
+    size = 0;
+  }
+
+  //the number of ways u hands may be dealt from the pool, at most
+  private static int count(int[] pool, int u){
+    int kinds = 0;
+    for(int x = 0; x<8; x++)
+      if(pool[x]>0) kinds++;
+    int n = 1;
+    for(int i = 0; i<u; i++) n*=kinds;
+    return n;
+  }
+
+  //deals the unknown hands from the pool in every way, adding each deal with the number of ways it could occur
+  private static void deal(long s, int[] unknown, int i, int u, int[] pool, double weight, Worlds deals){
+    if(i==u){
+      for(int x = 0; x<8; x++) s|=(long)pool[x]<<OFF[x];
+      deals.add(s, weight);
+      return;
+    }
+    for(int x = 0; x<8; x++){
+      if(pool[x]==0) continue;
+      double w = weight*pool[x];
+      pool[x]--;
+      deal(s|(long)(x+1)<<(4*unknown[i]), unknown, i+1, u, pool, w, deals);
+      pool[x]++;
+    }
+  }
+
+  //the chance of the player winning, weighted by probability, summed over the deals it cannot tell apart after a turn,
+  //grouping the outcomes of the turn by what the player sees. The upper bound is left in high
+  private double resolve(Outcomes out){
+    int n = out.n;
+    double rest = 0;//the probability of the outcomes not yet searched
+    for(int i = 0; i<n; i++) rest+=out.w[i];
+    double v = 0;
+    double hi = 0;
+    int groups = 0;
+    int mask = out.table(n);
+    for(int i = 0; i<n; i++){
+      if(expired()) return cut(v, hi, rest);
+      if(!decides(out.s[i])){//what the player sees no longer matters
+        v+=out.w[i]*expect(out.s[i]);
+        hi+=out.w[i]*high;
+        rest-=out.w[i];
+        out.group[i] = -1;
+      }
+      else if((out.group[i] = out.group(out.seen[i], groups, mask))==groups) groups++;
+    }
+    //put the outcomes of each group together
+    int[] start = out.start;
+    java.util.Arrays.fill(start, 0, groups+1, 0);
+    for(int i = 0; i<n; i++)
+      if(out.group[i]>=0) start[out.group[i]+1]++;
+    for(int g = 0; g<groups; g++) start[g+1]+=start[g];
+    for(int i = 0; i<n; i++)
+      if(out.group[i]>=0) out.order[start[out.group[i]]++] = i;
+    int mark = used;//the groups of this turn are on the stack above mark
+    for(int g = 0, from = 0; g<groups; from = start[g++]){
+      if(expired()){
+        used = mark;
+        return cut(v, hi, rest);
+      }
+      Worlds group = worlds(start[g]-from);
+      for(int k = from; k<start[g]; k++) group.add(out.s[out.order[k]], out.w[out.order[k]]);
+      group.sort();
+      rest-=group.total;
+      //different observations that leave the same deals in the same proportions, such as guards guessing cards no deal has,
+      //have values in proportion to their probability, so are only searched once
+      Worlds same = seen(mark, group);
+      if(same!=null){
+        v+=same.value*group.total/same.total;
+        hi+=same.high*group.total/same.total;
+        used--;
+      }
+      else{
+        group.value = node(group);
+        group.high = high;
+        v+=group.value;
+        hi+=group.high;
+      }
+    }
+    used = mark;
+    high = hi;
+    return v;
+  }
+
+  //the bounds of a search that was cut off before the given probability was searched
+  private double cut(double v, double hi, double rest){
+    cuts++;
+    high = hi+Math.max(rest, 0);
+    return v;
+  }
+
+  //a group of this turn already searched with the same deals in the same proportions, or null if there is none
+  private Worlds seen(int mark, Worlds group){
+    for(int i = mark; i<used-1; i++){
+      Worlds other = worlds[i];
+      if(other.hash==group.hash && other.same(group)) return other;
+    }
+    return null;
+  }
+
+  //the chance of the player winning, weighted by probability, from deals the player cannot tell apart,
+  //where the next player is about to draw, or the round is over. The upper bound is left in high
+  private double node(Worlds ws){
+    long s0 = ws.s[0];
+    if(hand(s0, me)==-1) return high = 0;
+    if(over(s0)){
+      double v = 0;
+      for(int i = 0; i<ws.n; i++)
+        if(winner(ws.s[i])==me) v+=ws.w[i];
+      return high = v;
+    }
+    if(ws.n==1){//the player knows the position, up to the order of the deck
+      long key = s0 | (long)me<<SOLVER | (long)(num-1)<<(SOLVER+2);
+      int slot = find(key);
+      if(keys[slot]==key) return high = table[slot]*ws.w[0];
+    }
+    if(left==0 || expired()) return cut(0, 0, ws.total);//beyond the horizon, or out of time
+    int before = cuts;
+    left--;
+    int a = next(s0);
+    int deck = deckSize(s0);
+    double v = 0;
+    double hi = 0;
+    if(a==me){//the player sees the card it draws, and then chooses its action
+      for(int x = 0; x<8; x++){
+        Worlds drew = worlds(ws.n);
+        for(int i = 0; i<ws.n; i++){
+          int c = count(ws.s[i], x);
+          if(c>0) drew.add(ws.s[i]-(1L<<OFF[x]), ws.w[i]*c/deck);
+        }
+        if(drew.n>0){
+          v+=decide(drew, x);
+          hi+=high;
+        }
+        used--;
+      }
+    }
+    else{//the opponent's draw is not seen, and it plays at random
+      Outcomes out = buffer();
+      for(int i = 0; i<ws.n; i++){
+        if(expired()){
+          depth--;
+          left++;
+          return cut(0, 0, ws.total);
+        }
+        for(int x = 0; x<8; x++){
+          int c = count(ws.s[i], x);
+          if(c>0) opponent(ws.s[i]-(1L<<OFF[x]), a, x, ws.w[i]*c/deck, out);
+        }
+      }
+      v = resolve(out);
+      hi = high;
+      depth--;
+    }
+    left++;
+    if(ws.n==1 && cuts==before) store(s0 | (long)me<<SOLVER | (long)(num-1)<<(SOLVER+2), v/ws.w[0]);
+    high = hi;
+    return v;
+  }
+
+  //the chance of the player winning from a position where it has no move left to make, and the next player is about to draw.
+  //The upper bound is left in high
+  private double expect(long s){
+    if(hand(s, me)==-1) return high = 0;
+    if(over(s)) return high = winner(s)==me?1:0;
+    long key = s | (long)me<<SOLVER | (long)(num-1)<<(SOLVER+2);
+    int slot = find(key);
+    if(keys[slot]==key) return high = table[slot];
+    if(left==0 || expired()) return cut(0, 0, 1);//beyond the horizon, or out of time
+    int before = cuts;
+    left--;
+    int a = next(s);
+    int deck = deckSize(s);
+    Outcomes out = buffer();
+    for(int x = 0; x<8; x++){
+      int c = count(s, x);
+      if(c>0) opponent(s-(1L<<OFF[x]), a, x, (double)c/deck, out);
+    }
+    double v = 0;
+    double hi = 0;
+    for(int i = 0; i<out.n; i++){
+      v+=out.w[i]*expect(out.s[i]);
+      hi+=out.w[i]*high;
+    }
+    depth--;
+    left++;
+    if(cuts==before) store(key, v);
+    high = hi;
+    return v;
+  }
+
+  //whether the budget of the solve is spent, reading the clock every few searches
+  private boolean expired(){
+    if(!expired && (++calls&15)==0 && System.nanoTime()>deadline) expired = true;
+    return expired;
+  }
+
+  //whether the solving player may have another move to make before the round is over,
+  //given at most one player leaves the round each turn
+  private boolean decides(long s){
+    if(hand(s, me)==-1 || over(s)) return false;
+    int before = 0;
+    for(int p = next(s); p!=me; p = (p+1)%4)
+      if(hand(s, p)!=-1) before++;
+    return (before+1)/2<deckSize(s)-1;
+  }
+
+  //the empty outcome buffer for the next depth of the search
+  private Outcomes buffer(){
+    if(depth==buffers.length){
+      buffers = java.util.Arrays.copyOf(buffers, depth+1);
+      buffers[depth] = new Outcomes();
+    }
+    Outcomes out = buffers[depth++];
+    out.n = 0;
+    return out;
+  }
+
+  //an empty set of deals with room for the given number, from the top of the stack
+  private Worlds worlds(int capacity){
+    if(used==worlds.length){
+      worlds = java.util.Arrays.copyOf(worlds, used+1);
+      worlds[used] = new Worlds();
+    }
+    Worlds ws = worlds[used++];
+    ws.clear(capacity);
+    return ws;
+  }
+
+  //stores a value in the transposition table, clearing it if it is too full
+  private void store(long key, double v){
+    if(size>CAPACITY*3/4) clear();
+    int slot = find(key);
+    keys[slot] = key;
+    table[slot] = v;
+    size++;
+  }
+
+  //the chance of the player winning after choosing its best action, having drawn card x in each of the deals.
+  //The upper bound is left in high, and is the best of the actions' upper bounds
+  private double decide(Worlds ws, int x){
+    long s0 = ws.s[0];
+    int held = hand(s0, me);
+    Outcomes out = buffer();
+    double best = -1;
+    double bestHigh = -1;
+    for(int c = 0; c<8; c++){
+      if(c!=held && c!=x) continue;
+      if((held==6 || x==6) && (c==4 || c==5)) continue;//the countess must be played over the prince or king
+      if(c==3 || c==6 || c==7){
+        best = Math.max(best, act(ws, c, -1, 0, x, out));
+        bestHigh = Math.max(bestHigh, high);
+      }
+      else{
+        for(int t = 0; t<4; t++){
+          if(!legal(s0, me, c, t)) continue;
+          if(c==0){
+            boolean missed = false;//guesses no deal has all have the same value
+            for(int g = 1; g<8; g++){
+              if(!holds(ws, t, g)){
+                if(missed) continue;
+                missed = true;
+              }
+              best = Math.max(best, act(ws, c, t, g, x, out));
+              bestHigh = Math.max(bestHigh, high);
+            }
+          }
+          else{
+            best = Math.max(best, act(ws, c, t, 0, x, out));
+            bestHigh = Math.max(bestHigh, high);
+          }
+        }
+      }
+    }
+    depth--;
+    high = bestHigh;
+    return best;
+  }
+
+  //whether player t holds card c in any of the deals
+  private static boolean holds(Worlds ws, int t, int c){
+    for(int i = 0; i<ws.n; i++)
+      if(hand(ws.s[i], t)==c) return true;
+    return false;
+  }
+
+  //the chance of the player winning after it plays card c at target t with guess g in each of the deals
+  private double act(Worlds ws, int c, int t, int g, int x, Outcomes out){
+    out.n = 0;
+    for(int i = 0; i<ws.n; i++) play(ws.s[i], me, c, t, g, x, ws.w[i], out);
+    return resolve(out);
+  }
+
+  //adds the outcomes of opponent a's move, having drawn card x, choosing as RandomAgent does
+  private void opponent(long s, int a, int x, double weight, Outcomes out){
+    int held = hand(s, a);
+    boolean countess = held==6 || x==6;
+    double heldShare = share(s, a, held, countess, held!=x);
+    double drawnShare = held==x?0:share(s, a, x, countess, true);
+    double total = heldShare+drawnShare;
+    if(heldShare>0) move(s, a, held, x, weight*heldShare/total, out);
+    if(drawnShare>0) move(s, a, x, x, weight*drawnShare/total, out);
+  }
+
+  //the share of RandomAgent's random targets with which opponent a may play card c, or 0 if it would not play it
+  private double share(long s, int a, int c, boolean countess, boolean other){
+    if(countess && (c==4 || c==5)) return 0;//the countess must be played over the prince or king
+    if(c==7 && other) return 0;//never play princess, the other card is always legal
+    if(c==3 || c==6 || c==7) return 1;
+    return targets(s, a, c)/(double)num;
+  }
+
+  //the number of players opponent a may target with card c
+  private int targets(long s, int a, int c){
+    int n = 0;
+    for(int t = 0; t<4; t++)
+      if(legal(s, a, c, t)) n++;
+    return n;
+  }
+
+  //adds the outcomes of opponent a playing card c, having drawn card x, at a legal target and guess chosen evenly
+  private void move(long s, int a, int c, int x, double w, Outcomes out){
+    if(c==3 || c==6 || c==7){
+      play(s, a, c, -1, 0, x, w, out);
+      return;
+    }
+    int targets = targets(s, a, c);
+    for(int t = 0; t<4; t++){
+      if(!legal(s, a, c, t)) continue;
+      if(c==0){
+        int ht = hand(s, t), miss = ht==1?2:1, first = out.n;
+        double each = w/targets/7;
+        play(s, a, c, t, miss, x, each, out);
+        if(!decides(out.s[first])){//the wrong guesses all leave the same position, and which was guessed no longer matters
+          out.w[first] = ht>0?6*each:7*each;
+          if(ht>0) play(s, a, c, t, ht, x, each, out);
+        }
+        else for(int g = 1; g<8; g++)
+          if(g!=miss) play(s, a, c, t, g, x, each, out);
+      }
+      else play(s, a, c, t, 0, x, w/targets, out);
+    }
+  }
+
+  //whether player a may target t with card c, following the rules of State.legalAction
+  private boolean legal(long s, int a, int c, int t){
+    if(t>=num || hand(s, t)==-1) return false;
+    if(c==4 && t==a) return true;
+    if(t==a) return false;
+    return !handmaid(s, t) || (allHandmaid(s, a) && c!=4);
+  }
+
+  //adds the outcomes after player a plays card c, having drawn card x, with the same effects as State.apply,
+  //with what the solving player sees of each
+  private void play(long s, int a, int c, int t, int g, int x, double weight, Outcomes out){
+    long seen = c | a<<3 | (t+1)<<5 | g<<8;//the action itself
+    if(c==hand(s, a)) s = setHand(s, a, x);
+    s = addSum(s, a, c+1);
+    s&=~(1L<<(MAID+a));
+    switch(c){
+      case 0://guard
+        if(!allHandmaid(s, a) && hand(s, t)==g) s = eliminate(s, t);
+        break;
+      case 1://priest
+        if(a==me && !allHandmaid(s, a)) seen|=(long)(hand(s, t)+1)<<11;
+        break;
+      case 2://baron
+        if(!allHandmaid(s, a)){
+          int ha = hand(s, a), ht = hand(s, t);
+          if(a==me) seen|=(long)(ht+1)<<11;
+          else if(t==me) seen|=(long)(ha+1)<<11;
+          if(ha>ht){
+            seen|=(long)(ht+1)<<15;
+            s = eliminate(s, t);
+          }
+          else if(ha<ht){
+            seen|=(long)(ha+1)<<15;
+            s = eliminate(s, a);
+          }
+        }
+        break;
+      case 3://handmaid
+        s|=1L<<(MAID+a);
+        break;
+      case 4://prince
+        int d = hand(s, t);
+        seen|=(long)(d+1)<<15;
+        if(d==7) s = eliminate(s, t);
+        else{//the target draws a new card, which only the target sees
+          s = addSum(s, t, d+1);
+          int deck = deckSize(s);
+          for(int y = 0; y<8; y++){
+            int n = count(s, y);
+            if(n>0) endTurn(setHand(s-(1L<<OFF[y]), t, y), a, seen, weight*n/deck, out);
+          }
+          return;
+        }
+        break;
+      case 5://king
+        if(!allHandmaid(s, a)){
+          int ha = hand(s, a);
+          s = setHand(s, a, hand(s, t));
+          s = setHand(s, t, ha);
+        }
+        break;
+      case 7://princess
+        s = eliminate(s, a);
+        break;
+      default://the countess has no effect
+    }
+    endTurn(s, a, seen, weight, out);
+  }
+
+  //adds the outcome once player a's turn is over, with who is left in the round and the solving player's hand to what it sees
+  private void endTurn(long s, int a, long seen, double weight, Outcomes out){
+    int alive = 0;
+    for(int p = 0; p<4; p++)
+      if(hand(s, p)!=-1) alive|=1<<p;
+    seen|=(long)alive<<19 | (long)(hand(s, me)+1)<<23;
+    if(!over(s)){
+      int next = (a+1)%4;
+      while(hand(s, next)==-1) next = (next+1)%4;
+      s = s & ~(3L<<NEXT) | (long)next<<NEXT;
+    }
+    out.add(seen, s, weight);
+  }
+
+  //whether the round is over
+  private static boolean over(long s){
+    int alive = 0;
+    for(int p = 0; p<4; p++)
+      if(hand(s, p)!=-1) alive++;
+    return alive==1 || deckSize(s)<2;
+  }
+
+  //the winner of a round that is over, as given by State.roundWinner
+  private static int winner(long s){
+    int winner = -1;
+    int best = -1;
+    for(int p = 0; p<4; p++){
+      if(hand(s, p)==-1) continue;
+      int value = hand(s, p)<<6 | sum(s, p);
+      if(value>best){
+        best = value;
+        winner = p;
+      }
+    }
+    return winner;
+  }
+
+  //finds the slot of the key in the table, or the empty slot where it belongs
+  private int find(long s){
+    long h = s*0x9E3779B97F4A7C15L;
+    int slot = (int)(h>>>48) & (CAPACITY-1);
+    while(keys[slot]!=0 && keys[slot]!=s) slot = (slot+1)&(CAPACITY-1);
+    return slot;
+  }
+
+  private static int hand(long s, int p){return (int)(s>>>(4*p)&15)-1;}
+  private static long setHand(long s, int p, int c){return s & ~(15L<<(4*p)) | (long)(c+1)<<(4*p);}
+  private static long eliminate(long s, int p){return s & ~(15L<<(4*p)) & ~(63L<<(SUM+6*p));}
+  private static int count(long s, int x){return (int)(s>>>OFF[x]&MASK[x]);}
+  private static boolean handmaid(long s, int p){return (s>>>(MAID+p)&1)!=0;}
+  private static int next(long s){return (int)(s>>>NEXT&3);}
+  private static int sum(long s, int p){return (int)(s>>>(SUM+6*p)&63);}
+  private static long addSum(long s, int p, int v){return s+((long)v<<(SUM+6*p));}
+
+  private static int deckSize(long s){
+    int n = 0;
+    for(int x = 0; x<8; x++) n+=count(s, x);
+    return n;
+  }
+
+  private static boolean allHandmaid(long s, int a){
+    for(int p = 0; p<4; p++)
+      if(p!=a && hand(s, p)!=-1 && !handmaid(s, p)) return false;
+    return true;
+  }
+
+  //a set of deals the player cannot tell apart, each with its probability, where equal positions are merged
+  private static final class Worlds{
+    long[] s = new long[16];
+    double[] w = new double[16];
+    long[] sorted = new long[16];//space for sorting
+    double[] weights = new double[16];
+    int[] slots = new int[64];//indices plus one of the positions, by hash
+    int mask;
+    int n;
+    double total;//the probability of all the deals
+    long hash;//a hash of the positions and their proportions, once sorted
+    double value;//the chance of the player winning, once searched
+    double high;//the upper bound on the chance of winning, once searched
+
+    //empties the set, with room for the given number of deals
+    void clear(int capacity){
+      if(s.length<capacity){
+        s = new long[capacity];
+        w = new double[capacity];
+        sorted = new long[capacity];
+        weights = new double[capacity];
+      }
+      mask = Integer.highestOneBit(Math.max(capacity, 1))*4-1;
+      if(slots.length<=mask) slots = new int[mask+1];
+      else java.util.Arrays.fill(slots, 0, mask+1, 0);
+      n = 0;
+    }
+
+    void add(long position, double weight){
+      int slot = slot(position);
+      if(slots[slot]!=0){
+        w[slots[slot]-1]+=weight;
+        return;
+      }
+      s[n] = position;
+      w[n] = weight;
+      slots[slot] = ++n;
+    }
+
+    //the slot of the position, or the empty slot where it belongs
+    int slot(long position){
+      int slot = (int)((position*0x9E3779B97F4A7C15L)>>>40) & mask;
+      while(slots[slot]!=0 && s[slots[slot]-1]!=position) slot = (slot+1)&mask;
+      return slot;
+    }
+
+    //puts the positions in order, so equal sets of deals are stored alike, and finds the hash. No deals may be added after
+    void sort(){
+      total = 0;
+      for(int i = 0; i<n; i++) total+=w[i];
+      System.arraycopy(s, 0, sorted, 0, n);
+      java.util.Arrays.sort(sorted, 0, n);
+      for(int i = 0; i<n; i++) weights[i] = w[slots[slot(sorted[i])]-1];
+      long[] ps = s; s = sorted; sorted = ps;
+      double[] ws = w; w = weights; weights = ws;
+      hash = n;
+      for(int i = 0; i<n; i++) hash = hash*31+s[i]+Math.round(w[i]/total*1e9);
+    }
+
+    //whether the other sorted set has the same positions in the same proportions
+    boolean same(Worlds other){
+      if(n!=other.n) return false;
+      for(int i = 0; i<n; i++)
+        if(s[i]!=other.s[i] || Math.abs(w[i]/total-other.w[i]/other.total)>1e-12) return false;
+      return true;
+    }
+  }
+
+  //the outcomes of a turn, with what the solving player sees of each, in a buffer that grows as needed
+  private static final class Outcomes{
+    long[] seen = new long[64];
+    long[] s = new long[64];
+    double[] w = new double[64];
+    int[] group = new int[64];//the group of each outcome, by what is seen, or -1 if it is in none
+    int[] order = new int[64];//the outcomes in order of their groups
+    int[] start = new int[65];//where each group ends in order, once the outcomes are grouped
+    long[] keys = new long[256];//a hash table from what is seen to the group
+    int[] ids = new int[256];//the group plus one of each key
+    int n;
+
+    void add(long what, long position, double weight){
+      if(n==s.length){
+        seen = java.util.Arrays.copyOf(seen, 2*n);
+        s = java.util.Arrays.copyOf(s, 2*n);
+        w = java.util.Arrays.copyOf(w, 2*n);
+        group = new int[2*n];
+        order = new int[2*n];
+        start = new int[2*n+1];
+      }
+      seen[n] = what;
+      s[n] = position;
+      w[n] = weight;
+      n++;
+    }
+
+    //empties the hash table, with room for n keys, and gives its mask
+    int table(int n){
+      int size = Integer.highestOneBit(Math.max(n, 1))*4;
+      if(ids.length<size){
+        keys = new long[size];
+        ids = new int[size];
+      }
+      else java.util.Arrays.fill(ids, 0, size, 0);
+      return size-1;
+    }
+
+    //the group of what is seen, which is the next group if it has not been seen before
+    int group(long what, int next, int mask){
+      int slot = (int)((what*0x9E3779B97F4A7C15L)>>>40) & mask;
+      while(ids[slot]!=0){
+        if(keys[slot]==what) return ids[slot]-1;
+        slot = (slot+1)&mask;
+      }
+      keys[slot] = what;
+      ids[slot] = next+1;
+      return next;
+    }
+  }
+}
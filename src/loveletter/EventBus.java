@@ -0,0 +1,88 @@
+package loveletter;
+
+/**
+ * A GameListener that passes each event of a game on to any number of subscribed listeners, in the order they subscribed.
+ * A game has only one listener (see LoveLetter.setListener), so statistics, recorders, user interfaces and loggers
+ * may observe the same game by subscribing to a bus set as its listener.
+ * <p>
+ * The subscribers are held in an array that is replaced when a listener subscribes or unsubscribes,
+ * so dispatching an event is a loop over an array, and listeners may subscribe or unsubscribe from any thread,
+ * even while a game is being played. Events are dispatched on the game's thread:
+ * a listener that is slow, or that should not share the game's thread, may be wrapped in an AsyncListener.
+ **/
+public class EventBus implements GameListener{
+
+  private volatile GameListener[] listeners = new GameListener[0];
+
+  /**
+   * Subscribes a listener to the events of the bus.
+   * @param listener the listener
+   * @throws IllegalArgumentException if the listener is null
+   **/
+  public synchronized void subscribe(GameListener listener){
+    if(listener==null) throw new IllegalArgumentException("The listener may not be null");
+    GameListener[] l = java.util.Arrays.copyOf(listeners, listeners.length+1);
+    l[l.length-1] = listener;
+    listeners = l;
+  }
+
+  /**
+   * Unsubscribes a listener from the events of the bus.
+   * @param listener the listener
+   * @return true if the listener was subscribed
+   **/
+  public synchronized boolean unsubscribe(GameListener listener){
+    GameListener[] l = listeners;
+    for(int i = 0; i<l.length; i++){
+      if(l[i]==listener){
+        GameListener[] rest = new GameListener[l.length-1];
+        System.arraycopy(l, 0, rest, 0, i);
+        System.arraycopy(l, i+1, rest, i, l.length-i-1);
+        listeners = rest;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of subscribed listeners
+   **/
+  public int size(){return listeners.length;}
+
+  public void gameStarted(long seed, State state){
+    for(GameListener l: listeners) l.gameStarted(seed, state);
+  }
+
+  public void roundStarted(State state){
+    for(GameListener l: listeners) l.roundStarted(state);
+  }
+
+  public void cardDrawn(int player, Card card, State state){
+    for(GameListener l: listeners) l.cardDrawn(player, card, state);
+  }
+
+  public void illegalAction(int player, Action act, State state){
+    for(GameListener l: listeners) l.illegalAction(player, act, state);
+  }
+
+  public void timedOut(int player, State state){
+    for(GameListener l: listeners) l.timedOut(player, state);
+  }
+
+  public void actionPerformed(Action act, int outcome, State state){
+    for(GameListener l: listeners) l.actionPerformed(act, outcome, state);
+  }
+
+  public void playerEliminated(int player, Action act, State state){
+    for(GameListener l: listeners) l.playerEliminated(player, act, state);
+  }
+
+  public void roundOver(State state){
+    for(GameListener l: listeners) l.roundOver(state);
+  }
+
+  public void gameOver(State state){
+    for(GameListener l: listeners) l.gameOver(state);
+  }
+}
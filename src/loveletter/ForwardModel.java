@@ -0,0 +1,164 @@
+package loveletter;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A forward model of the current round, for agents that want to simulate the game.
+ * The model is built from a player's State, with the cards the player cannot see
+ * (the unknown hands and the order of the deck) filled in at random, a process known as determinization,
+ * or with a given completion, so that every completion can be evaluated (see DeckIndex).
+ * The model has its own copy of the game, so simulating it does not affect the real game.
+ * A round is simulated by drawing a card for the next player, and applying one of their legal actions:
+ * <pre>
+ * ForwardModel model = new ForwardModel(current, c, rand);
+ * model.apply(myAction, c);
+ * while(!model.roundOver()){
+ *   Card drawn = model.draw();
+ *   Action[] acts = model.legalActions();
+ *   model.apply(acts[rand.nextInt(acts.length)], drawn);
+ * }
+ * </pre>
+ **/
+public class ForwardModel{
+
+  private State state;//the simulated game engine state
+  private Card drawn;//the card drawn by the next player and not yet played, or null
+  private int[] ids = new int[State.MAX_LEGAL_ACTIONS];
+
+  /**
+   * Constructs a determinized forward model from a player's view of the game.
+   * @param view the player's State, as given to the agent by newRound or see
+   * @param drawn the card the player has drawn and not yet played (as given to playCard), or null if there is no such card
+   * @param rand the random number generator used to fill in the cards the player cannot see
+   **/
+  public ForwardModel(State view, Card drawn, RandomGenerator rand){
+    Card[] hidden = new Card[16];
+    int n = view.hiddenCards(drawn, hidden);
+    for(int i = n-1; i>0; i--){//shuffle the hidden cards
+      int j = rand.nextInt(i+1);
+      Card c = hidden[i];
+      hidden[i] = hidden[j];
+      hidden[j] = c;
+    }
+    this.state = view.simulation(drawn, hidden, rand);
+    this.drawn = drawn;
+  }
+
+  /**
+   * Constructs a forward model from a player's view of the game, with a given completion of the cards the player cannot see,
+   * for example from DeckIndex.completions(view, drawn).
+   * @param view the player's State, as given to the agent by newRound or see
+   * @param drawn the card the player has drawn and not yet played (as given to playCard), or null if there is no such card
+   * @param hidden the cards for the unknown hands, in order of player index, followed by the remaining deck from the top
+   * @param rand the random number generator for any later deals
+   * @throws IllegalArgumentException if the hidden cards are not a completion of the player's view
+   **/
+  public ForwardModel(State view, Card drawn, Card[] hidden, RandomGenerator rand){
+    Card[] expected = new Card[16];
+    int n = view.hiddenCards(drawn, expected);
+    int[] count = new int[8];
+    for(int i = 0; i<n; i++){
+      count[expected[i].ordinal()]++;
+      if(i>=hidden.length || hidden[i]==null) throw new IllegalArgumentException("Too few hidden cards");
+      count[hidden[i].ordinal()]--;
+    }
+    for(int x = 0; x<8; x++)
+      if(count[x]!=0) throw new IllegalArgumentException("The hidden cards are not a completion of the view");
+    this.state = view.simulation(drawn, hidden, rand);
+    this.drawn = drawn;
+  }
+
+  private ForwardModel(State state, Card drawn){
+    this.state = state;
+    this.drawn = drawn;
+  }
+
+  /**
+   * Creates an independent copy of this model, with the same determinization.
+   * @return the copy of the model
+   **/
+  public ForwardModel copy(){
+    return new ForwardModel(state.copy(), drawn);
+  }
+
+  /**
+   * Gives the simulated state of the game.
+   * This is a game engine state with every card visible, so it should not be given to other agents,
+   * but player states for them may be produced with playerState.
+   * @return the simulated state
+   **/
+  public State state(){return state;}
+
+  /**
+   * @return the card drawn by the next player and not yet played, or null if the next player has not drawn
+   **/
+  public Card drawn(){return drawn;}
+
+  /**
+   * @return the index of the next player to play
+   **/
+  public int nextPlayer(){return state.nextPlayer();}
+
+  /**
+   * @return true if and only if the simulated round is over
+   **/
+  public boolean roundOver(){return state.roundOver();}
+
+  /**
+   * @return the index of the winner of the simulated round, or -1 if the round is not yet over
+   **/
+  public int roundWinner(){return state.roundWinner();}
+
+  /**
+   * Draws a card from the simulated deck for the next player.
+   * If the next player has already drawn a card, that card is returned again.
+   * @return the card drawn
+   * @throws IllegalStateException if the round is over
+   **/
+  public Card draw(){
+    if(state.roundOver()) throw new IllegalStateException("The round is over");
+    if(drawn==null){
+      try{
+        drawn = state.drawCard();
+      }catch(IllegalActionException e){/*unreachable, the simulation is a game engine state*/}
+    }
+    return drawn;
+  }
+
+  /**
+   * Gives every legal action of the next player, with the card they have drawn.
+   * @return the legal actions
+   * @throws IllegalStateException if the next player has not drawn a card
+   **/
+  public Action[] legalActions(){
+    if(drawn==null) throw new IllegalStateException("The next player has not drawn a card");
+    int n = state.legalActions(drawn, ids);
+    Action[] acts = new Action[n];
+    for(int i = 0; i<n; i++) acts[i] = Action.get(ids[i]);
+    return acts;
+  }
+
+  /**
+   * Writes the ids of every legal action of the next player to a buffer, without allocating.
+   * @param ids a buffer with room for State.MAX_LEGAL_ACTIONS ids
+   * @return the number of legal actions
+   * @throws IllegalStateException if the next player has not drawn a card
+   **/
+  public int legalActions(int[] ids){
+    if(drawn==null) throw new IllegalStateException("The next player has not drawn a card");
+    return state.legalActions(drawn, ids);
+  }
+
+  /**
+   * Applies an action of the next player to the simulated game.
+   * @param act the action to perform
+   * @param drawn the card the player drew
+   * @return the outcome of the action, as for State.apply
+   * @throws IllegalActionException if the action is not legal
+   **/
+  public int apply(Action act, Card drawn) throws IllegalActionException{
+    int outcome = state.apply(act, drawn);
+    this.drawn = null;
+    return outcome;
+  }
+}
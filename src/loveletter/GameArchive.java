@@ -0,0 +1,293 @@
+package loveletter;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A read-only archive of game records, for finding and reconstructing positions in a large file written by a GameRecordWriter.
+ * The file is memory-mapped, and an index of the offset of every game, and of every round within it, is built when the archive is opened.
+ * The fields of a game are then read straight from the mapped file, without copying, and any position may be reconstructed
+ * by replaying the game into a State. Replaying the whole archive is shared out between worker threads, as in a Tournament,
+ * with each thread reporting the events of its games to a GameListener of its own.
+ * <p>
+ * Files of any size may be opened, as the file is mapped in segments of at most a gigabyte.
+ * An archive may be read by many threads at once. The mappings are released when the archive is garbage collected.
+ **/
+public class GameArchive implements Closeable{
+
+  private static final int SEGMENT = 1<<30;//the largest mapping
+  private static final int CHUNK = 256;//the number of games a worker claims at a time
+  private static final int HEADER = GameRecordWriter.MAGIC.length+1;
+  private static final Card[] CARDS = Card.values();
+
+  private FileChannel channel;
+  private MappedByteBuffer[] segments;
+  private long[] segmentStart;//the offset in the file of each segment
+  private int games;
+  private long[] offset;//the offset in the file of each game's record
+  private int[] firstRound;//the index in roundOffset of each game's first round, with an extra entry for the end
+  private short[] roundOffset;//the offset in its record of each round
+
+  private GameArchive(FileChannel channel) throws IOException{
+    this.channel = channel;
+    long size = channel.size();
+    List<MappedByteBuffer> maps = new ArrayList<MappedByteBuffer>();
+    List<Long> starts = new ArrayList<Long>();
+    offset = new long[1024];
+    firstRound = new int[1025];
+    roundOffset = new short[8192];
+    int rounds = 0;
+    long start = 0;//the start of the current segment
+    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(SEGMENT, size));
+    maps.add(map);
+    starts.add(start);
+    checkHeader(map);
+    long pos = HEADER;//the start of the next record
+    while(pos<size){
+      int at = (int)(pos-start);
+      if(at+2>map.capacity() || at+2+(map.getShort(at)&0xFFFF)>map.capacity()){//the record continues past the segment
+        if(start+map.capacity()==size) throw new EOFException("The archive ends part way through a record");
+        start = pos;
+        map = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, size-start));
+        maps.add(map);
+        starts.add(start);
+        continue;
+      }
+      int length = map.getShort(at)&0xFFFF;
+      if(games==offset.length){
+        offset = Arrays.copyOf(offset, games*2);
+        firstRound = Arrays.copyOf(firstRound, games*2+1);
+      }
+      offset[games] = pos;
+      firstRound[games] = rounds;
+      int n = map.get(at+11)&0xFF;
+      int r = at+12+(map.get(at+10)&0xFF);//the first round, after the scores
+      for(int i = 0; i<n && r+6<=at+2+length; i++){
+        if(rounds==roundOffset.length) roundOffset = Arrays.copyOf(roundOffset, rounds*2);
+        roundOffset[rounds++] = (short)(r-at);
+        r+=6+(map.get(r+5)&0xFF);
+      }
+      if(r!=at+2+length) throw new IOException("Game "+games+" of the archive is malformed");
+      games++;
+      pos+=2+length;
+    }
+    firstRound[games] = rounds;
+    segments = maps.toArray(new MappedByteBuffer[0]);
+    segmentStart = new long[starts.size()];
+    for(int i = 0; i<segmentStart.length; i++) segmentStart[i] = starts.get(i);
+  }
+
+  private static void checkHeader(ByteBuffer map) throws IOException{
+    if(map.capacity()<HEADER) throw new IOException("The archive has no header");
+    for(int i = 0; i<GameRecordWriter.MAGIC.length; i++)
+      if(map.get(i)!=GameRecordWriter.MAGIC[i]) throw new IOException("The file is not an archive of game records");
+    if(map.get(HEADER-1)!=GameRecordWriter.VERSION) throw new IOException("Unsupported version of game records: "+map.get(HEADER-1));
+  }
+
+  /**
+   * Opens and indexes a file of game records.
+   * @param path the path of the file
+   * @return the archive
+   * @throws IOException if the file could not be read, or is not a well formed file of records
+   **/
+  public static GameArchive open(Path path) throws IOException{
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try{
+      return new GameArchive(channel);
+    }catch(IOException | RuntimeException e){
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the number of games in the archive
+   **/
+  public int size(){return games;}
+
+  //the segment holding a game's record
+  private ByteBuffer segment(int game){
+    int s = Arrays.binarySearch(segmentStart, offset[game]);
+    return segments[s>=0?s:-s-2];
+  }
+
+  //the position of a game's record in its segment
+  private int position(int game){
+    int s = Arrays.binarySearch(segmentStart, offset[game]);
+    return (int)(offset[game]-segmentStart[s>=0?s:-s-2]);
+  }
+
+  /**
+   * @param game the index of the game
+   * @return the seed of the game
+   **/
+  public long seed(int game){return segment(game).getLong(position(game)+2);}
+
+  /**
+   * @param game the index of the game
+   * @return the number of players in the game
+   **/
+  public int numPlayers(int game){return segment(game).get(position(game)+10)&0xFF;}
+
+  /**
+   * @param game the index of the game
+   * @return the number of rounds in the game
+   **/
+  public int rounds(int game){return firstRound[game+1]-firstRound[game];}
+
+  /**
+   * @param game the index of the game
+   * @param player the index of the player
+   * @return the player's score at the end of the game
+   **/
+  public int score(int game, int player){return segment(game).get(position(game)+12+player)&0xFF;}
+
+  /**
+   * @param game the index of the game
+   * @param round the index of the round
+   * @return the number of actions played in the round
+   **/
+  public int moves(int game, int round){return segment(game).get(round(game, round)+5)&0xFF;}
+
+  /**
+   * Gives the card played by an action, without replaying the game.
+   * @param game the index of the game
+   * @param round the index of the round
+   * @param move the index of the action in the round
+   * @return the card played
+   **/
+  public Card card(int game, int round, int move){
+    if(move<0 || move>=moves(game, round)) throw new IndexOutOfBoundsException("No such move in the round");
+    return CARDS[(segment(game).get(round(game, round)+6+move)>>>5)&7];
+  }
+
+  /**
+   * Gives the order of the deck in a round.
+   * @param game the index of the game
+   * @param round the index of the round
+   * @param deck an array of 16 cards to hold the deck, including the cards first dealt to the players
+   **/
+  public void deck(int game, int round, Card[] deck){
+    ByteBuffer buf = segment(game);
+    int at = round(game, round);
+    DeckIndex.FULL.unrank((buf.get(at)&0xFFL)<<32 | (buf.getInt(at+1)&0xFFFFFFFFL), deck);
+  }
+
+  //the position of a round's header in its game's segment
+  private int round(int game, int round){
+    if(round<0 || round>=rounds(game)) throw new IndexOutOfBoundsException("No such round in the game");
+    return position(game)+roundOffset[firstRound[game]+round];
+  }
+
+  /**
+   * Reads a game's record.
+   * @param game the index of the game
+   * @return the record of the game
+   **/
+  public GameRecord record(int game){
+    int length = segment(game).getShort(position(game))&0xFFFF;
+    return new GameRecord(segment(game).slice(position(game)+2, length));
+  }
+
+  /**
+   * Reconstructs a position of a game, by replaying the game.
+   * @param game the index of the game
+   * @param round the index of the round
+   * @param moves the number of actions of the round to play
+   * @return the engine's state after that many actions of the round
+   * @throws IllegalArgumentException if the position is not in the game
+   **/
+  public State position(int game, int round, int moves){
+    return record(game).position(round, moves);
+  }
+
+  /**
+   * Replays every game of the archive, shared out between worker threads.
+   * Each worker reports the events of the games it replays to a listener of its own,
+   * so the listeners need not be thread safe, and their findings may be combined when the replay is complete.
+   * @param listeners a supplier of a new listener for each worker
+   * @param threads the number of worker threads
+   * @return the listeners of the workers
+   * @throws InterruptedException if the calling thread is interrupted while waiting for the workers
+   **/
+  public <L extends GameListener> List<L> replay(Supplier<L> listeners, int threads) throws InterruptedException{
+    AtomicLong next = new AtomicLong();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<L>> futures = new ArrayList<Future<L>>();
+    try{
+      for(int w = 0; w<threads; w++)
+        futures.add(pool.submit(() -> {
+          L listener = listeners.get();
+          long start;
+          while((start = next.getAndAdd(CHUNK))<games){
+            int end = (int)Math.min(games, start+CHUNK);
+            for(int g = (int)start; g<end; g++) record(g).replay(listener);
+          }
+          return listener;
+        }));
+      List<L> result = new ArrayList<L>();
+      for(Future<L> f: futures) result.add(f.get());
+      return result;
+    }catch(ExecutionException e){
+      throw new IllegalStateException("An archive worker failed", e.getCause());
+    }finally{
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Closes the file. The mappings remain readable until the archive is garbage collected.
+   * @throws IOException if the file could not be closed
+   **/
+  public void close() throws IOException{
+    channel.close();
+  }
+
+  //counts the plays of a card with a given number of cards left in the deck
+  private static class Counter implements GameListener{
+    private Card card;
+    private int left;
+    private long count;
+
+    private Counter(Card card, int left){
+      this.card = card;
+      this.left = left;
+    }
+
+    public void actionPerformed(Action act, int outcome, State state){
+      if(act.card()==card && state.deckSize()==left) count++;
+    }
+  }
+
+  /**
+   * Counts the positions of an archive where a card was played with a given number of cards left in the deck.
+   * @param args the file of records, and optionally the card (default BARON) and the number of cards left (default 4)
+   **/
+  public static void main(String[] args) throws IOException, InterruptedException{
+    Card card = args.length>1?Card.valueOf(args[1].toUpperCase()):Card.BARON;
+    int left = args.length>2?Integer.parseInt(args[2]):4;
+    try(GameArchive archive = open(Paths.get(args[0]))){
+      long start = System.nanoTime();
+      long total = 0;
+      for(Counter c: archive.replay(() -> new Counter(card, left), Runtime.getRuntime().availableProcessors())) total+=c.count;
+      double secs = (System.nanoTime()-start)/1e9;
+      System.out.println(String.format("%d plays of the %s with %d cards left, in %d games (%.2fs)", total, card, left, archive.size(), secs));
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package loveletter;
+
+/**
+ * An interface for observing the events of a game of LoveLetter as it is played.
+ * Every method has an empty default, so a listener need only implement the events it is interested in.
+ * The State passed to each method is the game engine's state, which must not be modified by the listener.
+ **/
+public interface GameListener{
+
+  /**
+   * Method called at the start of the game, before the first round is started.
+   * @param seed the seed of the game
+   * @param state the state of the game
+   **/
+  default void gameStarted(long seed, State state){}
+
+  /**
+   * Method called at the start of each round, after the cards have been dealt.
+   * @param state the state of the game
+   **/
+  default void roundStarted(State state){}
+
+  /**
+   * Method called when a player draws a card, before they choose their action.
+   * @param player the index of the player drawing the card
+   * @param card the card drawn
+   * @param state the state of the game
+   **/
+  default void cardDrawn(int player, Card card, State state){}
+
+  /**
+   * Method called when a player's action is illegal, before a random action is substituted.
+   * @param player the index of the player
+   * @param act the illegal action
+   * @param state the state of the game
+   **/
+  default void illegalAction(int player, Action act, State state){}
+
+  /**
+   * Method called when a player runs out of time to choose an action, before a random action is substituted.
+   * This only happens when the game has a Watchdog.
+   * @param player the index of the player
+   * @param state the state of the game
+   **/
+  default void timedOut(int player, State state){}
+
+  /**
+   * Method called after an action has been applied to the game.
+   * @param act the action performed
+   * @param outcome the outcome of the action, as returned by State.apply
+   * @param state the state of the game
+   **/
+  default void actionPerformed(Action act, int outcome, State state){}
+
+  /**
+   * Method called after actionPerformed, when the action has eliminated a player from the round.
+   * @param player the index of the eliminated player, who may be the player who performed the action
+   * @param act the action that eliminated the player
+   * @param state the state of the game
+   **/
+  default void playerEliminated(int player, Action act, State state){}
+
+  /**
+   * Method called at the end of each round, before the next round is dealt.
+   * The winner of the round is given by state.roundWinner(), and has already been awarded the round.
+   * @param state the state of the game
+   **/
+  default void roundOver(State state){}
+
+  /**
+   * Method called when the game is over.
+   * The winner of the game is given by state.gameWinner().
+   * @param state the state of the game
+   **/
+  default void gameOver(State state){}
+}
@@ -0,0 +1,207 @@
+package loveletter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A compact binary record of a game of LoveLetter, from which any position of the game can be reconstructed.
+ * A record holds the game's seed, the final scores, the order of the deck in each round, and one byte for each action played.
+ * <p>
+ * In a file, a record is laid out as follows (big-endian):
+ * <ul>
+ * <li>u16: the length of the rest of the record, in bytes</li>
+ * <li>i64: the seed of the game</li>
+ * <li>u8: the number of players, p</li>
+ * <li>u8: the number of rounds, r</li>
+ * <li>p bytes: the final score of each player</li>
+ * <li>for each of the r rounds: 5 bytes holding the index of the deck's order (see DeckIndex.FULL),
+ * a u8 holding the number of actions, and one byte for each action.</li>
+ * </ul>
+ * An action's byte holds the card played (3 bits), the target (2 bits) and the card guessed (3 bits).
+ * The actor is not stored, as it is always the player whose turn it is, so actions are only decoded by replaying the game.
+ * Records are written by a GameRecorder, through a GameRecordWriter, and read back with a GameRecordReader.
+ **/
+public class GameRecord{
+
+  private static final Card[] CARDS = Card.values();
+
+  private long seed;
+  private int[] scores;
+  private Card[][] decks;
+  private byte[][] actions;
+
+  /**
+   * Reads a record from a buffer, from just after its length.
+   * @param buf the buffer, holding the whole of the record
+   * @throws IllegalArgumentException if the record is malformed
+   **/
+  GameRecord(ByteBuffer buf){
+    try{
+      seed = buf.getLong();
+      int num = buf.get()&0xFF;
+      int rounds = buf.get()&0xFF;
+      if(num<2 || num>4 || rounds==0) throw new IllegalArgumentException("A record must have 2, 3 or 4 players, and at least one round");
+      scores = new int[num];
+      for(int p = 0; p<num; p++) scores[p] = buf.get()&0xFF;
+      decks = new Card[rounds][];
+      actions = new byte[rounds][];
+      for(int r = 0; r<rounds; r++){
+        long rank = (buf.get()&0xFFL)<<32 | (buf.getInt()&0xFFFFFFFFL);
+        decks[r] = DeckIndex.FULL.unrank(rank);
+        actions[r] = new byte[buf.get()&0xFF];
+        buf.get(actions[r]);
+      }
+    }catch(java.nio.BufferUnderflowException e){
+      throw new IllegalArgumentException("The record is shorter than its contents");
+    }
+    if(buf.hasRemaining()) throw new IllegalArgumentException("The record is longer than its contents");
+  }
+
+  /**
+   * Gives the byte that encodes an action.
+   * @param act the action
+   * @return the code of the action, between 0 and 255
+   **/
+  static int encode(Action act){
+    Card guess = act.guess();
+    return act.card().ordinal()<<5 | Math.max(act.target(), 0)<<3 | (guess==null?0:guess.ordinal());
+  }
+
+  /**
+   * Gives the action encoded by a byte.
+   * @param code the code of the action
+   * @param player the player performing the action
+   * @return the action
+   * @throws IllegalArgumentException if the code is not a valid action for the player
+   **/
+  static Action decode(int code, int player){
+    Card card = CARDS[(code>>>5)&7];
+    int target = -1;
+    Card guess = null;
+    switch(card){
+      case GUARD:
+        target = (code>>>3)&3;
+        guess = CARDS[code&7];
+        break;
+      case PRIEST: case BARON: case PRINCE: case KING:
+        target = (code>>>3)&3;
+        break;
+      default:
+    }
+    Action act = Action.get(card, player, target, guess);
+    if(act==null) throw new IllegalArgumentException("The code "+code+" is not an action of player "+player);
+    return act;
+  }
+
+  /**
+   * @return the seed of the game
+   **/
+  public long seed(){return seed;}
+
+  /**
+   * @return the number of players in the game
+   **/
+  public int numPlayers(){return scores.length;}
+
+  /**
+   * @return the number of rounds played
+   **/
+  public int rounds(){return decks.length;}
+
+  /**
+   * @param player the index of the player
+   * @return the player's score at the end of the game
+   **/
+  public int score(int player){return scores[player];}
+
+  /**
+   * @param round the index of the round
+   * @return the order of the deck in the round, including the cards first dealt to the players
+   **/
+  public Card[] deck(int round){return decks[round].clone();}
+
+  /**
+   * @param round the index of the round
+   * @return the number of actions played in the round
+   **/
+  public int moves(int round){return actions[round].length;}
+
+  /**
+   * @param round the index of the round
+   * @param move the index of the action in the round
+   * @return the code of the action
+   **/
+  int action(int round, int move){return actions[round][move]&0xFF;}
+
+  /**
+   * @return a dealer of the game's decks, which deals the last deck again after the last round
+   **/
+  Dealer dealer(){
+    return new Dealer(){
+      private int next;
+      public Card[] deal(){return decks[Math.min(next++, decks.length-1)];}
+    };
+  }
+
+  /**
+   * Replays the game, reporting its events to a listener as LoveLetter would
+   * (except for illegal actions and timeouts, which are not recorded).
+   * A Narrator, for example, reproduces the game's description.
+   * @param listener the listener to report the events to
+   * @return the engine's state at the end of the game
+   * @throws IllegalArgumentException if the record is not a legal game
+   **/
+  public State replay(GameListener listener){
+    return replay(listener, decks.length, 0);
+  }
+
+  /**
+   * Reconstructs a position of the game.
+   * @param round the index of the round
+   * @param moves the number of actions of the round to play
+   * @return the engine's state after that many actions of the round, from which player states may be made with playerState
+   * @throws IllegalArgumentException if the position is not in the game, or the record is not a legal game
+   **/
+  public State position(int round, int moves){
+    if(round<0 || round>=decks.length || moves<0 || moves>actions[round].length)
+      throw new IllegalArgumentException("No such position in the game");
+    return replay(null, round, moves);
+  }
+
+  //plays the rounds before the given round, and the given number of moves of that round
+  private State replay(GameListener listener, int round, int moves){
+    Agent[] agents = new Agent[scores.length];
+    for(int p = 0; p<agents.length; p++) agents[p] = new Agent(){
+        public String toString(){return "Player";}
+        public void newRound(State start){}
+        public void see(Action act, State results){}
+        public Action playCard(Card c){return null;}
+      };
+    State state = new State(dealer(), agents);//the deck after the last round is dealt, but never played
+    try{
+      if(listener!=null) listener.gameStarted(seed, state);
+      for(int r = 0; r<=round && r<decks.length; r++){
+        if(listener!=null) listener.roundStarted(state);
+        int n = r<round?actions[r].length:moves;
+        for(int m = 0; m<n; m++){
+          Card drawn = state.drawCard();
+          int player = state.nextPlayer();
+          if(listener!=null) listener.cardDrawn(player, drawn, state);
+          Action act = decode(actions[r][m], player);
+          int outcome = state.apply(act, drawn);
+          if(listener!=null){
+            listener.actionPerformed(act, outcome, state);
+            if(outcome>=0) listener.playerEliminated(outcome, act, state);
+          }
+        }
+        if(r==round) break;
+        if(!state.roundOver()) throw new IllegalArgumentException("Round "+r+" of the record is incomplete");
+        if(listener!=null) listener.roundOver(state);
+        state.newRound();
+      }
+      if(listener!=null) listener.gameOver(state);
+    }catch(IllegalActionException e){
+      throw new IllegalArgumentException("The record is not a legal game", e);
+    }
+    return state;
+  }
+}
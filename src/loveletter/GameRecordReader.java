@@ -0,0 +1,89 @@
+package loveletter;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads game records from a channel, such as a file written by a GameRecordWriter.
+ * The channel is read in large blocks into a direct buffer.
+ **/
+public class GameRecordReader implements Closeable{
+
+  private ReadableByteChannel channel;
+  private ByteBuffer buf = ByteBuffer.allocateDirect(1<<16);
+
+  /**
+   * Constructs a reader, and reads the header of the stream.
+   * @param channel the channel to read from, which is closed when the reader is closed
+   * @throws IOException if the channel could not be read, or does not start with the header of a stream of records
+   **/
+  public GameRecordReader(ReadableByteChannel channel) throws IOException{
+    this.channel = channel;
+    buf.limit(0);
+    if(!fill(GameRecordWriter.MAGIC.length+1)) throw new IOException("The stream has no header");
+    for(byte b: GameRecordWriter.MAGIC)
+      if(buf.get()!=b) throw new IOException("The stream is not a stream of game records");
+    byte version = buf.get();
+    if(version!=GameRecordWriter.VERSION) throw new IOException("Unsupported version of game records: "+version);
+  }
+
+  /**
+   * Opens a file of records.
+   * @param path the path of the file
+   * @return a reader of the file
+   * @throws IOException if the file could not be opened or is not a file of records
+   **/
+  public static GameRecordReader open(Path path) throws IOException{
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try{
+      return new GameRecordReader(channel);
+    }catch(IOException e){
+      channel.close();
+      throw e;
+    }
+  }
+
+  //reads from the channel until the buffer holds the given number of bytes, returning false if the stream ends first
+  private boolean fill(int bytes) throws IOException{
+    if(buf.remaining()>=bytes) return true;
+    buf.compact();
+    while(buf.position()<bytes)
+      if(channel.read(buf)<0) break;
+    buf.flip();
+    return buf.remaining()>=bytes;
+  }
+
+  /**
+   * Reads the next record.
+   * @return the record, or null if there are no more records
+   * @throws IOException if the channel could not be read, or the stream ends part way through a record
+   * @throws IllegalArgumentException if the record is malformed
+   **/
+  public GameRecord next() throws IOException{
+    if(!fill(2)){
+      if(buf.hasRemaining()) throw new EOFException("The stream ends part way through a record");
+      return null;
+    }
+    int length = buf.getShort(buf.position())&0xFFFF;
+    if(!fill(2+length)) throw new EOFException("The stream ends part way through a record");
+    buf.position(buf.position()+2);
+    int end = buf.position()+length;
+    ByteBuffer record = buf.slice(buf.position(), length);
+    buf.position(end);
+    return new GameRecord(record);
+  }
+
+  /**
+   * Closes the channel.
+   * @throws IOException if the channel could not be closed
+   **/
+  public void close() throws IOException{
+    channel.close();
+  }
+}
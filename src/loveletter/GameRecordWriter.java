@@ -0,0 +1,85 @@
+package loveletter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes game records to a channel, such as a file, in the format described by GameRecord.
+ * A stream of records starts with a header of the four bytes "LLGR" and a version byte.
+ * Records are gathered in a direct buffer and written to the channel in large blocks,
+ * so a writer may be shared by all the threads of a tournament, each with its own GameRecorder.
+ * The writer must be closed to write the last block.
+ **/
+public class GameRecordWriter implements Closeable{
+
+  /**The bytes that start a stream of records**/
+  static final byte[] MAGIC = {'L', 'L', 'G', 'R'};
+  /**The version of the format**/
+  static final byte VERSION = 1;
+
+  private WritableByteChannel channel;
+  private ByteBuffer buf = ByteBuffer.allocateDirect(1<<16);
+  private long records;
+
+  /**
+   * Constructs a writer. The header of the stream is written with the first block of records.
+   * @param channel the channel to write to, which is closed when the writer is closed
+   **/
+  public GameRecordWriter(WritableByteChannel channel){
+    this.channel = channel;
+    buf.put(MAGIC).put(VERSION);
+  }
+
+  /**
+   * Creates a file of records, replacing any existing file.
+   * @param path the path of the file
+   * @return a writer to the file
+   * @throws IOException if the file could not be created
+   **/
+  public static GameRecordWriter create(Path path) throws IOException{
+    return new GameRecordWriter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+  }
+
+  /**
+   * Writes a record.
+   * @param record a buffer holding a whole record, from its position to its limit. The buffer's position is moved to its limit.
+   * @throws IOException if the buffer could not be written to the channel
+   **/
+  public synchronized void write(ByteBuffer record) throws IOException{
+    if(buf.remaining()<record.remaining()) flush();
+    buf.put(record);
+    records++;
+  }
+
+  /**
+   * Writes all the buffered records to the channel.
+   * @throws IOException if the channel could not be written
+   **/
+  public synchronized void flush() throws IOException{
+    buf.flip();
+    while(buf.hasRemaining()) channel.write(buf);
+    buf.clear();
+  }
+
+  /**
+   * @return the number of records written
+   **/
+  public synchronized long records(){return records;}
+
+  /**
+   * Writes all the buffered records, and closes the channel.
+   * @throws IOException if the channel could not be written or closed
+   **/
+  public synchronized void close() throws IOException{
+    try{
+      flush();
+    }finally{
+      channel.close();
+    }
+  }
+}
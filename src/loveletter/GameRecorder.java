@@ -0,0 +1,71 @@
+package loveletter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A GameListener that records each game it observes as a GameRecord, and writes it to a GameRecordWriter when the game is over.
+ * A recorder holds the record of one game at a time, so each thread playing games should have its own,
+ * though they may share a writer. Recording a game allocates nothing.
+ **/
+public class GameRecorder implements GameListener{
+
+  private static final int MAX_RECORD = 2+8+2+4+14*(5+1+16);//the largest record, with every round of a game
+
+  private GameRecordWriter writer;
+  private ByteBuffer buf = ByteBuffer.allocate(MAX_RECORD);
+  private int rounds;
+  private int moves;//the position of the current round's number of actions
+  private int[] scratch = new int[8];//for ranking the deck
+
+  /**
+   * Constructs a recorder.
+   * @param writer the writer to write each finished game to
+   **/
+  public GameRecorder(GameRecordWriter writer){
+    this.writer = writer;
+  }
+
+  public void gameStarted(long seed, State state){
+    int num = state.numPlayers();
+    buf.clear();
+    buf.putShort((short)0);//the length, written when the game is over
+    buf.putLong(seed);
+    buf.put((byte)num);
+    buf.put((byte)0);//the number of rounds, written when the game is over
+    buf.position(buf.position()+num);//the scores, written when the game is over
+    rounds = 0;
+  }
+
+  public void roundStarted(State state){
+    long rank = DeckIndex.FULL.rank(state.deck(), scratch);
+    buf.put((byte)(rank>>>32));
+    buf.putInt((int)rank);
+    moves = buf.position();
+    buf.put((byte)0);
+    rounds++;
+  }
+
+  public void actionPerformed(Action act, int outcome, State state){
+    buf.put((byte)GameRecord.encode(act));
+    buf.put(moves, (byte)(buf.get(moves)+1));
+  }
+
+  /**
+   * Completes the record of the game and writes it.
+   * @throws UncheckedIOException if the record could not be written
+   **/
+  public void gameOver(State state){
+    int num = state.numPlayers();
+    buf.putShort(0, (short)(buf.position()-2));
+    buf.put(11, (byte)rounds);
+    for(int p = 0; p<num; p++) buf.put(12+p, (byte)state.score(p));
+    buf.flip();
+    try{
+      writer.write(buf);
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package loveletter;
+
+/**
+ * A histogram of latencies in nanoseconds, with buckets of logarithmic width in the style of HdrHistogram.
+ * Values below 32 have a bucket each, and larger values are grouped into 16 buckets per power of two,
+ * so a percentile is reported to within about 6% of the recorded value, from 1ns up to the largest long.
+ * Recording is constant time and allocates nothing. A histogram is not thread safe,
+ * so each thread should record into its own, and histograms may then be added together.
+ **/
+public class LatencyHistogram{
+
+  private static final int SUB = 16;//buckets per power of two
+  private static final int BUCKETS = 32+(63-5)*SUB;
+
+  private long[] counts = new long[BUCKETS];
+  private long count;
+  private long total;
+  private long max;
+
+  /**
+   * Records a latency.
+   * @param nanos the latency in nanoseconds (negative values are recorded as 0)
+   **/
+  public void record(long nanos){
+    if(nanos<0) nanos = 0;
+    counts[bucket(nanos)]++;
+    count++;
+    total+=nanos;
+    if(nanos>max) max = nanos;
+  }
+
+  //the bucket of a value
+  private static int bucket(long v){
+    if(v<32) return (int)v;
+    int e = 63-Long.numberOfLeadingZeros(v);//at least 5
+    return 32+(e-5)*SUB+(int)((v>>>(e-4))&(SUB-1));
+  }
+
+  //the smallest value in a bucket
+  private static long lowest(int b){
+    if(b<32) return b;
+    int e = (b-32)/SUB+5;
+    return (long)(SUB+(b-32)%SUB)<<(e-4);
+  }
+
+  /**
+   * Adds the latencies recorded by another histogram to this histogram.
+   * @param other the other histogram
+   **/
+  public void add(LatencyHistogram other){
+    for(int b = 0; b<BUCKETS; b++) counts[b]+=other.counts[b];
+    count+=other.count;
+    total+=other.total;
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Clears the histogram.
+   **/
+  public void reset(){
+    java.util.Arrays.fill(counts, 0);
+    count = 0;
+    total = 0;
+    max = 0;
+  }
+
+  /**
+   * @return the number of latencies recorded
+   **/
+  public long count(){return count;}
+
+  /**
+   * @return the largest latency recorded, in nanoseconds
+   **/
+  public long max(){return max;}
+
+  /**
+   * @return the mean latency, in nanoseconds, or 0 if none were recorded
+   **/
+  public double mean(){return count==0?0:total/(double)count;}
+
+  /**
+   * Gives a percentile of the recorded latencies.
+   * @param percent the percentile, between 0 and 100
+   * @return the smallest value of the bucket holding the percentile, in nanoseconds, or 0 if none were recorded
+   **/
+  public long percentile(double percent){
+    if(count==0) return 0;
+    long rank = Math.max(1, (long)Math.ceil(percent/100*count));
+    long seen = 0;
+    for(int b = 0; b<BUCKETS; b++){
+      seen+=counts[b];
+      if(seen>=rank) return Math.min(lowest(b), max);
+    }
+    return max;
+  }
+}
@@ -0,0 +1,425 @@
+package loveletter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A league between a pool of agents, played at tables of two, three or four players, in which the agents are rated as the results come in.
+ * The tables are formed either by round robin, where every combination of agents takes its turn, or by Swiss pairing,
+ * where each round seats every pair of agents that are next to each other in the ranking, and whose matchup is not yet decided,
+ * at a table with the agents ranked nearest to them. The seats of each table are rotated from one game to the next.
+ * <p>
+ * Games are shared out between a fixed pool of worker threads, each with its own AgentPool, and each game is scored as soon as it is finished.
+ * Every pair of agents at a table is scored as a match, won by the agent with more tokens, and drawn if they have the same,
+ * and the agents' Elo ratings are updated from these matches. The head to head score of each pair of agents is kept,
+ * with a confidence interval of three standard errors over the games they have shared. This is wider than the 95% interval of a DuplicateTournament,
+ * as the intervals are checked after every game, and agents of equal strength would soon be separated by chance with narrower intervals.
+ * Once two agents have shared enough games and their interval excludes an even score, their matchup is decided:
+ * round robin skips the tables at which every matchup is decided, and the league stops early once every agent
+ * is decided against the agent ranked next to it, so no more time is spent on the order of the league.
+ * <p>
+ * Each game uses the seed Tournament.gameSeed(seed, game), where game is its index in the league,
+ * but as the tables depend on the results so far, the schedule of a league played on many threads may vary from run to run.
+ **/
+public class League{
+
+  /**How the agents are seated at the tables of a league**/
+  public enum Pairing{
+    /**Every combination of agents plays in turn**/
+    ROUND_ROBIN,
+    /**Each round seats the undecided neighbours in the ranking together, with the agents ranked nearest them**/
+    SWISS
+  }
+
+  private static final double Z = 3;//the normal quantile of the confidence intervals, wider than 95% as the intervals are checked after every game
+  private static final double INITIAL_RATING = 1500;
+  private static final double K = 16;//the largest change in rating from one game
+
+  private AgentFactory[] factories;//the factory of each agent
+  private int tableSize;
+  private Pairing pairing;
+  private long seed;
+  private int threads;
+  private long minGames = 100;
+
+  //the schedule, guarded by the league
+  private Standings standings;
+  private int[][] combinations;//the tables of a round robin
+  private long next;//the index of the next game
+  private long tables;//the number of tables handed out
+  private int playing;//the number of games being played
+  private ArrayDeque<int[]> round = new ArrayDeque<int[]>();//the remaining tables of the current Swiss round
+
+  /**
+   * Constructs a league between the given agents.
+   * Each agent class must implement Agent and have a zero parameter constructor.
+   * @param agentClasses the classes of the agents in the pool, at least as many as the size of a table
+   * @param tableSize the number of players at each table (2,3 or 4)
+   * @param pairing how the agents are seated at the tables
+   * @param seed the seed from which every game's seed is derived
+   * @param threads the number of worker threads to play games on
+   * @throws IllegalArgumentException if the table size is not 2,3 or 4, there are too few agents,
+   * an agent class is not an Agent or has no zero parameter constructor, or threads is not positive.
+   **/
+  public League(Class<?>[] agentClasses, int tableSize, Pairing pairing, long seed, int threads){
+    this(AgentFactory.of(agentClasses), tableSize, pairing, seed, threads);
+  }
+
+  /**
+   * Constructs a league between agents created by the given factories.
+   * Each worker takes its agents from an AgentPool, so agents that can be reset are reused from game to game.
+   * @param factories the factories of the agents in the pool, at least as many as the size of a table
+   * @param tableSize the number of players at each table (2,3 or 4)
+   * @param pairing how the agents are seated at the tables
+   * @param seed the seed from which every game's seed is derived
+   * @param threads the number of worker threads to play games on
+   * @throws IllegalArgumentException if the table size is not 2,3 or 4, there are too few agents, or threads is not positive.
+   **/
+  public League(AgentFactory[] factories, int tableSize, Pairing pairing, long seed, int threads){
+    if(tableSize<2 || tableSize>4) throw new IllegalArgumentException("A table must have 2, 3 or 4 players");
+    if(factories.length<tableSize) throw new IllegalArgumentException("There are too few agents to fill a table");
+    if(threads<1) throw new IllegalArgumentException("At least one thread is required");
+    this.factories = factories.clone();
+    this.tableSize = tableSize;
+    this.pairing = pairing;
+    this.seed = seed;
+    this.threads = threads;
+    List<int[]> list = new ArrayList<int[]>();
+    combine(new int[tableSize], 0, 0, list);
+    combinations = list.toArray(new int[list.size()][]);
+  }
+
+  /**
+   * Constructs a league between the given agents, using one worker thread per available processor.
+   * @param agentClasses the classes of the agents in the pool, at least as many as the size of a table
+   * @param tableSize the number of players at each table (2,3 or 4)
+   * @param pairing how the agents are seated at the tables
+   * @param seed the seed from which every game's seed is derived
+   **/
+  public League(Class<?>[] agentClasses, int tableSize, Pairing pairing, long seed){
+    this(agentClasses, tableSize, pairing, seed, Runtime.getRuntime().availableProcessors());
+  }
+
+  //lists every combination of agents for a table, in increasing order
+  private void combine(int[] table, int seat, int from, List<int[]> list){
+    if(seat==table.length){
+      list.add(table.clone());
+      return;
+    }
+    for(int a = from; a<factories.length; a++){
+      table[seat] = a;
+      combine(table, seat+1, a+1, list);
+    }
+  }
+
+  /**
+   * Sets the fewest games two agents must share before their matchup may be decided, 100 by default.
+   * @param minGames the fewest games
+   **/
+  public void setMinGames(long minGames){
+    this.minGames = minGames;
+  }
+
+  /**
+   * Plays the league, spread across the worker threads, until every agent is decided against its neighbours in the ranking,
+   * or the given number of games has been played.
+   * @param maxGames the most games to play
+   * @return the standings of the league
+   * @throws InterruptedException if the calling thread is interrupted while waiting for the workers
+   **/
+  public Standings play(long maxGames) throws InterruptedException{
+    synchronized(this){
+      standings = new Standings(factories.length, minGames);
+      next = 0;
+      tables = 0;
+      playing = 0;
+      round.clear();
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    try{
+      for(int w = 0; w<threads; w++)
+        futures.add(pool.submit(() -> {
+          AgentPool agents = new AgentPool(factories);
+          try{
+            while(true){
+              long game;
+              int[] seating;
+              synchronized(this){
+                seating = null;
+                while(next<maxGames){
+                  synchronized(standings){//the same standings decide whether the league is over and form the next table
+                    if(!standings.separated()) seating = nextTable();
+                  }
+                  if(seating!=null || playing==0) break;
+                  wait();//the games still being played may leave the league undecided
+                }
+                if(seating==null) break;
+                game = next++;
+                playing++;
+              }
+              try{
+                standings.record(seating, playGame(game, seating, agents));
+              }finally{
+                synchronized(this){
+                  playing--;
+                  notifyAll();
+                }
+              }
+            }
+          }finally{
+            agents.close();
+          }
+          return null;
+        }));
+      for(Future<?> f: futures) f.get();
+      return standings;
+    }catch(ExecutionException e){
+      throw new IllegalStateException("A league worker failed", e.getCause());
+    }finally{
+      pool.shutdownNow();
+    }
+  }
+
+  //gives the agent in each seat of the next table, or null if every table is decided. Called with the standings locked, so a table is found unless the league is separated
+  private int[] nextTable(){
+    int[] table = null;
+    if(pairing==Pairing.ROUND_ROBIN){
+      for(int i = 0; i<combinations.length && table==null; i++){
+        int[] t = combinations[(int)(tables%combinations.length)];
+        if(!standings.decided(t)) table = t;
+        else tables++;
+      }
+    }
+    else{
+      if(round.isEmpty()) formRound();
+      table = round.poll();
+    }
+    if(table==null) return null;
+    int rotation = (int)(tables++/(pairing==Pairing.ROUND_ROBIN?combinations.length:1)%tableSize);
+    int[] seating = new int[tableSize];
+    for(int s = 0; s<tableSize; s++) seating[s] = table[(s+rotation)%tableSize];
+    return seating;
+  }
+
+  //forms the tables of a Swiss round: a table for each undecided pair of neighbours in the ranking, filled with the agents ranked nearest to them
+  private void formRound(){
+    int[] ranking = standings.ranking();
+    int n = ranking.length;
+    for(int i = 0; i+1<n; i++){
+      if(standings.decided(ranking[i], ranking[i+1])) continue;
+      int[] table = new int[tableSize];
+      table[0] = ranking[i];
+      table[1] = ranking[i+1];
+      for(int seat = 2, d = 1; seat<tableSize; d++){//alternately below and above the pair
+        if(i+1+d<n) table[seat++] = ranking[i+1+d];
+        if(seat<tableSize && i-d>=0) table[seat++] = ranking[i-d];
+      }
+      round.add(table);
+    }
+  }
+
+  //plays a game with agents from the worker's pool, and gives the score in each seat, or null if the engine failed
+  private int[] playGame(long game, int[] seating, AgentPool agents) throws ReflectiveOperationException{
+    Agent[] seated = agents.acquire(seating);
+    int[] scores = new LoveLetter(Tournament.gameSeed(seed, game)).playGame(seated);
+    agents.release(seating, seated, null);
+    return scores;
+  }
+
+  /**
+   * The ratings and head to head results of the agents of a league, which are updated as each game is finished.
+   * Agents are referred to by their index in the league. The standings may be read while the league is being played.
+   **/
+  public static class Standings{
+    private int num;
+    private long minGames;
+    private long games;
+    private long failed;
+    private long[] played;
+    private long[] wins;
+    private double[] rating;
+    private long[][] shared;//the number of games two agents have played at the same table
+    private double[][] scoreSum;//the sum over those games of the first agent's score against the second
+    private double[][] scoreSquares;
+
+    private Standings(int num, long minGames){
+      this.num = num;
+      this.minGames = minGames;
+      played = new long[num];
+      wins = new long[num];
+      rating = new double[num];
+      Arrays.fill(rating, INITIAL_RATING);
+      shared = new long[num][num];
+      scoreSum = new double[num][num];
+      scoreSquares = new double[num][num];
+    }
+
+    //scores a finished game as a match between each pair of agents at the table, and updates their ratings
+    private synchronized void record(int[] seating, int[] scores){
+      if(scores==null){failed++; return;}
+      games++;
+      int m = seating.length;
+      int winner = 0;
+      for(int s = 1; s<m; s++) if(scores[s]>scores[winner]) winner = s;
+      wins[seating[winner]]++;
+      double[] change = new double[m];
+      for(int i = 0; i<m; i++){
+        int a = seating[i];
+        played[a]++;
+        for(int j = 0; j<m; j++){
+          if(j==i) continue;
+          int b = seating[j];
+          double score = scores[i]>scores[j]?1:scores[i]==scores[j]?0.5:0;
+          shared[a][b]++;
+          scoreSum[a][b]+=score;
+          scoreSquares[a][b]+=score*score;
+          double expected = 1/(1+Math.pow(10, (rating[b]-rating[a])/400));
+          change[i]+=K*(score-expected)/(m-1);
+        }
+      }
+      for(int i = 0; i<m; i++) rating[seating[i]]+=change[i];
+    }
+
+    //true if every matchup at a table is decided
+    private synchronized boolean decided(int[] table){
+      for(int i = 0; i<table.length; i++)
+        for(int j = i+1; j<table.length; j++)
+          if(!decided(table[i], table[j])) return false;
+      return true;
+    }
+
+    //true if every agent is decided against the agent ranked next to it
+    private synchronized boolean separated(){
+      int[] ranking = ranking();
+      for(int i = 1; i<num; i++)
+        if(!decided(ranking[i-1], ranking[i])) return false;
+      return true;
+    }
+
+    /**
+     * @return the number of games completed
+     **/
+    public synchronized long games(){return games;}
+
+    /**
+     * @return the number of games abandoned because the engine failed
+     **/
+    public synchronized long failed(){return failed;}
+
+    /**
+     * @param agent the index of the agent
+     * @return the number of games the agent has played
+     **/
+    public synchronized long played(int agent){return played[agent];}
+
+    /**
+     * @param agent the index of the agent
+     * @return the number of games the agent has won
+     **/
+    public synchronized long wins(int agent){return wins[agent];}
+
+    /**
+     * @param agent the index of the agent
+     * @return the agent's Elo rating, which starts at 1500
+     **/
+    public synchronized double rating(int agent){return rating[agent];}
+
+    /**
+     * @return the indices of the agents, from the highest rated to the lowest
+     **/
+    public synchronized int[] ranking(){
+      Integer[] order = new Integer[num];
+      for(int a = 0; a<num; a++) order[a] = a;
+      Arrays.sort(order, (a, b) -> Double.compare(rating[b], rating[a]));
+      int[] ranking = new int[num];
+      for(int i = 0; i<num; i++) ranking[i] = order[i];
+      return ranking;
+    }
+
+    /**
+     * @param a the index of one agent
+     * @param b the index of another agent
+     * @return the number of games the agents have played at the same table
+     **/
+    public synchronized long shared(int a, int b){return shared[a][b];}
+
+    /**
+     * @param a the index of one agent
+     * @param b the index of another agent
+     * @return the mean score of agent a against agent b over the games they have shared,
+     * with 1 for finishing with more tokens, and 0.5 for the same number, or 0.5 if they have shared no games
+     **/
+    public synchronized double headToHead(int a, int b){return shared[a][b]==0?0.5:scoreSum[a][b]/shared[a][b];}
+
+    /**
+     * @param a the index of one agent
+     * @param b the index of another agent
+     * @return the half width of the confidence interval (three standard errors) of the head to head score of agent a against agent b
+     **/
+    public synchronized double headToHeadInterval(int a, int b){
+      long n = shared[a][b];
+      if(n<2) return Double.POSITIVE_INFINITY;
+      double variance = Math.max(0, (scoreSquares[a][b]-scoreSum[a][b]*scoreSum[a][b]/n)/(n-1));
+      return Z*Math.sqrt(variance/n);
+    }
+
+    /**
+     * @param a the index of one agent
+     * @param b the index of another agent
+     * @return true if and only if the agents have shared enough games, and the confidence interval of their head to head score excludes 0.5
+     **/
+    public synchronized boolean decided(int a, int b){
+      return shared[a][b]>=minGames && Math.abs(headToHead(a, b)-0.5)>headToHeadInterval(a, b);
+    }
+
+    /**
+     * produces a table of the standings, from the highest rated agent to the lowest
+     * @return a string representation of the standings
+     **/
+    public synchronized String toString(){
+      StringBuilder sb = new StringBuilder();
+      sb.append("Games: "+games+(failed>0?" ("+failed+" failed)":"")+"\n");
+      int[] ranking = ranking();
+      for(int a: ranking)
+        sb.append(String.format("Agent %d: rating %.0f, games %d, wins %d%n", a, rating[a], played[a], wins[a]));
+      sb.append("Head to head:");
+      for(int i = 0; i<num; i++)
+        for(int j = i+1; j<num; j++){
+          int a = ranking[i], b = ranking[j];
+          sb.append(String.format("\n  Agent %d v Agent %d: %.4f +- %.4f in %d games%s", a, b, headToHead(a, b), headToHeadInterval(a, b), shared[a][b], decided(a, b)?" *":""));
+        }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Runs a league between agents named on the command line, or between two RandomAgents and two BorkedAgents.
+   * @param args optionally the pairing (swiss or roundrobin), the table size, the most games, the number of threads,
+   * and the fully qualified class names of the agents
+   **/
+  public static void main(String[] args) throws Exception{
+    Pairing pairing = args.length>0 && args[0].equalsIgnoreCase("roundrobin")?Pairing.ROUND_ROBIN:Pairing.SWISS;
+    int tableSize = args.length>1?Integer.parseInt(args[1]):2;
+    long maxGames = args.length>2?Long.parseLong(args[2]):20000;
+    int threads = args.length>3?Integer.parseInt(args[3]):Runtime.getRuntime().availableProcessors();
+    Class<?>[] agents = {agents.RandomAgent.class, agents.RandomAgent.class, agents.BorkedAgent.class, agents.BorkedAgent.class};
+    if(args.length>4){
+      agents = new Class<?>[args.length-4];
+      for(int i = 4; i<args.length; i++) agents[i-4] = Class.forName(args[i]);
+    }
+    for(int a = 0; a<agents.length; a++) System.out.println("Agent "+a+": "+agents[a].getName());
+    League league = new League(agents, tableSize, pairing, 0, threads);
+    long start = System.nanoTime();
+    Standings s = league.play(maxGames);
+    double secs = (System.nanoTime()-start)/1e9;
+    System.out.println(s);
+    System.out.println(String.format("%d games in %.2fs on %d threads (%.0f games/s)", s.games(), secs, threads, s.games()/secs));
+  }
+}
@@ -1,18 +1,32 @@
 package loveletter;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 import java.io.PrintStream;
 import agents.RandomAgent;
 
 /**
  * A class for running a single game of LoveLetter.
  * An array of 4 agents is provided, a deal is initialised and players takes turns until the game ends and the score is reported.
+ * Decks are shuffled with a SplittableRandom seeded by the game's seed, unless the legacy deal is set,
+ * in which case seeds reproduce the games they gave before the Fisher-Yates shuffle was introduced.
  * @author Tim French
  * */
 public class LoveLetter{
 
-  private Agent rando;
-  private Random random;
+  private Agent rando;//plays in place of an agent that makes an illegal move, created when first needed
+  private long seed;
+  private RandomGenerator random;
+  private boolean legacyDeal;
+  private Dealer dealer;//the source of the decks, in place of the random number generator, or null
+  private Watchdog watchdog;//limits the time of calls to the agents, or null for no limits
+  private Profiler profiler;//records the time of calls to the agents, or null
+  private int[] seating;//the profiler's index of the agent in each seat
+  private GameRecord script;//the record of the moves to fast-forward through, or null
+  private int scriptRound;//the position the fast-forward stops at
+  private int scriptMoves;
   private PrintStream ps;
+  private GameListener listener;
 
   /**
    * Constructs a LoveLetter game.
@@ -20,9 +34,20 @@ public class LoveLetter{
    * @param ps a PrintStream object to record the events of the game
    * **/
   public LoveLetter(long seed, PrintStream ps){
-    this.random = new Random(seed);
+    this.seed = seed;
+    this.random = new SplittableRandom(seed);
     this.ps = ps;
-    rando = new RandomAgent();
+    this.listener = new Narrator(ps);
+  }
+
+  /**
+   * Constructs a headless LoveLetter game, which does no output and builds no descriptions of the play.
+   * A listener may be added with setListener to observe the game.
+   * @param seed a seed for the random number generator.
+   * **/
+  public LoveLetter(long seed){
+    this.seed = seed;
+    this.random = new SplittableRandom(seed);
   }
 
   /**
@@ -34,51 +59,177 @@ public class LoveLetter{
     this.ps = System.out;
   }
 
+  /**
+   * Sets the listener that observes the events of the game, replacing any existing listener.
+   * @param listener the listener, or null to play the game headless
+   * **/
+  public void setListener(GameListener listener){
+    this.listener = listener;
+  }
+
+  /**
+   * Sets whether the game deals with the original shuffle, so that seeds reproduce the games they gave
+   * before the Fisher-Yates shuffle was introduced. The random number generator is reset to the game's seed.
+   * @param legacyDeal true for the original shuffle (Card.deal with a java.util.Random), false for Card.shuffle with a SplittableRandom
+   * **/
+  public void setLegacyDeal(boolean legacyDeal){
+    this.legacyDeal = legacyDeal;
+    this.random = legacyDeal?new Random(seed):new SplittableRandom(seed);
+  }
+
+  /**
+   * Sets a dealer to decide the decks of the game, in place of the game's random number generator.
+   * A dealer that replays a fixed sequence of decks (Dealer.replay) lets the same deals be played again
+   * with the agents in a different order.
+   * @param dealer the source of the deck for each round, or null to shuffle with the game's random number generator
+   * **/
+  public void setDealer(Dealer dealer){
+    this.dealer = dealer;
+  }
+
+  /**
+   * Sets a watchdog to limit the time the agents may take.
+   * A move that runs out of time is replaced by a random move, as an illegal action is.
+   * @param watchdog the watchdog, or null to call the agents directly, with no time limit
+   * **/
+  public void setWatchdog(Watchdog watchdog){
+    this.watchdog = watchdog;
+  }
 
   /**
-   * Plays a game of LoveLetter
+   * Sets a profiler to record the latency and allocation of each call to the agents, and their illegal actions and timeouts.
+   * @param profiler the profiler, or null to call the agents unprofiled
+   * @param seating the profiler's index of the agent in each seat, or null if the agent in seat i is the profiler's agent i
+   * **/
+  public void setProfiler(Profiler profiler, int[] seating){
+    this.profiler = profiler;
+    this.seating = seating==null?null:seating.clone();
+  }
+
+  /**
+   * Sets the game to fast-forward to a position of a recorded game, playing the recorded actions in place of the agents' moves.
+   * The game is dealt the recorded decks, and the agents are told of each action as usual, but playCard is not called
+   * until the position is reached, after which the agents play on. This reproduces a long game's later moves
+   * without repeating the agents' computation, provided the agents' moves depend only on the game and their seeds (see Agent.seed),
+   * and the game has the record's seed. The record holds the actions that were applied, so illegal moves before the position are not reported.
+   * @param record the record of the game, or null to play without fast-forwarding
+   * @param round the index of the round of the position
+   * @param moves the number of actions of that round to play from the record
+   * @throws IllegalArgumentException if the position is not in the recorded game
+   * **/
+  public void setFastForward(GameRecord record, int round, int moves){
+    if(record!=null && (round<0 || round>=record.rounds() || moves<0 || moves>record.moves(round)))
+      throw new IllegalArgumentException("No such position in the game");
+    this.script = record;
+    this.scriptRound = round;
+    this.scriptMoves = moves;
+  }
+
+  /**
+   * Gives the seed an agent is given before a move (see Agent.seed).
+   * @param seed the seed of the game
+   * @param turn the index of the move in the game, counting from 0 at the first move of the first round
+   * @return the seed for the move
+   * **/
+  public static long moveSeed(long seed, int turn){
+    return Tournament.gameSeed(seed, turn);
+  }
+
+  /**
+   * Plays a game of LoveLetter.
+   * Before each move, the agent to play is seeded from the game's seed and the turn (see Agent.seed),
+   * so a game between agents that use their seeds is reproduced by playing it again with the same seed.
    * @param agents the players in the game
    * @return scores of each agent as an array of integers
    * **/
   public int[] playGame(Agent[] agents){
-    boolean gameOver = false;
-    int winner=0;
     int numPlayers = agents.length;
-    State gameState = new State(random, agents);//the game state
+    if(profiler!=null){
+      Agent[] profiled = new Agent[numPlayers];
+      for(int i = 0; i<numPlayers; i++) profiled[i] = profiler.wrap(agents[i], seating==null?i:seating[i]);
+      agents = profiled;
+    }
+    Dealer deals = script!=null?script.dealer():dealer!=null?dealer:legacyDeal?Dealer.legacy(random):Dealer.shuffle(random);
+    State gameState = new State(deals, agents);//the game state
     State[] playerStates = new State[numPlayers];
+    int round = 0;
+    int turn = 0;
+    if(watchdog!=null) watchdog.start(agents);
+    if(listener!=null) listener.gameStarted(seed, gameState);
     try{
       while(!gameState.gameOver()){
         for(int i = 0; i<numPlayers; i++){
           playerStates[i] = gameState.playerState(i);
-          agents[i].newRound(playerStates[i]);
+          if(watchdog==null) agents[i].newRound(playerStates[i]);
+          else watchdog.newRound(i, playerStates[i]);
         }
-        while(!gameState.roundOver()){
-System.out.println("Cards are:\nplayer 0:"+gameState.getCard(0)+"\nplayer 1:"+gameState.getCard(1)+"\nplayer 2:"+gameState.getCard(2)+"\nplayer 3:"+gameState.getCard(3));        
+        if(listener!=null) listener.roundStarted(gameState);
+        for(int move = 0; !gameState.roundOver(); move++, turn++){
           Card topCard = gameState.drawCard(); 
-System.out.println("Player "+gameState.nextPlayer()+" draws the "+topCard);
-          Action act = agents[gameState.nextPlayer()].playCard(topCard);
-          try{
-            ps.println(gameState.update(act,topCard));
+          int player = gameState.nextPlayer();
+          if(listener!=null) listener.cardDrawn(player, topCard, gameState);
+          Action act = null;
+          boolean timedOut = false;
+          int outcome;
+          if(script!=null && (round<scriptRound || round==scriptRound && move<scriptMoves)){
+            try{
+              act = GameRecord.decode(script.action(round, move), player);
+            }catch(IllegalArgumentException e){
+              throw new IllegalActionException("The record does not match the game");
+            }
+            outcome = gameState.apply(act,topCard);//the game is abandoned if the record does not match it
+          }
+          else{
+            if(watchdog==null){
+              agents[player].seed(moveSeed(seed, turn));
+              act = agents[player].playCard(topCard);
+            }
+            else{
+              try{
+                act = watchdog.playCard(player, topCard, moveSeed(seed, turn));
+              }catch(java.util.concurrent.TimeoutException e){
+                timedOut = true;
+              }
+            }
+            try{
+              if(timedOut) throw new IllegalActionException("The agent ran out of time");
+              outcome = gameState.apply(act,topCard);
+            }
+            catch(IllegalActionException e){
+              if(profiler!=null){
+                if(timedOut) profiler.timedOut(seating==null?player:seating[player]);
+                else profiler.illegalAction(seating==null?player:seating[player]);
+              }
+              if(listener!=null){
+                if(timedOut) listener.timedOut(player, gameState);
+                else listener.illegalAction(player, act, gameState);
+              }
+              if(rando==null) rando = new RandomAgent();
+              rando.newRound(gameState.playerState(player));
+              rando.seed(moveSeed(seed, turn));
+              act = rando.playCard(topCard);
+              outcome = gameState.apply(act,topCard);
+            }
+          }
+          if(listener!=null){
+            listener.actionPerformed(act, outcome, gameState);
+            if(outcome>=0) listener.playerEliminated(outcome, act, gameState);
           }
-          catch(IllegalActionException e){
-            ps.println("ILLEGAL ACTION PERFORMED BY PLAYER "+agents[gameState.nextPlayer()]+
-              "("+gameState.nextPlayer()+")\nRandom Move Substituted");
-            rando.newRound(gameState.playerState(gameState.nextPlayer()));
-            act = rando.playCard(topCard);
-            ps.println(gameState.update(act,topCard));
+          for(int p = 0; p<numPlayers; p++){
+            if(watchdog==null) agents[p].see(act,playerStates[p]);
+            else watchdog.see(p, act, playerStates[p]);
           }
-          for(int p = 0; p<numPlayers; p++)
-            agents[p].see(act,playerStates[p]);
         }
-System.out.println("New Round, scores are:\nplayer 0:"+gameState.score(0)+"\nplayer 1:"+gameState.score(1)+"\nplayer 2:"+gameState.score(2)+"\nplayer 3:"+gameState.score(3));        
+        if(listener!=null) listener.roundOver(gameState);
         gameState.newRound();
+        round++;
       }
-      ps.println("Player "+gameState.gameWinner()+" wins the Princess's heart!");
+      if(listener!=null) listener.gameOver(gameState);
       int[] scoreboard = new int[numPlayers];
       for(int p = 0; p<numPlayers; p++)scoreboard[p] = gameState.score(p);
       return scoreboard;
     }catch(IllegalActionException e){
-      ps.println("Something has gone wrong.");
+      if(ps!=null) ps.println("Something has gone wrong.");
       e.printStackTrace();
       return null;
     } 
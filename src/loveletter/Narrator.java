@@ -0,0 +1,49 @@
+package loveletter;
+
+import java.io.PrintStream;
+
+/**
+ * A GameListener that narrates the game in plain English to a PrintStream.
+ * This is the verbose output of LoveLetter, and may be left out for headless simulations.
+ **/
+public class Narrator implements GameListener{
+
+  private PrintStream ps;
+
+  /**
+   * Constructs a narrator
+   * @param ps the PrintStream to write the events of the game to
+   **/
+  public Narrator(PrintStream ps){
+    this.ps = ps;
+  }
+
+  public void cardDrawn(int player, Card card, State state){
+    ps.print("Cards are:");
+    for(int p = 0; p<state.numPlayers(); p++) ps.print("\nplayer "+p+":"+state.getCard(p));
+    ps.println();
+    ps.println("Player "+player+" draws the "+card);
+  }
+
+  public void illegalAction(int player, Action act, State state){
+    ps.println("ILLEGAL ACTION PERFORMED BY PLAYER "+state.name(player)+"\nRandom Move Substituted");
+  }
+
+  public void timedOut(int player, State state){
+    ps.println("PLAYER "+state.name(player)+" RAN OUT OF TIME\nRandom Move Substituted");
+  }
+
+  public void actionPerformed(Action act, int outcome, State state){
+    ps.println(state.describe(act, outcome));
+  }
+
+  public void roundOver(State state){
+    ps.print("New Round, scores are:");
+    for(int p = 0; p<state.numPlayers(); p++) ps.print("\nplayer "+p+":"+state.score(p));
+    ps.println();
+  }
+
+  public void gameOver(State state){
+    ps.println("Player "+state.gameWinner()+" wins the Princess's heart!");
+  }
+}
@@ -0,0 +1,438 @@
+package loveletter;
+
+/**
+ * A compact representation of the game engine's state for a single round, packed into four longs.
+ * This is intended for simulations and search, where a State is too expensive to copy.
+ * Copying a PackedState is O(1), and every draw or action may be undone.
+ * The rules are the same as State.apply, so the same deck and the same actions give the same outcomes.
+ * Cards are represented by their ordinal (0 for the Guard to 7 for the Princess), using 3 bits each.
+ * <ul>
+ * <li>cards: the deck order (16 cards, bits 0-47), the top of the deck (bits 48-52),
+ *     the next player (bits 53-54) and the number of players (bits 55-57)</li>
+ * <li>players: the hands (4 cards, bits 0-11), the eliminated mask (bits 12-15), the handmaid mask (bits 16-19),
+ *     the knowledge matrix (bits 20-35, bit 4i+j set if player i knows player j's card)
+ *     and the sum of each player's discards (6 bits each, bits 36-59)</li>
+ * <li>pile: the discarded cards in the order they were discarded (bits 0-47) and the number of discards (bits 48-52)</li>
+ * <li>owners: the player who discarded each card in the pile (2 bits each, bits 0-31) and the scores (4 bits each, bits 32-47)</li>
+ * </ul>
+ * No legality checks are made by apply, so callers should only apply actions for which legal is true.
+ **/
+public final class PackedState{
+
+  private static final int TOP = 48, NEXT = 53, NUM = 55;//offsets in cards
+  private static final int ELIM = 12, MAID = 16, KNOWN = 20, SUM = 36;//offsets in players
+  private static final int COUNT = 48;//offset in pile
+  private static final int SCORE = 32;//offset in owners
+  private static final long COLUMN = 0x1111L;//the knowledge bits of player 0's card, for every observer
+  private static final int MAX_UNDO = 40;//enough for every draw and action in a round
+
+  private long cards;
+  private long players;
+  private long pile;
+  private long owners;
+  private long[] undo;//saved states, allocated on first use
+  private int depth;
+
+  /**
+   * Constructs the state at the start of a round, dealing one card to each player from the top of the deck.
+   * The first player is the next to play.
+   * @param deck the order of the deck, as produced by Card.deal
+   * @param num the number of players (2,3 or 4)
+   * @throws IllegalArgumentException if the deck does not have 16 cards or the number of players is out of range.
+   **/
+  public PackedState(Card[] deck, int num){
+    if(deck.length!=16) throw new IllegalArgumentException("A deck must have 16 cards");
+    if(num<2 || num>4) throw new IllegalArgumentException("incorrect number of players");
+    for(int i = 0; i<16; i++) cards|=(long)deck[i].ordinal()<<(3*i);
+    cards|=(long)num<<TOP | (long)num<<NUM;
+    for(int p = 0; p<num; p++){
+      players|=(long)deck[p].ordinal()<<(3*p);
+      players|=1L<<(KNOWN+5*p);
+    }
+    for(int p = num; p<4; p++) players|=1L<<(ELIM+p);//absent players are permanently eliminated
+  }
+
+  /**
+   * Constructs a copy of the game engine's state for the current round.
+   * The order of the discards between players is not recorded in State,
+   * so the pile lists each player's discards in turn.
+   * @param s the game engine's state
+   * @throws IllegalArgumentException if s is a player state
+   **/
+  public PackedState(State s){
+    if(s.getPlayerIndex()!=-1) throw new IllegalArgumentException("A player state cannot be packed.");
+    int num = s.numPlayers();
+    Card[] deck = s.deck();
+    for(int i = 0; i<16; i++)
+      if(deck[i]!=null) cards|=(long)deck[i].ordinal()<<(3*i);//simulated states do not keep the cards already dealt
+    cards|=(long)(16-s.deckSize())<<TOP | (long)s.nextPlayer()<<NEXT | (long)num<<NUM;
+    for(int p = 0; p<4; p++){
+      if(p>=num || s.eliminated(p)) players|=1L<<(ELIM+p);
+      else players|=(long)s.getCard(p).ordinal()<<(3*p);
+      if(s.handmaid(p)) players|=1L<<(MAID+p);
+      if(p<num) owners|=(long)s.score(p)<<(SCORE+4*p);
+      for(int q = 0; q<num && p<num; q++)
+        if(s.knows(p,q)) players|=1L<<(KNOWN+4*p+q);
+      if(p<num){//the iterator gives the most recent discard first, so reverse it to discard in the original order
+        Card[] pileOf = new Card[16];
+        int n = 0;
+        for(java.util.Iterator<Card> it = s.getDiscards(p); it.hasNext();) pileOf[n++] = it.next();
+        while(n>0) discard(p, pileOf[--n].ordinal());
+      }
+    }
+  }
+
+  private PackedState(){}
+
+  /**
+   * Creates a copy of this state. The undo history is not copied.
+   * @return an independent copy of this state
+   **/
+  public PackedState copy(){
+    PackedState s = new PackedState();
+    s.cards = cards;
+    s.players = players;
+    s.pile = pile;
+    s.owners = owners;
+    return s;
+  }
+
+  /**
+   * Overwrites this state with another, without allocating. The undo history is cleared.
+   * @param s the state to copy
+   **/
+  public void copyFrom(PackedState s){
+    cards = s.cards;
+    players = s.players;
+    pile = s.pile;
+    owners = s.owners;
+    depth = 0;
+  }
+
+  /**
+   * @return the number of players in the game
+   **/
+  public int numPlayers(){return (int)(cards>>>NUM)&7;}
+
+  /**
+   * @return the index of the next player to play
+   **/
+  public int nextPlayer(){return (int)(cards>>>NEXT)&3;}
+
+  /**
+   * @return the number of cards remaining in the deck
+   **/
+  public int deckSize(){return 16-((int)(cards>>>TOP)&31);}
+
+  /**
+   * @param i the position in the deck, from 0 to 15
+   * @return the ordinal of the card at that position of the deck
+   **/
+  public int deckCard(int i){return (int)(cards>>>(3*i))&7;}
+
+  /**
+   * @param player the index of the player
+   * @return the ordinal of the player's card, or -1 if the player is eliminated
+   **/
+  public int hand(int player){
+    if(eliminated(player)) return -1;
+    return (int)(players>>>(3*player))&7;
+  }
+
+  /**
+   * @param player the index of the player
+   * @return true if and only if the player is eliminated
+   **/
+  public boolean eliminated(int player){return (players>>>(ELIM+player)&1)!=0;}
+
+  /**
+   * @param player the index of the player
+   * @return true if and only if the player is protected by the handmaid
+   **/
+  public boolean handmaid(int player){return (players>>>(MAID+player)&1)!=0;}
+
+  /**
+   * @param observer the player who may know the card
+   * @param player the player whose card may be known
+   * @return true if and only if the observer knows the player's card
+   **/
+  public boolean knows(int observer, int player){return (players>>>(KNOWN+4*observer+player)&1)!=0;}
+
+  /**
+   * @param player the index of the player
+   * @return the total value of the player's discards
+   **/
+  public int discardSum(int player){return (int)(players>>>(SUM+6*player))&63;}
+
+  /**
+   * @return the number of cards discarded this round
+   **/
+  public int discardCount(){return (int)(pile>>>COUNT)&31;}
+
+  /**
+   * @param i the index of the discard, 0 being the first card discarded in the round
+   * @return the ordinal of the discarded card
+   **/
+  public int discard(int i){return (int)(pile>>>(3*i))&7;}
+
+  /**
+   * @param i the index of the discard, 0 being the first card discarded in the round
+   * @return the player who discarded the card
+   **/
+  public int discardOwner(int i){return (int)(owners>>>(2*i))&3;}
+
+  /**
+   * @param player the index of the player
+   * @return the number of rounds the player has won
+   **/
+  public int score(int player){return (int)(owners>>>(SCORE+4*player))&15;}
+
+  /**
+   * helper method to check if every other player other than the specified player is either eliminated or protected by the handmaid
+   * @param player the player who would be playing a card
+   * @return true if and only if every player other than the nominated player is eliminated or protected by the handmaid
+   **/
+  public boolean allHandmaid(int player){
+    long open = ~(players>>>ELIM) & ~(players>>>MAID) & 15 & ~(1L<<player);
+    return open==0;
+  }
+
+  /**
+   * Tests to see if the round is over, either by all but one player being eliminated
+   * or by all but one card being drawn from the deck.
+   * @return true if and only if the round is over
+   **/
+  public boolean roundOver(){
+    return Long.bitCount(~(players>>>ELIM)&15)==1 || deckSize()<2;
+  }
+
+  /**
+   * Determines the winner of the round, with the same tie breaks as State.roundWinner.
+   * @return the index of the winner, or -1 if the round is not yet over.
+   **/
+  public int roundWinner(){
+    if(!roundOver()) return -1;
+    int winner = -1;
+    int best = -1;
+    for(int p = 0; p<4; p++){
+      if(!eliminated(p)){
+        int v = hand(p)<<6 | discardSum(p);//compare by card, then by discards
+        if(v>best){
+          winner = p;
+          best = v;
+        }
+      }
+    }
+    return winner;
+  }
+
+  /**
+   * Checks whether the next player may perform an action, following the rules of State.legalAction.
+   * @param act the action, which may be null
+   * @param drawn the card drawn by the player
+   * @return true if and only if the action is legal
+   **/
+  public boolean legal(Action act, Card drawn){
+    if(act==null || act.player()!=nextPlayer()) return false;
+    Card g = act.guess();
+    return legal(act.card().ordinal(), act.target(), g==null?0:g.ordinal(), drawn.ordinal());
+  }
+
+  /**
+   * Checks whether the next player may play a card, following the rules of State.legalAction
+   * and the rules enforced by the Action class.
+   * @param card the ordinal of the card played
+   * @param target the index of the target, or -1 for the Handmaid, Countess and Princess
+   * @param guess the ordinal of the guessed card for the Guard, which may not be the Guard itself, or 0 for any other card
+   * @param drawn the ordinal of the card drawn by the player
+   * @return true if and only if the action is legal
+   **/
+  public boolean legal(int card, int target, int guess, int drawn){
+    int a = nextPlayer();
+    int held = hand(a);
+    if(held!=card && drawn!=card) return false;
+    if(card==0?guess<1 || guess>7:guess!=0) return false;
+    if((held==6 || drawn==6) && (card==4 || card==5)) return false;//the countess must be played over the prince or king
+    boolean targeted = card==0 || card==1 || card==2 || card==4 || card==5;
+    if(!targeted) return target==-1;
+    if(target<0 || target>=numPlayers() || eliminated(target)) return false;
+    if(card==4 && target==a) return true;
+    if(target==a) return false;
+    return !handmaid(target) || (allHandmaid(a) && card!=4);
+  }
+
+  /**
+   * Draws the top card of the deck.
+   * @return the ordinal of the card drawn
+   **/
+  public int draw(){
+    save();
+    int top = (int)(cards>>>TOP)&31;
+    cards+=1L<<TOP;
+    return deckCard(top);
+  }
+
+  /**
+   * Applies an action of the next player, with the same effect as State.apply.
+   * @param act the action, which must be legal
+   * @param drawn the card the player drew
+   * @return the outcome of the action, as for State.apply
+   **/
+  public int apply(Action act, Card drawn){
+    Card g = act.guess();
+    return apply(act.card().ordinal(), act.target(), g==null?0:g.ordinal(), drawn.ordinal());
+  }
+
+  /**
+   * Applies an action of the next player, with the same effect as State.apply.
+   * @param card the ordinal of the card played
+   * @param t the index of the target, or -1 if the card has no target
+   * @param guess the ordinal of the guessed card, for the Guard
+   * @param drawn the ordinal of the card the player drew
+   * @return the outcome of the action, as for State.apply
+   **/
+  public int apply(int card, int t, int guess, int drawn){
+    save();
+    int a = nextPlayer();
+    if(card==hand(a)){//the held card was played, so the drawn card is now held
+      setHand(a, drawn);
+      forget(a);
+    }
+    discard(a, card);
+    players&=~(1L<<(MAID+a));
+    int outcome = State.NO_ELIMINATION;
+    switch(card){
+      case 0://guard
+        if(allHandmaid(a)) outcome = State.PROTECTED;
+        else if(hand(t)==guess){
+          discard(t, guess);
+          eliminate(t);
+          outcome = t;
+        }
+        break;
+      case 1://priest
+        if(allHandmaid(a)) outcome = State.PROTECTED;
+        else players|=1L<<(KNOWN+4*a+t);
+        break;
+      case 2://baron
+        if(allHandmaid(a)) outcome = State.PROTECTED;
+        else{
+          int ha = hand(a), ht = hand(t);
+          if(ha!=ht){
+            int elim = ha>ht?t:a;
+            discard(elim, hand(elim));
+            eliminate(elim);
+            outcome = elim;
+          }
+          else players|=1L<<(KNOWN+4*a+t) | 1L<<(KNOWN+4*t+a);
+        }
+        break;
+      case 3://handmaid
+        players|=1L<<(MAID+a);
+        break;
+      case 4://prince
+        int d = hand(t);
+        discard(t, d);
+        if(d==7){
+          eliminate(t);
+          outcome = t;
+        }
+        else{
+          int top = (int)(cards>>>TOP)&31;
+          cards+=1L<<TOP;
+          setHand(t, deckCard(top));
+          forget(t);
+        }
+        break;
+      case 5://king
+        if(allHandmaid(a)) outcome = State.PROTECTED;
+        else king(a, t);
+        break;
+      case 7://princess
+        discard(a, hand(a));
+        eliminate(a);
+        outcome = a;
+        break;
+      default://countess has no effect
+    }
+    if(roundOver()){
+      players|=0xFFFFL<<KNOWN;
+      int w = roundWinner();
+      owners+=1L<<(SCORE+4*w);
+      setNext(w);
+    }
+    else{
+      int n = numPlayers();
+      int next = (a+1)%n;
+      while(eliminated(next)) next = (next+1)%n;
+      setNext(next);
+    }
+    return outcome;
+  }
+
+  /**
+   * Restores the state to before the most recent draw or apply.
+   * @throws IllegalStateException if there is nothing to undo
+   **/
+  public void undo(){
+    if(depth==0) throw new IllegalStateException("Nothing to undo");
+    int i = 4*(--depth);
+    cards = undo[i];
+    players = undo[i+1];
+    pile = undo[i+2];
+    owners = undo[i+3];
+  }
+
+  private void save(){
+    if(undo==null) undo = new long[4*MAX_UNDO];
+    if(depth==MAX_UNDO){//drop the oldest state
+      System.arraycopy(undo, 4, undo, 0, 4*(MAX_UNDO-1));
+      depth--;
+    }
+    int i = 4*(depth++);
+    undo[i] = cards;
+    undo[i+1] = players;
+    undo[i+2] = pile;
+    undo[i+3] = owners;
+  }
+
+  private void setHand(int p, int card){
+    players = players & ~(7L<<(3*p)) | (long)card<<(3*p);
+  }
+
+  private void setNext(int p){
+    cards = cards & ~(3L<<NEXT) | (long)p<<NEXT;
+  }
+
+  //adds a card to the pile and the player's discard sum
+  private void discard(int p, int card){
+    int n = discardCount();
+    pile = pile & ~(31L<<COUNT) | (long)card<<(3*n) | (long)(n+1)<<COUNT;
+    owners|=(long)p<<(2*n);
+    players+=(long)(card+1)<<(SUM+6*p);
+  }
+
+  //marks the player as eliminated, and their card as known to everyone
+  private void eliminate(int p){
+    players|=1L<<(ELIM+p) | COLUMN<<(KNOWN+p);
+  }
+
+  //rescinds every other player's knowledge of the player's card
+  private void forget(int p){
+    players&=~((COLUMN & ~(1L<<(4*p)))<<(KNOWN+p));
+  }
+
+  //swaps the cards of a and t, along with the other players' knowledge of them
+  private void king(int a, int t){
+    players|=1L<<(KNOWN+4*a+t) | 1L<<(KNOWN+4*t+a);
+    long rows = COLUMN & ~(1L<<(4*a)) & ~(1L<<(4*t));
+    long known = players>>>KNOWN;
+    long colA = (known>>>a) & rows;
+    long colT = (known>>>t) & rows;
+    known = known & ~(rows<<a | rows<<t) | colT<<a | colA<<t;
+    players = players & ~(0xFFFFL<<KNOWN) | (known&0xFFFFL)<<KNOWN;
+    int ha = hand(a);
+    setHand(a, hand(t));
+    setHand(t, ha);
+  }
+}
@@ -0,0 +1,267 @@
+package loveletter;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records how long each agent takes, and how much memory it allocates, in each call made by the game,
+ * so that a slow agent can be found in a tournament.
+ * For each agent the profiler keeps a latency histogram of each of newRound, see and playCard,
+ * the bytes allocated by those calls (measured with com.sun.management.ThreadMXBean, where the JVM supports it),
+ * and the number of illegal actions and timeouts.
+ * <p>
+ * A profiler is given to LoveLetter (or Tournament) with setProfiler. When no profiler is set the agents are called directly,
+ * so profiling costs nothing when it is disabled. Each thread records into its own statistics, which are added together when read,
+ * so one profiler may be shared by all the workers of a tournament. The statistics may be read over JMX once the profiler is registered,
+ * and summary gives them as CSV, with a row for each agent and call.
+ **/
+public class Profiler implements ProfilerMBean{
+
+  /**The calls made to an agent, in the order of the statistics**/
+  private static final String[] CALLS = {"newRound", "see", "playCard"};
+  private static final int NEW_ROUND = 0, SEE = 1, PLAY_CARD = 2;
+
+  private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+  private String[] agents;
+  private List<Stats[]> all = new CopyOnWriteArrayList<Stats[]>();//the statistics of every thread
+  private ThreadLocal<Stats[]> local;
+
+  //the statistics of one agent, recorded by one thread
+  private static class Stats{
+    private LatencyHistogram[] latency = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+    private long[] bytes = new long[3];
+    private long illegal;
+    private long timeouts;
+  }
+
+  /**
+   * Constructs a profiler.
+   * @param agents the names of the agents to profile, which are referred to by their index in this array
+   **/
+  public Profiler(String[] agents){
+    this.agents = agents.clone();
+    int n = agents.length;
+    local = ThreadLocal.withInitial(() -> {
+        Stats[] stats = new Stats[n];
+        for(int i = 0; i<n; i++) stats[i] = new Stats();
+        all.add(stats);
+        return stats;
+      });
+  }
+
+  private static com.sun.management.ThreadMXBean threads(){
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if(!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+    if(!threads.isThreadAllocatedMemorySupported()) return null;
+    threads.setThreadAllocatedMemoryEnabled(true);
+    return threads;
+  }
+
+  //the bytes allocated by the current thread, or 0 if allocation is not measured
+  private static long allocated(){
+    return THREADS==null?0:THREADS.getCurrentThreadAllocatedBytes();
+  }
+
+  /**
+   * Registers the profiler with the platform MBean server.
+   * @param name the JMX object name, for example "loveletter:type=Profiler"
+   * @throws IllegalArgumentException if the name is malformed or already registered
+   **/
+  public void register(String name){
+    try{
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+    }catch(JMException e){
+      throw new IllegalArgumentException("Cannot register the profiler as "+name, e);
+    }
+  }
+
+  /**
+   * Wraps an agent, so that its calls are recorded as those of the given agent index.
+   * The calls are timed on whichever thread makes them, so a Watchdog's hand-off is not included.
+   **/
+  Agent wrap(Agent agent, int id){
+    return new Agent(){
+      public String toString(){return agent.toString();}
+
+      public void seed(long seed){agent.seed(seed);}
+
+      public void newRound(State start){
+        long t = System.nanoTime();
+        long b = allocated();
+        try{
+          agent.newRound(start);
+        }finally{
+          record(id, NEW_ROUND, t, b);
+        }
+      }
+
+      public void see(Action act, State results){
+        long t = System.nanoTime();
+        long b = allocated();
+        try{
+          agent.see(act, results);
+        }finally{
+          record(id, SEE, t, b);
+        }
+      }
+
+      public Action playCard(Card c){
+        long t = System.nanoTime();
+        long b = allocated();
+        try{
+          return agent.playCard(c);
+        }finally{
+          record(id, PLAY_CARD, t, b);
+        }
+      }
+    };
+  }
+
+  private void record(int id, int call, long start, long bytes){
+    Stats s = local.get()[id];
+    s.bytes[call]+=allocated()-bytes;
+    s.latency[call].record(System.nanoTime()-start);
+  }
+
+  /**
+   * Records an illegal action by an agent.
+   **/
+  void illegalAction(int id){local.get()[id].illegal++;}
+
+  /**
+   * Records a move of an agent that ran out of time.
+   **/
+  void timedOut(int id){local.get()[id].timeouts++;}
+
+  /**
+   * Gives the latencies of one of an agent's calls, from every thread.
+   * @param agent the index of the agent
+   * @param call the call: 0 for newRound, 1 for see and 2 for playCard
+   * @return a new histogram of the latencies
+   **/
+  public LatencyHistogram latency(int agent, int call){
+    LatencyHistogram h = new LatencyHistogram();
+    for(Stats[] s: all) h.add(s[agent].latency[call]);
+    return h;
+  }
+
+  /**
+   * Gives the mean bytes allocated by one of an agent's calls.
+   * @param agent the index of the agent
+   * @param call the call: 0 for newRound, 1 for see and 2 for playCard
+   * @return the mean bytes allocated per call, or -1 if allocation is not measured by this JVM
+   **/
+  public double bytes(int agent, int call){
+    if(THREADS==null) return -1;
+    long bytes = 0;
+    long calls = 0;
+    for(Stats[] s: all){
+      bytes+=s[agent].bytes[call];
+      calls+=s[agent].latency[call].count();
+    }
+    return calls==0?0:bytes/(double)calls;
+  }
+
+  /**
+   * @param agent the index of the agent
+   * @return the number of illegal actions played by the agent
+   **/
+  public long illegalActions(int agent){
+    long n = 0;
+    for(Stats[] s: all) n+=s[agent].illegal;
+    return n;
+  }
+
+  /**
+   * @param agent the index of the agent
+   * @return the number of the agent's moves that ran out of time
+   **/
+  public long timeouts(int agent){
+    long n = 0;
+    for(Stats[] s: all) n+=s[agent].timeouts;
+    return n;
+  }
+
+  /**
+   * Gives the statistics as CSV, with a header row, then a row for each agent and call:
+   * agent, call, calls, mean_ns, p50_ns, p99_ns, max_ns, bytes_per_call, illegal, timeouts.
+   * The illegal actions and timeouts are given on the playCard row.
+   * @return the summary
+   **/
+  public String summary(){
+    StringBuilder sb = new StringBuilder("agent,call,calls,mean_ns,p50_ns,p99_ns,max_ns,bytes_per_call,illegal,timeouts\n");
+    for(int a = 0; a<agents.length; a++)
+      for(int c = 0; c<CALLS.length; c++){
+        LatencyHistogram h = latency(a, c);
+        sb.append(String.format(Locale.ROOT, "%s,%s,%d,%.0f,%d,%d,%d,%.0f,%d,%d\n", agents[a], CALLS[c], h.count(), h.mean(),
+              h.percentile(50), h.percentile(99), h.max(), bytes(a, c), c==PLAY_CARD?illegalActions(a):0, c==PLAY_CARD?timeouts(a):0));
+      }
+    return sb.toString();
+  }
+
+  public String[] getAgents(){return agents.clone();}
+
+  public long[] getPlayCardCalls(){
+    long[] v = new long[agents.length];
+    for(int a = 0; a<v.length; a++) v[a] = latency(a, PLAY_CARD).count();
+    return v;
+  }
+
+  public double[] getPlayCardP50Micros(){return percentiles(PLAY_CARD, 50);}
+
+  public double[] getPlayCardP99Micros(){return percentiles(PLAY_CARD, 99);}
+
+  public double[] getPlayCardMaxMicros(){return percentiles(PLAY_CARD, 100);}
+
+  public double[] getSeeP99Micros(){return percentiles(SEE, 99);}
+
+  public double[] getNewRoundP99Micros(){return percentiles(NEW_ROUND, 99);}
+
+  private double[] percentiles(int call, double percent){
+    double[] v = new double[agents.length];
+    for(int a = 0; a<v.length; a++){
+      LatencyHistogram h = latency(a, call);
+      v[a] = (percent==100?h.max():h.percentile(percent))/1e3;
+    }
+    return v;
+  }
+
+  public double[] getPlayCardBytes(){
+    double[] v = new double[agents.length];
+    for(int a = 0; a<v.length; a++) v[a] = bytes(a, PLAY_CARD);
+    return v;
+  }
+
+  public long[] getIllegalActions(){
+    long[] v = new long[agents.length];
+    for(int a = 0; a<v.length; a++) v[a] = illegalActions(a);
+    return v;
+  }
+
+  public long[] getTimeouts(){
+    long[] v = new long[agents.length];
+    for(int a = 0; a<v.length; a++) v[a] = timeouts(a);
+    return v;
+  }
+
+  public String getSummary(){return summary();}
+
+  /**
+   * Clears the statistics. Calls being recorded at the same time may be lost.
+   **/
+  public void reset(){
+    for(Stats[] stats: all)
+      for(Stats s: stats){
+        for(LatencyHistogram h: s.latency) h.reset();
+        java.util.Arrays.fill(s.bytes, 0);
+        s.illegal = 0;
+        s.timeouts = 0;
+      }
+  }
+}
@@ -0,0 +1,68 @@
+package loveletter;
+
+/**
+ * The JMX management interface of a Profiler.
+ * Each array attribute has an entry for each agent, in the order given by getAgents.
+ **/
+public interface ProfilerMBean{
+
+  /**
+   * @return the names of the profiled agents
+   **/
+  public String[] getAgents();
+
+  /**
+   * @return the number of calls to playCard made to each agent
+   **/
+  public long[] getPlayCardCalls();
+
+  /**
+   * @return the median latency of each agent's playCard, in microseconds
+   **/
+  public double[] getPlayCardP50Micros();
+
+  /**
+   * @return the 99th percentile latency of each agent's playCard, in microseconds
+   **/
+  public double[] getPlayCardP99Micros();
+
+  /**
+   * @return the largest latency of each agent's playCard, in microseconds
+   **/
+  public double[] getPlayCardMaxMicros();
+
+  /**
+   * @return the 99th percentile latency of each agent's see, in microseconds
+   **/
+  public double[] getSeeP99Micros();
+
+  /**
+   * @return the 99th percentile latency of each agent's newRound, in microseconds
+   **/
+  public double[] getNewRoundP99Micros();
+
+  /**
+   * @return the mean bytes allocated by each agent's playCard, or -1 if allocation is not measured by this JVM
+   **/
+  public double[] getPlayCardBytes();
+
+  /**
+   * @return the number of illegal actions played by each agent
+   **/
+  public long[] getIllegalActions();
+
+  /**
+   * @return the number of each agent's moves that ran out of time
+   **/
+  public long[] getTimeouts();
+
+  /**
+   * @return the full summary, as CSV
+   **/
+  public String getSummary();
+
+  /**
+   * Clears all the recorded statistics.
+   **/
+  public void reset();
+}
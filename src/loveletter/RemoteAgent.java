@@ -0,0 +1,173 @@
+package loveletter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An agent that plays in a process of its own, so that an agent from an untrusted submitter cannot crash the engine's JVM,
+ * or read or change the game beyond what it is shown. The process runs an AgentHost, which plays the agent,
+ * and the two talk over the process's standard input and output.
+ * <p>
+ * The agent's player state is sent as a compact binary view (see State.writeView) of about 25 bytes, with nothing the agent cannot see,
+ * after each event and with each request to play, and its moves are sent back as action ids. The start of each round and the actions the agent sees are buffered, not sent,
+ * until the agent is next asked to play, so each move costs one message each way, however many events came before it.
+ * A RemoteAgent can be reset, so the process is kept by an AgentPool and reused for many games.
+ * <p>
+ * If the process dies, or sends an id that is not of any action, the agent's moves are null from then on, and are replaced by random moves
+ * as any illegal action is. A process that takes too long should be stopped by playing with a Watchdog:
+ * a call that runs out of time leaves the agent to be discarded and closed by the pool, which ends its process.
+ **/
+public class RemoteAgent implements Agent, Closeable{
+
+  //the types of message sent to the host
+  static final int NEW_ROUND = 1, SEE = 2, PLAY = 3, RESET = 4;
+  static final int BUFFER = 1<<16;//the size of the buffers of each stream
+
+  private final Process process;
+  private final DataOutputStream out;
+  private final DataInputStream in;
+  private final String name;
+  private State current;//the agent's player state, which changes as the game is played
+  private long seed;
+  private volatile boolean failed;//true once the process has failed or been closed, after which no more messages are sent
+
+  /**
+   * Starts the process of an agent, and waits for it to give the agent's name.
+   * The process's standard error is passed to this process's.
+   * @param command the command that runs an AgentHost, such as given by command
+   * @throws IOException if the process could not be started, or exited without giving the agent's name
+   **/
+  public RemoteAgent(List<String> command) throws IOException{
+    process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), BUFFER));
+    in = new DataInputStream(new BufferedInputStream(process.getInputStream(), BUFFER));
+    try{
+      name = in.readUTF();
+    }catch(IOException e){
+      process.destroyForcibly();
+      throw e;
+    }
+  }
+
+  /**
+   * Gives the command to host an agent class in a new JVM, with this JVM's java executable and class path.
+   * @param agentClass the fully qualified name of the agent class, which must have a zero parameter constructor
+   * @param jvmOptions options for the new JVM, such as a limit on its memory
+   * @return the command
+   **/
+  public static List<String> command(String agentClass, String... jvmOptions){
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+    command.addAll(Arrays.asList(jvmOptions));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(AgentHost.class.getName());
+    command.add(agentClass);
+    return command;
+  }
+
+  /**
+   * Gives a factory of agents that each play in a new JVM, hosting the given agent class.
+   * @param agentClass the fully qualified name of the agent class, which must have a zero parameter constructor
+   * @param jvmOptions options for the new JVMs, such as a limit on their memory
+   * @return the factory, which throws an UncheckedIOException if a process could not be started
+   **/
+  public static AgentFactory factory(String agentClass, String... jvmOptions){
+    List<String> command = command(agentClass, jvmOptions);
+    return () -> {
+      try{
+        return new RemoteAgent(command);
+      }catch(IOException e){
+        throw new UncheckedIOException("The process of "+agentClass+" could not be started", e);
+      }
+    };
+  }
+
+  /**
+   * Reports the name the hosted agent gives
+   * */
+  public String toString(){return name;}
+
+  public void seed(long seed){
+    this.seed = seed;
+  }
+
+  public void newRound(State start){
+    current = start;
+    send(NEW_ROUND, null, start);
+  }
+
+  public void see(Action act, State results){
+    send(SEE, act, results);
+  }
+
+  //buffers a message, to be sent with the next move
+  private void send(int type, Action act, State view){
+    if(failed) return;
+    try{
+      out.writeByte(type);
+      if(act!=null) out.writeShort(act.id());
+      view.writeView(out);
+    }catch(IOException e){
+      failed = true;
+    }
+  }
+
+  /**
+   * Sends the events since the last move, and asks the hosted agent to play.
+   * @param c the card drawn from the deck
+   * @return the action the hosted agent chose, or null if it made no move, or the process failed or gave an id of no action,
+   * after which the agent makes no more moves
+   * */
+  public Action playCard(Card c){
+    if(failed) return null;
+    try{
+      out.writeByte(PLAY);
+      out.writeByte(c.ordinal());
+      out.writeLong(seed);
+      current.writeView(out);//the deck and unseen cards have changed with the draw
+      out.flush();
+      int id = in.readShort();
+      if(id==-1) return null;//the hosted agent made no move
+      return Action.get(id);
+    }catch(IOException | IllegalArgumentException e){//a process that sends an id of no action is not trusted again
+      failed = true;
+      return null;
+    }
+  }
+
+  /**
+   * Tells the hosted agent the game is over, so the process can play another.
+   * @return true, unless the process has failed
+   * */
+  public boolean reset(){
+    current = null;
+    if(failed || !process.isAlive()) return false;
+    try{
+      out.writeByte(RESET);
+    }catch(IOException e){
+      failed = true;
+    }
+    return !failed;
+  }
+
+  /**
+   * Ends the agent's process. A call waiting for the process returns a null move.
+   **/
+  public void close(){
+    failed = true;
+    process.destroyForcibly();
+    try{
+      out.close();
+    }catch(IOException e){/*the process has gone, so there is no one to tell*/}
+  }
+}
@@ -4,38 +4,91 @@ package loveletter;
  * The class comes in two modes, one for the players, which has update operations disabled,
  * and one for the game engine, that can update the state.
  * States of players in the same game will have common data, allowing for an efficient representation.
+ * Immutable snapshots of either mode may be taken with snapshot, which share data with the game until it changes.
  * **/
 public class State implements Cloneable{
 
-  
+  /**The outcome of an action that eliminated no player**/
+  public static final int NO_ELIMINATION = -1;
+  /**The outcome of an action that had no effect because every other player was protected by the Handmaid**/
+  public static final int PROTECTED = -2;
+  /**The most legal actions a player can have in one turn: a Guard against three opponents, and a Prince**/
+  public static final int MAX_LEGAL_ACTIONS = 25;
+
+  private static final Card[] CARDS = Card.values();
+  //the groups of arrays an engine state may share with its snapshots
+  private static final int HAND = 1;
+  private static final int COUNT = 2;//discardCount and discardValue
+  private static final int MASKS = 4;
+  private static final int KNOWN = 8;
+  private static final int TOP = 16;
+  private static final int NEXT = 32;
+  private static final int UNSEEN = 64;
+  private static final int ALL = HAND|COUNT|MASKS|KNOWN|TOP|NEXT|UNSEEN;
+  //the indices of the masks
+  private static final int ALIVE = 0;
+  private static final int PROTECTED_MASK = 1;
+
   private int player;//the player who observes this outcome, or -1 for the game engine
   private int num; //The number of players in the game
   private Card[][] discards; //the discarded cards or each player
   private int[] discardCount; //how many cards each player has discarded
+  private int[] discardValue; //the total value of the cards each player has discarded
   private Card[] hand; //the cards players currently hold, or null if the player has been eliminated 
   private Card[] deck; //the deck of remaining cards
   private int[] top; //the index of the top of the deck
   private boolean[][] known; //whether player knows another players card
-  private boolean[] handmaid;
+  private int[] masks; //the players still in the round, and the players protected by the handmaid, as bit masks
+  private int[] unseen; //how many of each card are in the hands of players still in the round or in the deck
   private int[] scores; //the current score of each player
-  private java.util.Random random;
+  private Dealer dealer;//the source of the deck for each round
   private int[] nextPlayer; //the index of the next player to draw a card (using Object reference so value is shared).
   private Agent[] agents;
+  private State engine;//the engine state this state observes, which takes its snapshots
+  private boolean frozen;//true for snapshots, which may not be updated
+  private java.util.ArrayList<State> snapshots;//the snapshots which may still share arrays with this engine state
+  private int shared;//the groups of arrays some snapshot may still share with this engine state
+  private int[] frozenScores;//a copy of the scores for snapshots, or null if the scores have changed since it was made
 
   /**
    * Default constructor to build the initial observed state for a player
-   * First player in the array will always start
+   * First player in the array will always start.
+   * The deals use the original shuffle (see Card.deal), so games from existing seeds are unchanged.
    * @param random the random number generator for the deals.
    * @param agents the array of players who start the game (must be of size 2,3 or 4)
    * @throws IllegalArgumentException if the array is of the wrong size.
    * */
   public State(java.util.Random random, Agent[] agents){
+    this(Dealer.legacy(random), agents);
+  }
+
+  /**
+   * Constructor to build the initial state with any random number generator.
+   * First player in the array will always start
+   * @param random the random number generator for the deals.
+   * @param agents the array of players who start the game (must be of size 2,3 or 4)
+   * @param legacyDeal true to deal with the original shuffle (Card.deal), and false to use the Fisher-Yates shuffle (Card.shuffle)
+   * @throws IllegalArgumentException if the array is of the wrong size.
+   * */
+  public State(java.util.random.RandomGenerator random, Agent[] agents, boolean legacyDeal){
+    this(legacyDeal?Dealer.legacy(random):Dealer.shuffle(random), agents);
+  }
+
+  /**
+   * Constructor to build the initial state, with the decks given by a dealer.
+   * First player in the array will always start
+   * @param dealer the source of the deck for each round
+   * @param agents the array of players who start the game (must be of size 2,3 or 4)
+   * @throws IllegalArgumentException if the array is of the wrong size.
+   * */
+  public State(Dealer dealer, Agent[] agents){
     num = agents.length;
     if(num<2 || num>4)
       throw new IllegalArgumentException("incorrect number of agents");
     this.agents = agents;
-    this.random = random;
+    this.dealer = dealer;
     player = -1;
+    engine = this;
     scores = new int[num];
     try{
       newRound();
@@ -49,12 +102,16 @@ public class State implements Cloneable{
    * @throws IllegalActionException if this is a player state.
    * **/
   public void newRound() throws IllegalActionException{
-    if(this.player!=-1) throw new IllegalActionException("Operation not permitted in player's state.");
-    deck = Card.deal(random);
+    if(this.player!=-1 || frozen) throw new IllegalActionException("Operation not permitted in player's state.");
+    release(HAND|COUNT|MASKS|KNOWN|TOP|UNSEEN);//the snapshots keep the arrays of the old round
+    deck = dealer.deal();
     discards = new Card[num][16];
     discardCount = new int[num];
+    discardValue = new int[num];
     hand = new Card[num];
-    handmaid = new boolean[num];
+    masks = new int[]{(1<<num)-1, 0};
+    unseen = new int[8];
+    for(Card c: deck) unseen[c.ordinal()]++;
     top = new int[1];
     known = new boolean[num][num];
     for(int i = 0; i<num; i++){
@@ -67,6 +124,8 @@ public class State implements Cloneable{
   /**
    * Produces a state object for a player in the game.
    * The update methods will be disabled for that State object.
+   * The player state shares its data with this state, so it changes as the game is played. 
+   * Use snapshot to keep a position that does not change.
    * @param player the player for who the State object is created.
    * @throws IllegalActionException if this is a player state.
    * @throws IllegalArgumentException if player is not between 0 and numPlayers
@@ -77,6 +136,8 @@ public class State implements Cloneable{
     try{
       State s = (State)this.clone();
       s.player = player;
+      s.snapshots = null;
+      s.shared = 0;
       return s;
     }catch(CloneNotSupportedException e){
       e.printStackTrace();
@@ -84,7 +145,279 @@ public class State implements Cloneable{
     }
   }
 
-  
+  //a state to be filled in by readView
+  private State(){}
+
+  /**
+   * Writes the view of the game from this player state, for an agent in another process (see RemoteAgent).
+   * The view holds only what the observer can see: the hands it does not know are left out, and the deck is sent as its size.
+   * It takes about 25 bytes: the players, the masks, the knowledge matrix, the known hands, the scores, the unseen counts
+   * and the discard piles, each packed into as few bits as they need.
+   * @param out the stream to write the view to
+   * @throws IOException if the stream fails
+   **/
+  void writeView(java.io.DataOutput out) throws java.io.IOException{
+    out.writeByte(num | player<<3 | nextPlayer[0]<<5);
+    out.writeByte(top[0]);
+    out.writeByte(masks[ALIVE] | masks[PROTECTED_MASK]<<4);
+    int k = 0, h = 0, sc = 0, u = 0;
+    for(int p = 0; p<num; p++){
+      for(int q = 0; q<num; q++) if(known[p][q]) k|=1<<(4*p+q);
+      Card c = getCard(p);
+      if(c!=null) h|=(c.ordinal()+1)<<(4*p);
+      sc|=scores[p]<<(4*p);
+    }
+    for(int c = 0; c<8; c++) u|=unseen[c]<<(4*c);
+    out.writeShort(k);
+    out.writeShort(h);
+    out.writeShort(sc);
+    out.writeInt(u);
+    for(int p = 0; p<num; p++){
+      out.writeByte(discardCount[p]);
+      for(int i = 0; i<discardCount[p]; i+=2)
+        out.writeByte(discards[p][i].ordinal() | (i+1<discardCount[p]?discards[p][i+1].ordinal():0)<<4);
+    }
+  }
+
+  /**
+   * Reads a player state from a view written by writeView.
+   * The hands the observer does not know hold a placeholder, which getCard does not reveal,
+   * and the state has no deck or agents, so it may be read and simulated from, but not narrated.
+   * As the placeholders are not the hands, roundWinner is only right once the hands are shown at the end of the round.
+   * @param in the stream to read the view from
+   * @return the player state
+   * @throws IOException if the stream fails
+   **/
+  static State readView(java.io.DataInput in) throws java.io.IOException{
+    int b = in.readUnsignedByte();
+    State s = new State();
+    s.num = b&7;
+    s.player = b>>>3&3;
+    s.engine = s;
+    s.discards = new Card[s.num][16];
+    s.discardCount = new int[s.num];
+    s.discardValue = new int[s.num];
+    s.hand = new Card[s.num];
+    s.deck = new Card[16];
+    s.top = new int[1];
+    s.known = new boolean[s.num][s.num];
+    s.masks = new int[2];
+    s.unseen = new int[8];
+    s.scores = new int[s.num];
+    s.nextPlayer = new int[]{b>>>5&3};
+    s.readFields(in);
+    return s;
+  }
+
+  /**
+   * Updates this state, which was read by readView, to a later view of the same round, as the player states of the game engine change.
+   * Any snapshots of the state are given their own copies of the arrays first.
+   * @param in the stream to read the view from
+   * @throws IOException if the stream fails
+   **/
+  void updateView(java.io.DataInput in) throws java.io.IOException{
+    if(shared!=0) detach(ALL);
+    nextPlayer[0] = in.readUnsignedByte()>>>5&3;
+    readFields(in);
+  }
+
+  //reads the fields of a view after the first byte
+  private void readFields(java.io.DataInput in) throws java.io.IOException{
+    top[0] = in.readUnsignedByte();
+    int m = in.readUnsignedByte();
+    masks[ALIVE] = m&15;
+    masks[PROTECTED_MASK] = m>>>4;
+    int k = in.readUnsignedShort(), h = in.readUnsignedShort(), sc = in.readUnsignedShort(), u = in.readInt();
+    for(int p = 0; p<num; p++){
+      for(int q = 0; q<num; q++) known[p][q] = (k>>>(4*p+q)&1)!=0;
+      int c = h>>>(4*p)&15;
+      hand[p] = c!=0?CARDS[c-1]:(masks[ALIVE]&1<<p)!=0?Card.GUARD:null;//a placeholder for a hand the observer does not know
+      int score = sc>>>(4*p)&15;
+      if(scores[p]!=score) frozenScores = null;
+      scores[p] = score;
+    }
+    for(int c = 0; c<8; c++) unseen[c] = u>>>(4*c)&15;
+    for(int p = 0; p<num; p++){
+      int n = in.readUnsignedByte();
+      int value = 0;
+      for(int i = 0; i<n; i+=2){
+        int d = in.readUnsignedByte();
+        discards[p][i] = CARDS[d&15];
+        if(i+1<n) discards[p][i+1] = CARDS[d>>>4];
+      }
+      for(int i = 0; i<n; i++) value+=discards[p][i].value();
+      discardCount[p] = n;
+      discardValue[p] = value;
+    }
+  }
+
+  /**
+   * Produces a deep copy of this state, sharing no data with this state or any other.
+   * The copy observes the game from the same player as this state.
+   * @return the copy of the state
+   * **/
+  State copy(){
+    try{
+      State s = (State)this.clone();
+      s.engine = s;
+      s.frozen = false;
+      s.snapshots = null;
+      s.shared = 0;
+      s.frozenScores = null;
+      s.discards = new Card[num][];
+      s.known = new boolean[num][];
+      for(int p = 0; p<num; p++){
+        s.discards[p] = discards[p].clone();
+        s.known[p] = known[p].clone();
+      }
+      s.discardCount = discardCount.clone();
+      s.discardValue = discardValue.clone();
+      s.hand = hand.clone();
+      s.deck = deck.clone();
+      s.top = top.clone();
+      s.masks = masks.clone();
+      s.unseen = unseen.clone();
+      s.scores = scores.clone();
+      s.nextPlayer = nextPlayer.clone();
+      return s;
+    }catch(CloneNotSupportedException e){
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Takes an immutable snapshot of this state, observed by the same player.
+   * The snapshot is not changed as the game is played, and its update methods are disabled.
+   * Taking a snapshot takes constant time: the snapshot shares the data of the game,
+   * and the game engine gives the snapshots a copy of an array only when it is about to change it.
+   * The deck and discard piles are never copied, so an agent may keep a snapshot of every position it sees,
+   * for little more than the cost of a shallow clone.
+   * Snapshots should be taken while the game engine is calling the agent, 
+   * as the engine state is not otherwise safe to read from another thread.
+   * @return a snapshot of this state, or this state, if it is a snapshot
+   * **/
+  public State snapshot(){
+    if(frozen) return this;
+    if(engine.shared==ALL){//nothing has changed since the last snapshot, which may be reused if it has the same observer
+      State last = engine.snapshots.get(engine.snapshots.size()-1);
+      if(last.player==player) return last;
+    }
+    try{
+      State s = (State)this.clone();
+      s.frozen = true;
+      s.snapshots = null;
+      s.shared = 0;
+      if(engine.frozenScores==null) engine.frozenScores = engine.scores.clone();//the scores change once a round, so are copied rather than shared
+      s.scores = engine.frozenScores;
+      if(engine.snapshots==null) engine.snapshots = new java.util.ArrayList<State>();
+      engine.snapshots.add(s);
+      engine.shared = ALL;
+      return s;
+    }catch(CloneNotSupportedException e){
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * @return true if this state is a snapshot, which does not change as the game is played
+   * **/
+  public boolean isSnapshot(){return frozen;}
+
+  //gives the snapshots still sharing the given groups of arrays their own copies, before this engine state changes them
+  private void detach(int groups){
+    groups&=shared;
+    if(groups==0) return;
+    Card[] h = (groups&HAND)!=0?hand.clone():hand;
+    int[] dc = (groups&COUNT)!=0?discardCount.clone():discardCount;
+    int[] dv = (groups&COUNT)!=0?discardValue.clone():discardValue;
+    int[] m = (groups&MASKS)!=0?masks.clone():masks;
+    int[] u = (groups&UNSEEN)!=0?unseen.clone():unseen;
+    boolean[][] k = known;
+    int[] t = top, np = nextPlayer;
+    if((groups&KNOWN)!=0){
+      k = new boolean[num][];
+      for(int p = 0; p<num; p++) k[p] = known[p].clone();
+    }
+    if((groups&TOP)!=0) t = top.clone();
+    if((groups&NEXT)!=0) np = nextPlayer.clone();
+    for(int i = snapshots.size()-1; i>=0; i--){
+      State s = snapshots.get(i);
+      if(s.hand==hand) s.hand = h;
+      if(s.discardCount==discardCount) s.discardCount = dc;
+      if(s.discardValue==discardValue) s.discardValue = dv;
+      if(s.masks==masks) s.masks = m;
+      if(s.unseen==unseen) s.unseen = u;
+      if(s.known==known) s.known = k;
+      if(s.top==top) s.top = t;
+      if(s.nextPlayer==nextPlayer) s.nextPlayer = np;
+      if(s.hand!=hand && s.discardCount!=discardCount && s.masks!=masks && s.unseen!=unseen && s.known!=known && s.top!=top && s.nextPlayer!=nextPlayer){
+        snapshots.set(i, snapshots.get(snapshots.size()-1));//the snapshot shares nothing more, so need not be tracked
+        snapshots.remove(snapshots.size()-1);
+      }
+    }
+    release(groups);
+  }
+
+  //records that no snapshot shares the given groups of arrays, as they have been copied or replaced
+  private void release(int groups){
+    if(shared==0) return;
+    shared&=~groups;
+    if(shared==0) snapshots.clear();
+  }
+
+  /**
+   * Finds the cards the observer of this state cannot see:
+   * those not discarded, not in a hand known to the observer, and not the card the observer has just drawn.
+   * These are the cards of the unknown hands and the remaining deck.
+   * @param drawn the card the observer has drawn and not yet played, or null if there is no such card
+   * @param hidden an array to write the hidden cards to, in order of value, of length at least 16
+   * @return the number of hidden cards
+   * **/
+  int hiddenCards(Card drawn, Card[] hidden){
+    int[] count = new int[8];
+    for(Card c: Card.values()) count[c.ordinal()] = c.count();
+    for(int p = 0; p<num; p++){
+      for(int i = 0; i<discardCount[p]; i++) count[discards[p][i].ordinal()]--;
+      Card c = getCard(p);
+      if(c!=null && !eliminated(p)) count[c.ordinal()]--;
+    }
+    if(drawn!=null) count[drawn.ordinal()]--;
+    int n = 0;
+    for(Card c: Card.values())
+      for(int i = 0; i<count[c.ordinal()]; i++) hidden[n++] = c;
+    return n;
+  }
+
+  /**
+   * Produces a game engine state for simulating the rest of the round from this state,
+   * where the hands the observer does not know and the remaining deck are filled in with the given cards.
+   * The copy shares no data with this state, and does not reveal any card the observer cannot see.
+   * @param drawn the card the observer has drawn and not yet played, or null if there is no such card
+   * @param hidden the cards for the unknown hands, in order of player index, followed by the remaining deck from the top,
+   * which must be a permutation of the cards given by hiddenCards
+   * @param random the random number generator for any subsequent deals
+   * @return the game engine state
+   * **/
+  State simulation(Card drawn, Card[] hidden, java.util.random.RandomGenerator random){
+    State s = copy();
+    int h = 0;
+    for(int p = 0; p<num; p++)
+      if(!eliminated(p) && getCard(p)==null) s.hand[p] = hidden[h++];
+    for(int i = 0; i<top[0]; i++) s.deck[i] = null;//cards already dealt are not needed by the rules
+    if(drawn!=null) s.deck[top[0]-1] = drawn;
+    for(int i = top[0]; i<16; i++) s.deck[i] = hidden[h++];
+    java.util.Arrays.fill(s.unseen, 0);
+    for(int p = 0; p<num; p++)
+      if(!eliminated(p)) s.unseen[s.hand[p].ordinal()]++;
+    for(int i = top[0]; i<16; i++) s.unseen[s.deck[i].ordinal()]++;
+    s.player = -1;
+    s.dealer = Dealer.shuffle(random);
+    return s;
+  }
+
+
   /**
    * checks to see if agent a targetting agent t, with card c, whilst holding card d is a legal action.
    * That is 
@@ -102,19 +435,33 @@ public class State implements Cloneable{
    * @throws IllegalActionException if any of these conditions hold.
    * **/      
   private void legalAction(int a, int t, Card c, Card drawn) throws IllegalActionException{
+    String reason = illegal(a, t, c, drawn);
+    if(reason!=null) throw new IllegalActionException(reason);
+  }
+
+  /**
+   * Checks the rules of legalAction without throwing an exception.
+   * @param a the index of the playing agent
+   * @param t the index of the targeted player or -1, of no such target exists
+   * @param c the card played 
+   * @param drawn the card drawn
+   * @return the reason the action is illegal, or null if it is legal.
+   * **/
+  private String illegal(int a, int t, Card c, Card drawn){
     if(hand[a]!=c && drawn!=c)
-      throw new IllegalActionException("Player does not hold the played card");
+      return "Player does not hold the played card";
     if(nextPlayer[0]!=a)//it must be the actors turn
-      throw new IllegalActionException("Wrong player in action");
+      return "Wrong player in action";
     if((hand[a]==Card.COUNTESS || drawn==Card.COUNTESS) && (c==Card.KING || c==Card.PRINCE))//if one of the cards is the countess, a king or prince may not be played.
-      throw new IllegalActionException("Player must play the countess");
+      return "Player must play the countess";
     if(t!=-1){//if this action has a target (1,2,3,5,6 cards)
       if(eliminated(t)) //you cannot target an eliminated player
-        throw new IllegalActionException("The action's target is already eliminated");
-      if(c==Card.PRINCE && a==t) return;//a player can always target themselves with the Prince.
+        return "The action's target is already eliminated";
+      if(c==Card.PRINCE && a==t) return null;//a player can always target themselves with the Prince.
       if(handmaid(t) && (!allHandmaid(a) || c==Card.PRINCE))//you cannot target a player with the handmaid
-        throw new IllegalActionException("The action's target is protected by the handmaid");
+        return "The action's target is protected by the handmaid";
     } 
+    return null;
   }
 
   /**
@@ -130,15 +477,47 @@ public class State implements Cloneable{
    * There are other rules (such as a player not targetting themselves) that is enforced in the Action class.
    * @param act the action to be performed
    * @param drawn the card drawn by the playing agent.
-   * @throws IllegalActionException if any of these conditions hold.
+   * @return true if and only if the action is legal.
    * **/      
   public boolean legalAction(Action act, Card drawn){
     if(act ==null) return false;
-    try{
-      legalAction(act.player(), act.target(), act.card(), drawn);
+    return illegal(act.player(), act.target(), act.card(), drawn)==null;
+  }
+
+  /**
+   * Finds every legal action of the next player, who has drawn the given card, without throwing exceptions or allocating memory.
+   * The actions are written as action ids (see Action.id) to the given buffer,
+   * which must have room for MAX_LEGAL_ACTIONS ids. The rules are the same as for legalAction.
+   * May be called from player states, so agents may use it in playCard.
+   * @param drawn the card drawn by the next player
+   * @param ids the buffer to write the ids of the legal actions to
+   * @return the number of legal actions written to the buffer
+   * **/
+  public int legalActions(Card drawn, int[] ids){
+    int a = nextPlayer[0];
+    Card held = hand[a];
+    if(held==null) return 0;
+    int n = legalActions(a, held, drawn, ids, 0);
+    if(drawn!=held) n = legalActions(a, drawn, drawn, ids, n);
+    return n;
+  }
+
+  //writes the legal actions of player a playing card c to the buffer, from position n
+  private int legalActions(int a, Card c, Card drawn, int[] ids, int n){
+    switch(c){
+      case HANDMAID: case COUNTESS: case PRINCESS:
+        if(illegal(a, -1, c, drawn)==null) ids[n++] = Action.id(c, a, -1, null);
+        break;
+      default:
+        for(int t = 0; t<num; t++){
+          if(t==a && c!=Card.PRINCE) continue;//only the prince may target the player themselves
+          if(illegal(a, t, c, drawn)!=null) continue;
+          if(c==Card.GUARD)
+            for(int g = 1; g<8; g++) ids[n++] = Action.id(c, a, t, CARDS[g]);
+          else ids[n++] = Action.id(c, a, t, null);
+        }
     }
-    catch(IllegalActionException e){return false;}
-    return true;
+    return n;
   }
 
 
@@ -149,8 +528,11 @@ public class State implements Cloneable{
    * @throws IllegalActionException if an agent attempts to access this from a player state.
    * **/
   public Card drawCard() throws IllegalActionException{
-    if(player!=-1) throw new IllegalActionException("operation not permitted in player's state.");
-    return deck[top[0]++];
+    if(player!=-1 || frozen) throw new IllegalActionException("operation not permitted in player's state.");
+    detach(TOP|UNSEEN);
+    Card c = deck[top[0]++];
+    unseen[c.ordinal()]--;
+    return c;
   }
 
 
@@ -163,11 +545,29 @@ public class State implements Cloneable{
    * @throws IllegalActionAxception if the state is a player state, or if the action is against the rules. 
    ***/
   public String update(Action act, Card card) throws IllegalActionException{
-    if(player!= -1)//Actions may only be executed from game states 
+    return describe(act, apply(act, card));
+  }
+
+  /**
+   * Executes the given action of a player, without describing it.
+   * This is the headless version of update, which builds no Strings, 
+   * and is intended for simulations where the narration is not required.
+   * May only be called for non-player states (i.e. the omniscient game engine state)
+   * @param act the action to be performed
+   * @param card the card drawn by the actor
+   * @return the outcome of the action: the index of the player eliminated by the action, 
+   * NO_ELIMINATION if no player was eliminated, or PROTECTED if the action had no effect because of the Handmaid.
+   * @throws IllegalActionAxception if the state is a player state, if the action is null, or if the action is against the rules. 
+   ***/
+  public int apply(Action act, Card card) throws IllegalActionException{
+    if(player!= -1 || frozen)//Actions may only be executed from game states 
       throw new IllegalActionException("Method cannot be called from a player state");
+    if(act==null)
+      throw new IllegalActionException("No action was played");
     int a = act.player();//actor
     int t = act.target();//target
     Card c = act.card();
+    if(shared!=0) detach(changes(a, t, c, act.guess()));
     discards[a][discardCount[a]++] = c;//put played card on the top of the acting player's discard pile, required for checking actions.
     try{
        legalAction(a,t,c,card);
@@ -175,47 +575,51 @@ public class State implements Cloneable{
       discardCount[a]--;
       throw e;//reset discard top
     }
+    discardValue[a]+=c.value();
+    unseen[card.ordinal()]++;//the drawn card is kept, and the played card is seen
+    unseen[c.ordinal()]--;
     if(c==hand[a]){//if the player played the card in their hand, insert the new card into their hand.
       hand[a]=card;
       for(int p = 0; p<num; p++)
         if(p!=a) known[p][a]=false;//rescind players knowledge if a known card was played
     }
-    handmaid[a]=false;
-    String ret = act.toString(name(a), t!=-1?name(t):"");
+    masks[PROTECTED_MASK]&=~(1<<a);
+    int outcome = NO_ELIMINATION;
     switch(c){
       case GUARD://actor plays the guard
-        ret+=guardAction(a,t,act.guess());
+        outcome = guardAction(a,t,act.guess());
         break;
       case PRIEST:
-        ret+=priestAction(a,t);
+        outcome = priestAction(a,t);
         break;
       case BARON:
-        ret+=baronAction(a,t);
+        outcome = baronAction(a,t);
         break;
       case HANDMAID:
-        handmaid[a]=true;
+        masks[PROTECTED_MASK]|=1<<a;
         break;
       case PRINCE:
-        ret+= princeAction(t);  
+        outcome = princeAction(t);  
         break;
       case KING:
-        ret+= kingAction(a,t);
+        outcome = kingAction(a,t);
         break;
       case COUNTESS:  
         //no update required
         break;
       case PRINCESS:
-        ret+= princessAction(a);
+        outcome = princessAction(a);
         break;
       default: 
         throw new IllegalActionException("Illegal Action? Something's gone very wrong");
     }//end of switch
     if(roundOver()){//check for round over
+      detach(KNOWN);
+      frozenScores = null;
       for(int i = 0; i<num; i++)
        for(int p = 0; p<num; p++) 
          known[i][p]=true;
       int winner = roundWinner();
-      ret+="\nPlayer "+winner+" wins the round.";
       scores[winner]++;
       nextPlayer[0] = winner;
     }
@@ -223,64 +627,78 @@ public class State implements Cloneable{
       nextPlayer[0] = (nextPlayer[0]+1)%num; 
       while(eliminated(nextPlayer[0])) nextPlayer[0] = (nextPlayer[0]+1)%num; 
     }
-    return ret;
+    return outcome;
   }
 
-  private String guardAction(int a, int t, Card guess){
-    if(allHandmaid(a))
-      return "\nPlayer "+name(t)+" is protected by the Handmaid.";//no effect action
-    else if(guess==hand[t]){//correct guess, target eliminated
-      discards[t][discardCount[t]++] = hand[t];
-      hand[t]=null;
-      for(int p = 0; p<num; p++)known[p][t]=true;
-      return "\nPlayer "+name(t)+" had the "+guess+" and is eliminated from the round";
-    } 
-    else return "\nPlayer "+name(t)+" does not have the "+guess;
+  //the groups of arrays an action may change, which the snapshots must be given copies of before the action is applied
+  private int changes(int a, int t, Card c, Card guess){
+    int groups = COUNT|NEXT|UNSEEN;
+    if(c==hand[a]){
+      groups|=HAND;
+      for(int p = 0; p<num; p++)
+        if(p!=a && known[p][a]) groups|=KNOWN;//the knowledge of the played card is rescinded
+    }
+    if(handmaid(a) || c==Card.HANDMAID) groups|=MASKS;
+    switch(c){
+      case GUARD:
+        if(t!=-1 && guess==hand[t]) groups|=HAND|KNOWN|MASKS;
+        break;
+      case PRIEST:
+        groups|=KNOWN;
+        break;
+      case PRINCE:
+        groups|=HAND|KNOWN|TOP|MASKS;
+        break;
+      case BARON: case PRINCESS:
+        groups|=HAND|KNOWN|MASKS;
+        break;
+      case KING:
+        groups|=HAND|KNOWN;
+        break;
+      default://the handmaid and countess change nothing else
+    }
+    return groups;
+  }
+
+  private int guardAction(int a, int t, Card guess){
+    if(allHandmaid(a)) return PROTECTED;//no effect action
+    else if(guess==hand[t]) return eliminate(t);//correct guess, target eliminated
+    else return NO_ELIMINATION;
   }
 
-  private String priestAction(int a, int t){
-    if(allHandmaid(a))
-      return "\nPlayer "+name(t)+" is protected by the Handmaid.";//no effect action
+  private int priestAction(int a, int t){
+    if(allHandmaid(a)) return PROTECTED;//no effect action
     else known[a][t]=true;
-    return "\nPlayer "+name(a)+" sees player "+name(t)+"'s card.";
+    return NO_ELIMINATION;
   }
 
-  private String baronAction(int a, int t){
-    if(allHandmaid(a))
-      return "\nPlayer "+name(t)+" is protected by the Handmaid.";//no effect action
+  private int baronAction(int a, int t){
+    if(allHandmaid(a)) return PROTECTED;//no effect action
     int elim = -1;
     if(hand[a].value()>hand[t].value()) elim = t;
     else if(hand[a].value()<hand[t].value()) elim = a;
-    if(elim!=-1){
-      discards[elim][discardCount[elim]++] = hand[elim];
-      hand[elim]=null;
-      for(int p = 0; p<num; p++) known[p][elim]=true;
-      return "\nPlayer "+name(elim)+" holds the lesser card: "+discards[elim][discardCount[elim]-1]+", and is eliminated";
-    }
+    if(elim!=-1) return eliminate(elim);
     known[a][t]=true;
     known[t][a]=true;
-    return "\n Both players hold the same card, and neither is eliminated.";
+    return NO_ELIMINATION;
   }
 
   //handmaid action requires no update
 
-  private String princeAction(int t){
+  private int princeAction(int t){
     Card discard = hand[t];
+    if(discard==Card.PRINCESS) return eliminate(t);
     discards[t][discardCount[t]++] = discard;
-    if(discard==Card.PRINCESS){
-      hand[t]=null;
-      for(int p = 0; p<num; p++) known[p][t]=true;
-      return "\nPlayer "+name(t)+" discarded the Princess and is eliminated.";
-    }
+    discardValue[t]+=discard.value();
+    unseen[discard.ordinal()]--;
     hand[t]=deck[top[0]++];
     for(int p =0; p<num;p++) 
       if(p!=t)known[p][t]=false;
-    return "\nPlayer "+name(t)+" discards the "+discard+".";
+    return NO_ELIMINATION;
   }
 
-  private String kingAction(int a, int t){
-    if(allHandmaid(a))
-      return "\nPlayer "+name(t)+" is protected by the Handmaid.";
+  private int kingAction(int a, int t){
+    if(allHandmaid(a)) return PROTECTED;
     known[a][t]=true;
     known[t][a]=true;
     for(int p =0; p<num;p++){ 
@@ -293,18 +711,67 @@ public class State implements Cloneable{
     Card tmp = hand[a];
     hand[a] = hand[t];
     hand[t] = tmp;
-    return "\nPlayer "+name(a)+" and player "+name(t)+" swap cards.";
+    return NO_ELIMINATION;
   }
 
   //countess action not required
   
-  private String princessAction(int a){
-    discards[a][discardCount[a]++] = hand[a];
-    hand[a]=null;
-    for(int p = 0; p< num; p++) known[p][a]=true;
-    String outcome =  "\nPlayer "+name(a)+" played the Princess and is eliminated.";
-    outcome += "\n Player "+name(a)+" was also holding the "+discards[a][discardCount[a]-1]+".";
-    return outcome;
+  private int princessAction(int a){
+    return eliminate(a);
+  }
+
+  //eliminates a player from the round, discarding the card they hold, and returns the player's index
+  private int eliminate(int e){
+    Card c = hand[e];
+    discards[e][discardCount[e]++] = c;
+    discardValue[e]+=c.value();
+    unseen[c.ordinal()]--;
+    hand[e]=null;
+    masks[ALIVE]&=~(1<<e);
+    for(int p = 0; p<num; p++) known[p][e]=true;
+    return e;
+  }
+
+  /**
+   * Gives a plain English description of an action that has just been applied to this state.
+   * This must be called before any further action is applied, as the description is read from the discard piles.
+   * @param act the action that was applied
+   * @param outcome the outcome returned by apply
+   * @return a plain English description of the action and its outcome
+   **/
+  public String describe(Action act, int outcome){
+    int a = act.player();
+    int t = act.target();
+    String ret = act.toString(name(a), t!=-1?name(t):"");
+    if(outcome==PROTECTED)
+      ret+="\nPlayer "+name(t)+" is protected by the Handmaid.";
+    else switch(act.card()){
+      case GUARD:
+        if(outcome==t) ret+="\nPlayer "+name(t)+" had the "+act.guess()+" and is eliminated from the round";
+        else ret+="\nPlayer "+name(t)+" does not have the "+act.guess();
+        break;
+      case PRIEST:
+        ret+="\nPlayer "+name(a)+" sees player "+name(t)+"'s card.";
+        break;
+      case BARON:
+        if(outcome!=NO_ELIMINATION) ret+="\nPlayer "+name(outcome)+" holds the lesser card: "+discards[outcome][discardCount[outcome]-1]+", and is eliminated";
+        else ret+="\n Both players hold the same card, and neither is eliminated.";
+        break;
+      case PRINCE:
+        if(outcome==t) ret+="\nPlayer "+name(t)+" discarded the Princess and is eliminated.";
+        else ret+="\nPlayer "+name(t)+" discards the "+discards[t][discardCount[t]-1]+".";
+        break;
+      case KING:
+        ret+="\nPlayer "+name(a)+" and player "+name(t)+" swap cards.";
+        break;
+      case PRINCESS:
+        ret+="\nPlayer "+name(a)+" played the Princess and is eliminated.";
+        ret+="\n Player "+name(a)+" was also holding the "+discards[a][discardCount[a]-1]+".";
+        break;
+      default://handmaid and countess have no outcome to report
+    }
+    if(roundOver()) ret+="\nPlayer "+roundWinner()+" wins the round.";
+    return ret;
   }
 
   /**
@@ -330,6 +797,27 @@ public class State implements Cloneable{
     };
   }
 
+  /**
+   * gives the number of cards in a player's discard pile
+   * @param player the index of the player whos discard pile is sought.
+   * @return the number of cards the player has discarded this round
+   * **/
+  public int numDiscards(int player){
+    return discardCount[player];
+  }
+
+  /**
+   * gives a card from a player's discard pile, without creating an iterator.
+   * @param player the index of the player whos discard pile is sought.
+   * @param index the position in the discard pile, with 0 being the first card discarded this round
+   * @return the discarded card
+   * @throws ArrayIndexOutOfBoundsException if the index is not less than numDiscards(player)
+   * **/
+  public Card getDiscard(int player, int index){
+    if(index>=discardCount[player]) throw new ArrayIndexOutOfBoundsException(index);
+    return discards[player][index];
+  }
+
   /**
    * get the card of the specified player, if known.
    * @param playerIndex the player for which we seek the card
@@ -373,7 +861,7 @@ public class State implements Cloneable{
    * **/
   public boolean handmaid(int player){
     if(player<0 || player >=num) return false;
-    return handmaid[player];
+    return (masks[PROTECTED_MASK]&1<<player)!=0;
   }
 
   /**
@@ -383,13 +871,25 @@ public class State implements Cloneable{
    * @throws ArrayIndexoutOfBoundsException if the playerIndex is out of range.
    * **/
   public boolean allHandmaid(int player){
-    boolean noAction = true;
-    for(int i = 0; i<num; i++)
-      noAction = noAction && (eliminated(i) || handmaid[i] || i==player); 
-    return noAction;
+    return (masks[ALIVE]&~masks[PROTECTED_MASK]&~(1<<player))==0;
+  }
+
+  //the order of the deck for this round, for the engine's own simulations
+  Card[] deck(){
+    return deck;
   }
 
-  private String name(int playerIndex){
+  //whether the observer knows the player's card
+  boolean knows(int observer, int player){
+    return known[observer][player];
+  }
+
+  //the agent playing as a player, for the engine's own replicas of the game
+  Agent agent(int playerIndex){
+    return agents[playerIndex];
+  }
+
+  String name(int playerIndex){
     return agents[playerIndex].toString()+"("+playerIndex+")";
   }
   /**
@@ -406,28 +906,34 @@ public class State implements Cloneable{
    * @return an array of all cards not in the discard piles
    ***/
   public Card[] unseenCards(){
-    int alive = 0;
-    for(int p = 0; p<num; p++)
-      if(!eliminated(p))alive++;
-    Card[] rem = new Card[deckSize()+alive];
-    int aCount = 0;
-    for(int p = 0; p<num; p++)
-      if(!eliminated(p)) rem[aCount++]=hand[p];
-    for(int i = 0; i<deckSize(); i++) rem[alive+i] = deck[top[0]+i];
-    java.util.Arrays.sort(rem);
+    int n = 0;
+    for(int count: unseen) n+=count;
+    Card[] rem = new Card[n];
+    n = 0;
+    for(int c = 0; c<8; c++)
+      for(int i = 0; i<unseen[c]; i++) rem[n++] = CARDS[c];
     return rem;
   }
 
+  /**
+   * Counts the remaining cards that haven't been played yet, without allocating an array of them.
+   * These are the cards returned by unseenCards.
+   * @param counts an array of length at least 8, to which the number of each card is written, indexed by the card's ordinal
+   * @return the total number of unseen cards
+   ***/
+  public int unseenCards(int[] counts){
+    int n = 0;
+    for(int c = 0; c<8; c++) n+=counts[c] = unseen[c];
+    return n;
+  }
+
   /**
    * Tests to see if the round is over, either by all but one player being eliminated
    * or by all but one card being drawn from the deck.
    * @return true if and only if the round is over
    * **/
   public boolean roundOver(){
-    int remaining = 0;
-    for(int i=0; i<num; i++) 
-      if(!eliminated(i)) remaining++;
-    return remaining==1 || deckSize()<2;
+    return Integer.bitCount(masks[ALIVE])==1 || deckSize()<2;
   }
 
   /**helper method to determine the winner of the round.
@@ -442,8 +948,7 @@ public class State implements Cloneable{
     int discardValue=-1;
     for(int p=0; p<num; p++){
       if(!eliminated(p)){
-        int dv = 0;
-        for(int j=0; j<discardCount[p]; j++) dv+=discards[p][j].value();
+        int dv = this.discardValue[p];
         if(hand[p].value()>topCard || (hand[p].value()==topCard && dv>discardValue)){
           winner = p;
           topCard = hand[p].value();
@@ -0,0 +1,456 @@
+package loveletter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class for running a large number of independent games of LoveLetter in parallel.
+ * Games are shared out between a fixed pool of worker threads, and each game is played
+ * with its own seed derived from the tournament seed and the index of the game,
+ * so any single game can be reproduced with <code>new LoveLetter(Tournament.gameSeed(seed, game), ps)</code>.
+ * Tournament games are played headless, so no time is spent describing the play.
+ * The agents are rotated through the seats from game to game,
+ * and each worker keeps its own statistics which are merged when all games are complete.
+ * Each worker also keeps its own AgentPool, so agents that can be reset are reused from game to game, rather than constructed for each.
+ **/
+public class Tournament{
+
+  private static final int CHUNK = 64;//the number of games a worker claims at a time
+
+  private AgentFactory[] factories;//the factory of each agent
+  private long seed;
+  private int threads;
+  private long moveMillis;//the time limits of each agent, or 0 if agents are not timed
+  private long gameMillis;
+  private Profiler profiler;//records the calls of each agent, or null
+  private GameRecordWriter records;//the archive of the games, or null
+
+  /**
+   * Constructs a tournament between the given agents.
+   * Each agent class must implement Agent and have a zero parameter constructor.
+   * @param agentClasses the classes of the competing agents (2,3 or 4 of them)
+   * @param seed the seed from which every game's seed is derived
+   * @param threads the number of worker threads to play games on
+   * @throws IllegalArgumentException if there are the wrong number of agents, an agent class is not an Agent
+   * or has no zero parameter constructor, or threads is not positive.
+   **/
+  public Tournament(Class<?>[] agentClasses, long seed, int threads){
+    this(AgentFactory.of(agentClasses), seed, threads);
+  }
+
+  /**
+   * Constructs a tournament between agents created by the given factories,
+   * such as agents that are constructed with parameters, or that share data loaded by their factory.
+   * @param factories the factories of the competing agents (2,3 or 4 of them)
+   * @param seed the seed from which every game's seed is derived
+   * @param threads the number of worker threads to play games on
+   * @throws IllegalArgumentException if there are the wrong number of agents, or threads is not positive.
+   **/
+  public Tournament(AgentFactory[] factories, long seed, int threads){
+    checkAgents(factories);
+    if(threads<1) throw new IllegalArgumentException("At least one thread is required");
+    this.factories = factories.clone();
+    this.seed = seed;
+    this.threads = threads;
+  }
+
+  //checks there are 2,3 or 4 agents
+  static void checkAgents(AgentFactory[] factories){
+    if(factories.length<2 || factories.length>4)
+      throw new IllegalArgumentException("incorrect number of agents");
+  }
+
+  /**
+   * Constructs a tournament between the given agents, using one worker thread per available processor.
+   * @param agentClasses the classes of the competing agents (2,3 or 4 of them)
+   * @param seed the seed from which every game's seed is derived
+   **/
+  public Tournament(Class<?>[] agentClasses, long seed){
+    this(agentClasses, seed, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Limits the time each agent may take, with a Watchdog for each worker.
+   * Moves that run out of time are replaced by random moves, and each agent's time and timeouts are recorded in the results.
+   * @param moveMillis the time allowed for each call to an agent, in milliseconds, or 0 to play without time limits
+   * @param gameMillis the total time allowed for each agent's calls in a game, in milliseconds, or 0 for no limit
+   **/
+  public void setTimeLimits(long moveMillis, long gameMillis){
+    this.moveMillis = moveMillis;
+    this.gameMillis = gameMillis;
+  }
+
+  /**
+   * Sets a profiler to record the latency and allocation of each agent's calls, and its illegal actions and timeouts.
+   * The profiler is shared by all the workers, and must have an entry for each agent, in the tournament's order.
+   * @param profiler the profiler, or null to play unprofiled
+   **/
+  public void setProfiler(Profiler profiler){
+    this.profiler = profiler;
+  }
+
+  /**
+   * Records every game of the tournament, with a GameRecorder for each worker.
+   * The writer is not closed when the games are complete.
+   * @param records the writer to archive the games to, or null to keep no records
+   **/
+  public void setRecords(GameRecordWriter records){
+    this.records = records;
+  }
+
+  /**
+   * Derives the seed of an individual game from the tournament seed.
+   * This is a SplitMix64 finaliser, so neighbouring games have unrelated seeds.
+   * @param seed the tournament seed
+   * @param game the index of the game in the tournament
+   * @return the seed used for the deals of that game
+   **/
+  public static long gameSeed(long seed, long game){
+    long z = seed + (game+1)*0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Gives the seat an agent occupies in a given game.
+   * Seats are rotated by one place each game, so over any run of numPlayers games
+   * every agent plays from every seat once.
+   * @param agent the index of the agent in the tournament
+   * @param game the index of the game
+   * @return the seat (player index) of the agent in that game
+   **/
+  public int seat(int agent, long game){
+    int n = factories.length;
+    return (int)((agent+game)%n);
+  }
+
+  /**
+   * Plays the given number of games, spread across the worker threads.
+   * @param games the number of games to play
+   * @return the merged statistics of all the games
+   * @throws InterruptedException if the calling thread is interrupted while waiting for the workers
+   **/
+  public Results play(long games) throws InterruptedException{
+    AtomicLong next = new AtomicLong();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<Results>> futures = new ArrayList<Future<Results>>();
+    try{
+      for(int w = 0; w<threads; w++)
+        futures.add(pool.submit(() -> {
+          Results local = new Results(factories.length);
+          AgentPool agents = new AgentPool(factories);
+          Watchdog watchdog = moveMillis>0?new Watchdog(moveMillis, gameMillis):null;
+          GameRecorder recorder = records!=null?new GameRecorder(records):null;
+          try{
+            long start;
+            while((start = next.getAndAdd(CHUNK))<games){
+              long end = Math.min(games, start+CHUNK);
+              for(long g = start; g<end; g++) playGame(g, local, agents, watchdog, recorder);
+            }
+          }finally{
+            if(watchdog!=null) watchdog.close();
+            agents.close();
+          }
+          return local;
+        }));
+      Results total = new Results(factories.length);
+      for(Future<Results> f: futures) total.merge(f.get());
+      return total;
+    }catch(ExecutionException e){
+      throw new IllegalStateException("A tournament worker failed", e.getCause());
+    }finally{
+      pool.shutdownNow();
+    }
+  }
+
+  //creates a fresh instance of each agent, in the seats they occupy in the given game
+  private Agent[] seatAgents(long game) throws ReflectiveOperationException{
+    Agent[] seated = new Agent[factories.length];
+    for(int a = 0; a<seated.length; a++)
+      seated[seat(a, game)] = factories[a].create();
+    return seated;
+  }
+
+  /**
+   * Plays a game of the tournament again, with fresh agents in the same seats and the same seed.
+   * As each agent is seeded before each move (see Agent.seed), this reproduces the game exactly,
+   * provided the agents' moves depend only on the game and their seeds, and no move ran out of time.
+   * @param game the index of the game
+   * @param listener a listener to observe the game, such as a Narrator, or null
+   * @return the final score in each seat
+   * @throws ReflectiveOperationException if an agent could not be constructed
+   **/
+  public int[] replay(long game, GameListener listener) throws ReflectiveOperationException{
+    return replay(game, null, 0, 0, listener);
+  }
+
+  /**
+   * Plays a game of the tournament again, fast-forwarding through its record to a given position,
+   * so that the agents only compute their moves from that position on (see LoveLetter.setFastForward).
+   * @param game the index of the game
+   * @param record the record of the game, such as from an archive of the tournament, or null to play the game from the start
+   * @param round the index of the round of the position
+   * @param moves the number of actions of that round to play from the record
+   * @param listener a listener to observe the game, such as a Narrator, or null
+   * @return the final score in each seat
+   * @throws ReflectiveOperationException if an agent could not be constructed
+   * @throws IllegalArgumentException if the record is not of the given game, or the position is not in it
+   **/
+  public int[] replay(long game, GameRecord record, int round, int moves, GameListener listener) throws ReflectiveOperationException{
+    long s = gameSeed(seed, game);
+    if(record!=null && record.seed()!=s) throw new IllegalArgumentException("The record is not of game "+game);
+    LoveLetter env = new LoveLetter(s);
+    env.setListener(listener);
+    env.setFastForward(record, round, moves);
+    return env.playGame(seatAgents(game));
+  }
+
+  /**
+   * Finds the record of a game of the tournament in an archive of its games, which may be in any order.
+   * @param archive the archive of the tournament's games
+   * @param game the index of the game
+   * @return the record of the game, or null if it is not in the archive
+   **/
+  public GameRecord find(GameArchive archive, long game){
+    long s = gameSeed(seed, game);
+    for(int i = 0; i<archive.size(); i++)
+      if(archive.seed(i)==s) return archive.record(i);
+    return null;
+  }
+
+  /**
+   * Plays a single game of the tournament and records it in the worker's statistics.
+   * @param game the index of the game
+   * @param results the statistics of the worker playing the game
+   * @param agents the worker's pool of agents
+   * @param watchdog the worker's watchdog, or null if agents are not timed
+   * @param recorder the worker's recorder, or null if games are not recorded
+   **/
+  private void playGame(long game, Results results, AgentPool agents, Watchdog watchdog, GameRecorder recorder) throws Exception{
+    int n = factories.length;
+    int[] seating = new int[n];//the agent in each seat
+    for(int a = 0; a<n; a++) seating[seat(a, game)] = a;
+    Agent[] seated = agents.acquire(seating);
+    LoveLetter env = new LoveLetter(gameSeed(seed, game));
+    env.setWatchdog(watchdog);
+    env.setListener(recorder);
+    if(profiler!=null) env.setProfiler(profiler, seating);
+    results.record(seating, env.playGame(seated));
+    if(watchdog!=null) results.recordTimes(seating, watchdog);
+    agents.release(seating, seated, watchdog);
+  }
+
+  /**
+   * The statistics of a set of tournament games.
+   * Agents are referred to by their index in the tournament, and seats by their player index in the game.
+   **/
+  public static class Results{
+    private int num;
+    private long games;
+    private long failed;
+    private long[] gameWins;
+    private long[] roundWins;
+    private long[] seatWins;
+    private long[][] agentSeatGames;
+    private long[][] agentSeatWins;
+    private long[] calls;//the time statistics of each agent, if the agents are timed
+    private long[] timeouts;
+    private long[] nanos;
+    private long[] maxNanos;
+
+    private Results(int num){
+      this.num = num;
+      gameWins = new long[num];
+      roundWins = new long[num];
+      seatWins = new long[num];
+      agentSeatGames = new long[num][num];
+      agentSeatWins = new long[num][num];
+      calls = new long[num];
+      timeouts = new long[num];
+      nanos = new long[num];
+      maxNanos = new long[num];
+    }
+
+    //records a finished game, given the agent in each seat and the final score in each seat
+    private void record(int[] seating, int[] scores){
+      if(scores==null){failed++; return;}
+      games++;
+      int winner = 0;
+      for(int s = 0; s<num; s++){
+        if(scores[s]>scores[winner]) winner = s;
+        roundWins[seating[s]]+=scores[s];
+        agentSeatGames[seating[s]][s]++;
+      }
+      gameWins[seating[winner]]++;
+      seatWins[winner]++;
+      agentSeatWins[seating[winner]][winner]++;
+    }
+
+    //records the time each agent took in a game, given the agent in each seat
+    private void recordTimes(int[] seating, Watchdog watchdog){
+      for(int s = 0; s<num; s++){
+        int a = seating[s];
+        calls[a]+=watchdog.calls(s);
+        timeouts[a]+=watchdog.timeouts(s);
+        nanos[a]+=watchdog.nanos(s);
+        maxNanos[a] = Math.max(maxNanos[a], watchdog.maxNanos(s));
+      }
+    }
+
+    //adds the statistics of another worker to these statistics
+    private void merge(Results r){
+      games+=r.games;
+      failed+=r.failed;
+      for(int i = 0; i<num; i++){
+        calls[i]+=r.calls[i];
+        timeouts[i]+=r.timeouts[i];
+        nanos[i]+=r.nanos[i];
+        maxNanos[i] = Math.max(maxNanos[i], r.maxNanos[i]);
+        gameWins[i]+=r.gameWins[i];
+        roundWins[i]+=r.roundWins[i];
+        seatWins[i]+=r.seatWins[i];
+        for(int j = 0; j<num; j++){
+          agentSeatGames[i][j]+=r.agentSeatGames[i][j];
+          agentSeatWins[i][j]+=r.agentSeatWins[i][j];
+        }
+      }
+    }
+
+    /**
+     * @return the number of games completed
+     **/
+    public long games(){return games;}
+
+    /**
+     * @return the number of games abandoned because the engine failed
+     **/
+    public long failed(){return failed;}
+
+    /**
+     * @param agent the index of the agent
+     * @return the number of games the agent won
+     **/
+    public long gameWins(int agent){return gameWins[agent];}
+
+    /**
+     * @param agent the index of the agent
+     * @return the number of rounds the agent won
+     **/
+    public long roundWins(int agent){return roundWins[agent];}
+
+    /**
+     * @param seat the player index
+     * @return the number of games won by whichever agent sat in that seat
+     **/
+    public long seatWins(int seat){return seatWins[seat];}
+
+    /**
+     * @param agent the index of the agent
+     * @param seat the player index
+     * @return the number of games the agent played from that seat
+     **/
+    public long agentSeatGames(int agent, int seat){return agentSeatGames[agent][seat];}
+
+    /**
+     * @param agent the index of the agent
+     * @param seat the player index
+     * @return the number of games the agent won from that seat
+     **/
+    public long agentSeatWins(int agent, int seat){return agentSeatWins[agent][seat];}
+
+    /**
+     * @param agent the index of the agent
+     * @return the number of timed calls made to the agent, which is 0 if the agents were not timed
+     **/
+    public long calls(int agent){return calls[agent];}
+
+    /**
+     * @param agent the index of the agent
+     * @return the number of the agent's calls that ran out of time
+     **/
+    public long timeouts(int agent){return timeouts[agent];}
+
+    /**
+     * @param agent the index of the agent
+     * @return the total time of the agent's timed calls, in nanoseconds
+     **/
+    public long nanos(int agent){return nanos[agent];}
+
+    /**
+     * @param agent the index of the agent
+     * @return the longest time of any of the agent's timed calls, in nanoseconds
+     **/
+    public long maxNanos(int agent){return maxNanos[agent];}
+
+    /**
+     * produces a table of the results
+     * @return a string representation of the results
+     **/
+    public String toString(){
+      StringBuilder sb = new StringBuilder();
+      sb.append("Games: "+games+(failed>0?" ("+failed+" failed)":"")+"\n");
+      for(int a = 0; a<num; a++){
+        sb.append("Agent "+a+": games "+gameWins[a]+", rounds "+roundWins[a]+", wins by seat");
+        for(int s = 0; s<num; s++) sb.append(" "+agentSeatWins[a][s]+"/"+agentSeatGames[a][s]);
+        if(calls[a]>0) sb.append(String.format(", mean call %.1fus, max call %.1fms, timeouts %d", nanos[a]/1e3/calls[a], maxNanos[a]/1e6, timeouts[a]));
+        sb.append("\n");
+      }
+      sb.append("Wins by seat:");
+      for(int s = 0; s<num; s++) sb.append(" "+seatWins[s]);
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Runs a tournament between two RandomAgents and two BorkedAgents.
+   * The agents are profiled, and the profile is registered over JMX as loveletter:type=Profiler, and printed as CSV at the end.
+   * If a file is given, every game is recorded to it (see GameRecord).
+   * <p>
+   * With the arguments <code>replay game</code>, a single game of the tournament is played again and narrated.
+   * With <code>replay game file round moves</code>, the game's record is found in the file of records,
+   * and the game is fast-forwarded to the given position before the agents play on. Any other number of replay arguments is an error.
+   * @param args optionally the number of games, the number of threads, and the file to record the games to, or the arguments of a replay
+   **/
+  public static void main(String[] args) throws Exception{
+    Class<?>[] agents = {agents.RandomAgent.class, agents.RandomAgent.class, agents.BorkedAgent.class, agents.BorkedAgent.class};
+    if(args.length>1 && args[0].equals("replay")){
+      if(args.length!=2 && args.length!=5)//a file without the position would be ignored, and the game replayed from its seed
+        throw new IllegalArgumentException("Usage: replay game [file round moves]");
+      Tournament t = new Tournament(agents, 0, 1);
+      long game = Long.parseLong(args[1]);
+      GameRecord record = null;
+      if(args.length==5){
+        try(GameArchive archive = GameArchive.open(java.nio.file.Paths.get(args[2]))){
+          record = t.find(archive, game);
+        }
+        if(record==null) throw new IllegalArgumentException("Game "+game+" is not in "+args[2]);
+      }
+      int[] scores = t.replay(game, record, record==null?0:Integer.parseInt(args[3]), record==null?0:Integer.parseInt(args[4]), new Narrator(System.out));
+      System.out.println("The final scores by seat are: "+java.util.Arrays.toString(scores));
+      return;
+    }
+    long games = args.length>0?Long.parseLong(args[0]):10000;
+    int threads = args.length>1?Integer.parseInt(args[1]):Runtime.getRuntime().availableProcessors();
+    Tournament t = new Tournament(agents, 0, threads);
+    String[] names = new String[agents.length];
+    for(int a = 0; a<names.length; a++) names[a] = a+":"+agents[a].getSimpleName();
+    Profiler profiler = new Profiler(names);
+    profiler.register("loveletter:type=Profiler");
+    t.setProfiler(profiler);
+    GameRecordWriter records = args.length>2?GameRecordWriter.create(java.nio.file.Paths.get(args[2])):null;
+    t.setRecords(records);
+    long start = System.nanoTime();
+    Results r = t.play(games);
+    if(records!=null) records.close();
+    double secs = (System.nanoTime()-start)/1e9;
+    System.out.println(r);
+    System.out.println(String.format("%d games in %.2fs on %d threads (%.0f games/s)", r.games(), secs, threads, r.games()/secs));
+    System.out.print(profiler.summary());
+  }
+}
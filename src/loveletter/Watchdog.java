@@ -0,0 +1,213 @@
+package loveletter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Limits the time agents may take, so that one slow or hung agent cannot stall a game.
+ * Each seat's agent is called on a daemon thread of its own, and the game waits for each call
+ * no longer than the time allowed per move, or the time the agent has left for the game, whichever is less.
+ * If a call to playCard runs out of time, LoveLetter substitutes a random move, as it does for an illegal action.
+ * An agent that has used its time for the game, or has not returned from an earlier call, is not called again,
+ * and all its remaining moves are substituted.
+ * <p>
+ * A watchdog may be reused for many games, one at a time, and the threads are kept between games,
+ * except for those of agents that failed to return, which are abandoned.
+ * The time and timeouts of each seat in the current game are recorded.
+ **/
+public class Watchdog{
+
+  private long moveNanos;
+  private long gameNanos;
+  private ExecutorService[] threads = new ExecutorService[4];
+  private Thread[] workers = new Thread[4];//the thread of each seat's executor
+  private Future<?>[] pending = new Future<?>[4];//the last call to each seat's agent
+  private Agent[] agents;
+  private long[] used = new long[4];
+  private long[] calls = new long[4];
+  private long[] timeouts = new long[4];
+  private long[] failures = new long[4];
+  private long[] maxNanos = new long[4];
+
+  /**
+   * Constructs a watchdog.
+   * @param moveMillis the time allowed for each call to an agent, in milliseconds
+   * @param gameMillis the total time allowed for each agent's calls in a game, in milliseconds, or 0 for no limit
+   * @throws IllegalArgumentException if the time per move is not positive, or the time per game is negative
+   **/
+  public Watchdog(long moveMillis, long gameMillis){
+    if(moveMillis<=0) throw new IllegalArgumentException("The time per move must be positive");
+    if(gameMillis<0) throw new IllegalArgumentException("The time per game cannot be negative");
+    this.moveNanos = moveMillis*1000000L;
+    this.gameNanos = gameMillis*1000000L;
+  }
+
+  /**
+   * Starts a new game, resetting the time used by each seat.
+   * @param agents the agents of the game, by seat
+   **/
+  public void start(Agent[] agents){
+    this.agents = agents;
+    for(int p = 0; p<4; p++){
+      if(pending[p]!=null && !pending[p].isDone()){//abandon the thread of an agent that did not return
+        threads[p].shutdownNow();
+        threads[p] = null;
+      }
+      pending[p] = null;
+      used[p] = 0;
+      calls[p] = 0;
+      timeouts[p] = 0;
+      failures[p] = 0;
+      maxNanos[p] = 0;
+    }
+  }
+
+  /**
+   * Calls newRound for an agent, within the time limits.
+   * A call that runs out of time or throws an exception is abandoned.
+   * @param p the seat of the agent
+   * @param start the agent's state at the start of the round
+   **/
+  public void newRound(int p, State start){
+    Agent agent = agents[p];
+    try{
+      call(p, () -> {agent.newRound(start); return null;});
+    }catch(TimeoutException | ExecutionException e){/*the agent misses the start of the round*/}
+  }
+
+  /**
+   * Calls see for an agent, within the time limits.
+   * A call that runs out of time or throws an exception is abandoned.
+   * @param p the seat of the agent
+   * @param act the action performed
+   * @param results the agent's state after the action
+   **/
+  public void see(int p, Action act, State results){
+    Agent agent = agents[p];
+    try{
+      call(p, () -> {agent.see(act, results); return null;});
+    }catch(TimeoutException | ExecutionException e){/*the agent misses the action*/}
+  }
+
+  /**
+   * Seeds an agent and calls playCard, within the time limits.
+   * The agent is seeded on its own thread, as part of the call, so an earlier call that has not returned
+   * is never reseeded while it runs: the agent is then not called at all.
+   * @param p the seat of the agent
+   * @param c the card drawn
+   * @param seed the seed for the move (see Agent.seed)
+   * @return the action played, or null if the agent threw an exception
+   * @throws TimeoutException if the agent ran out of time, has used its time for the game, or has not returned from an earlier call
+   **/
+  public Action playCard(int p, Card c, long seed) throws TimeoutException{
+    Agent agent = agents[p];
+    try{
+      return call(p, () -> {agent.seed(seed); return agent.playCard(c);});
+    }catch(ExecutionException e){
+      return null;
+    }
+  }
+
+  //runs a call on the seat's thread, and waits for it within the time limits
+  private <T> T call(int p, Callable<T> task) throws TimeoutException, ExecutionException{
+    if(expired(p)) throw new TimeoutException("The agent has used its time for the game");
+    if(pending[p]!=null && !pending[p].isDone()){
+      timeouts[p]++;
+      throw new TimeoutException("The agent has not returned from an earlier call");
+    }
+    long wait = gameNanos>0?Math.min(moveNanos, gameNanos-used[p]):moveNanos;
+    long start = System.nanoTime();
+    Future<T> f = thread(p).submit(task);
+    pending[p] = f;
+    try{
+      return f.get(wait, TimeUnit.NANOSECONDS);
+    }catch(TimeoutException e){//the future is not cancelled, so that it is only done when the agent returns
+      workers[p].interrupt();
+      timeouts[p]++;
+      throw e;
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      workers[p].interrupt();
+      throw new TimeoutException("Interrupted while waiting for the agent");
+    }catch(ExecutionException e){
+      failures[p]++;
+      throw e;
+    }finally{
+      long t = System.nanoTime()-start;
+      used[p]+=t;
+      calls[p]++;
+      maxNanos[p] = Math.max(maxNanos[p], t);
+    }
+  }
+
+  private ExecutorService thread(int p){
+    if(threads[p]==null){
+      String name = "Agent seat "+p;
+      threads[p] = Executors.newSingleThreadExecutor(r -> {
+          Thread t = new Thread(r, name);
+          t.setDaemon(true);
+          workers[p] = t;
+          return t;
+        });
+    }
+    return threads[p];
+  }
+
+  /**
+   * @param p the seat of the agent
+   * @return true if and only if the agent has used its time for the current game
+   **/
+  public boolean expired(int p){return gameNanos>0 && used[p]>=gameNanos;}
+
+  /**
+   * @param p the seat of the agent
+   * @return true if the agent has not returned from its last call, which may still be running
+   **/
+  public boolean running(int p){return pending[p]!=null && !pending[p].isDone();}
+
+  /**
+   * @param p the seat of the agent
+   * @return the number of calls made to the agent in the current game
+   **/
+  public long calls(int p){return calls[p];}
+
+  /**
+   * @param p the seat of the agent
+   * @return the number of the agent's calls in the current game that ran out of time, or were refused because an earlier call had not returned
+   **/
+  public long timeouts(int p){return timeouts[p];}
+
+  /**
+   * @param p the seat of the agent
+   * @return the number of the agent's calls in the current game that threw an exception
+   **/
+  public long failures(int p){return failures[p];}
+
+  /**
+   * @param p the seat of the agent
+   * @return the total time of the agent's calls in the current game, in nanoseconds
+   **/
+  public long nanos(int p){return used[p];}
+
+  /**
+   * @param p the seat of the agent
+   * @return the longest time of any of the agent's calls in the current game, in nanoseconds
+   **/
+  public long maxNanos(int p){return maxNanos[p];}
+
+  /**
+   * Stops the threads of the watchdog, interrupting any agent that is still running.
+   **/
+  public void close(){
+    for(int p = 0; p<4; p++)
+      if(threads[p]!=null){
+        threads[p].shutdownNow();
+        threads[p] = null;
+      }
+  }
+}